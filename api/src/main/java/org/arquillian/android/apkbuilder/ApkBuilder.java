@@ -17,22 +17,85 @@
  */
 package org.arquillian.android.apkbuilder;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.tools.JavaFileObject;
+
+import org.arquillian.android.apkbuilder.archive.ArchiveInput;
+import org.arquillian.android.apkbuilder.cache.BuildCache;
+import org.arquillian.android.apkbuilder.cache.ResourceCache;
+import org.arquillian.android.apkbuilder.compiler.CompilationFailedException;
+import org.arquillian.android.apkbuilder.compiler.CompilationResult;
+import org.arquillian.android.apkbuilder.compiler.CompilerDiagnostic;
+import org.arquillian.android.apkbuilder.compiler.InProcessJavacEngine;
+import org.arquillian.android.apkbuilder.compiler.SourceSet;
+import org.arquillian.android.apkbuilder.dex.ClassGroup;
+import org.arquillian.android.apkbuilder.dex.PreDexCache;
+import org.arquillian.android.apkbuilder.metrics.BuildListener;
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.metrics.CompositeBuildListener;
+import org.arquillian.android.apkbuilder.process.ProcessFailedException;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.process.ProcessRunner;
+import org.arquillian.android.apkbuilder.sdk.Toolchain;
+import org.arquillian.android.apkbuilder.sdk.ToolchainRegistry;
+import org.arquillian.android.apkbuilder.sign.ApkSigner;
+import org.arquillian.android.apkbuilder.sign.SigningKey;
+import org.arquillian.android.apkbuilder.sign.V1SchemeSigner;
+import org.arquillian.android.apkbuilder.sign.V2SchemeSigner;
+import org.arquillian.android.apkbuilder.stage.Stage;
+import org.arquillian.android.apkbuilder.stage.StageExecutor;
+import org.arquillian.android.apkbuilder.stage.StageFailedException;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.stage.StageScheduler;
 import org.arquillian.android.apkbuilder.util.Command;
 import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.arquillian.android.apkbuilder.util.Fingerprint;
 import org.arquillian.android.apkbuilder.util.SDKUtils;
+import org.arquillian.android.apkbuilder.zip.ApkWriter;
+import org.arquillian.android.apkbuilder.zip.CompressionPolicy;
+import org.arquillian.android.apkbuilder.zip.ParallelEntryWriter;
+import org.arquillian.android.apkbuilder.zip.ZipReader;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ArchivePath;
 import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
 
 /**
  * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
@@ -40,90 +103,891 @@ import org.jboss.shrinkwrap.api.Node;
 public class ApkBuilder {
     private static final Logger logger = Logger.getLogger(ApkBuilder.class.getName());
 
+    private static final String DIRECTORY_FINGERPRINT = "directory";
+
+    private static final AtomicLong executionCounter = new AtomicLong();
+
+    // content of the application, which the build only reads
+    private final File sourceDirectory;
+    // outputs of the build, the same as the source directory unless the builder overlays a read-only directory
     private final File workingDirectory;
-    private final Configuration configuration = new Configuration();
+    private final Configuration configuration;
+
+    // fingerprint of the archive this builder was initialized from, null for directories
+    private String sourceFingerprint;
+    // content read directly from the archive, null if everything is in the working directory
+    private ArchiveInput archiveInput;
+    // fingerprints of the written archive nodes by their paths, null unless the builder was initialized from an archive
+    private SortedMap<String, String> nodeFingerprints;
+
+    // roots of the Java sources of the builder, the trees are listed again on every build
+    private SourceSet javaSources;
+
+    // true if the working directory was created by the builder, so it may be deleted after the build
+    private boolean ownsWorkingDirectory;
+    // true for a variant, which only packages the resources and the dex compiled by another build
+    private boolean packageOnly;
+
+    // counters of the next or running build
+    private volatile BuildMetrics metrics = new BuildMetrics();
+    // writing of the content into the working directory, reported to the listeners of the first build, starts at nanoTime
+    private long stagingStart;
+    private long stagingDuration = -1;
+    private long stagingThread;
+
+    // stream receiving the APK of the running build instead of the working directory, or null
+    private volatile OutputStream apkStream;
+
+    // listeners of the running build
+    private volatile BuildListener listener = new CompositeBuildListener(Collections.<BuildListener> emptyList());
+    // identifies the running build to the listeners
+    private volatile long execution;
+
+    // runs the tools of this build and of its variants, cancelling it destroys the running ones
+    private final ProcessRunner processRunner;
 
     private ApkBuilder(String name, File workingDirectory) {
+        this(name, workingDirectory, workingDirectory);
+    }
+
+    private ApkBuilder(String name, File sourceDirectory, File workingDirectory) {
+        this.sourceDirectory = sourceDirectory;
         this.workingDirectory = workingDirectory;
+        this.configuration = new Configuration();
         this.configuration.outputName = name;
+        this.processRunner = new ProcessRunner();
+    }
+
+    /**
+     * Creates a variant of the builder, which builds the same content in the same working directory.
+     */
+    private ApkBuilder(ApkBuilder builder, Configuration configuration) {
+        this.sourceDirectory = builder.sourceDirectory;
+        this.workingDirectory = builder.workingDirectory;
+        this.configuration = configuration;
+        this.processRunner = builder.processRunner;
+        this.sourceFingerprint = builder.sourceFingerprint;
+        this.archiveInput = builder.archiveInput;
+        this.nodeFingerprints = builder.nodeFingerprints;
+        this.javaSources = builder.javaSources;
     }
 
     public Configuration getConfiguration() {
         return configuration;
     }
 
-    public File build() { // FIXME add some error handling!
+    /**
+     * Builds the APK.
+     *
+     * @return the APK, or null if the build failed
+     */
+    public File build() {
+        return execute().getApk();
+    }
+
+    /**
+     * Builds the APK and writes it into the stream, which is left open. With the in-process signer and without the build
+     * cache, the APK is written directly into the stream and no copy of it is kept in the working directory. A working
+     * directory created by the builder is deleted after the build, so the builder can't be used for another build.
+     *
+     * @return outcome of the build, without the APK file
+     */
+    public BuildResult execute(OutputStream outputStream) {
+        apkStream = outputStream;
         try {
-            compileResources();
-        } catch (IOException e) {
-            // TODO log exception
-            return null;
+            return execute();
+        } finally {
+            apkStream = null;
+        }
+    }
+
+    /**
+     * Builds the APK and writes it into the channel, which is left open.
+     *
+     * @see #execute(OutputStream)
+     */
+    public BuildResult execute(WritableByteChannel channel) {
+        return execute(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Builds the APK in memory.
+     *
+     * @return content of the APK, or null if the build failed
+     */
+    public byte[] buildToByteArray() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        return execute(outputStream).isSuccess() ? outputStream.toByteArray() : null;
+    }
+
+    /**
+     * Builds the APK and describes the outcome, including the cause of a failure.
+     */
+    public BuildResult execute() {
+        long start = System.currentTimeMillis();
+        String name = configuration.getOutputName();
+
+        listener = new CompositeBuildListener(configuration.getBuildListeners());
+        execution = executionCounter.incrementAndGet();
+        listener.buildStarted(execution, name);
+        if (stagingDuration >= 0) {
+            listener.stagingFinished(execution, name, stagingStart, stagingDuration, stagingThread);
+            stagingDuration = -1;
         }
 
+        BuildResult result = execute(name, start);
+        // the APK was persisted or written into the stream, or the build failed, nothing else outlives the build
+        if (ownsWorkingDirectory && (configuration.getOutputDirectory() != null || apkStream != null)) {
+            deleteWorkingDirectory();
+        }
+        // counters of the next build start from zero
+        metrics = new BuildMetrics();
+
+        listener.buildFinished(execution, result);
+        return result;
+    }
+
+    private BuildResult execute(String name, long start) {
+        File apk = workingFile("/target/" + name + ".apk");
+
+        BuildCache buildCache = configuration.getBuildCache();
+        String cacheKey = null;
+        if (buildCache != null) {
+            boolean hit = false;
+            try {
+                cacheKey = computeCacheKey();
+                hit = buildCache.retrieve(cacheKey, apk);
+                metrics.cacheLookup(BuildMetrics.BUILD_CACHE, hit);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't read from the build cache, building the APK.", e);
+                cacheKey = null;
+            }
+
+            if (hit) {
+                metrics.add(BuildMetrics.BYTES_READ, apk.length());
+                try {
+                    return new BuildResult(name, deliver(apk), null, true, System.currentTimeMillis() - start,
+                        Collections.<StageResult> emptyList(), metrics);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Couldn't deliver the cached APK.", e);
+                    return new BuildResult(name, null, e, true, System.currentTimeMillis() - start,
+                        Collections.<StageResult> emptyList(), metrics);
+                }
+            }
+        }
+
+        // variants running concurrently mustn't share the state of their stages
+        File stateDirectory = packageOnly ? workingFile("/target/.incremental/variants/" + name)
+            : workingFile("/target/.incremental");
+        StageExecutor executor = new StageExecutor(stateDirectory, configuration.isIncremental());
+        executor.setListener(new StageExecutor.Listener() {
+            @Override
+            public void stageStarted(Stage stage) {
+                listener.stageStarted(execution, configuration.getOutputName(), stage.getName());
+            }
+
+            @Override
+            public void stageFinished(Stage stage, StageResult result) {
+                if (result.isExecuted() && result.isSuccess()) {
+                    countFiles(stage.getInputs(), BuildMetrics.BYTES_READ, null);
+                    countFiles(stage.getOutputs(), BuildMetrics.BYTES_WRITTEN, BuildMetrics.FILES_WRITTEN);
+                }
+                listener.stageFinished(execution, configuration.getOutputName(), result);
+            }
+        });
+        StageScheduler scheduler = new StageScheduler(executor, configuration.getParallelism());
         try {
-            compileJava();
+            checkCancelled();
+            scheduler.run(createStages());
+        } catch (StageFailedException e) {
+            logger.log(Level.SEVERE, "Stage \"" + e.getStageName() + "\" failed.", e.getCause());
+            return new BuildResult(name, null, e, false, System.currentTimeMillis() - start, executor.getResults(),
+                metrics);
         } catch (IOException e) {
-            // TODO log exception
-            return null;
+            logger.log(Level.SEVERE, "Build failed.", e);
+            return new BuildResult(name, null, e, false, System.currentTimeMillis() - start, executor.getResults(),
+                metrics);
+        }
+
+        if (cacheKey != null && apk.isFile()) {
+            try {
+                buildCache.store(cacheKey, apk);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't store the APK in the build cache.", e);
+            }
         }
 
         try {
-            compileDex();
+            apk = deliver(apk);
         } catch (IOException e) {
-            // TODO log exception
-            return null;
+            logger.log(Level.SEVERE, "Couldn't deliver the APK.", e);
+            return new BuildResult(name, null, e, false, System.currentTimeMillis() - start, executor.getResults(),
+                metrics);
+        }
+
+        return new BuildResult(name, apk, null, false, System.currentTimeMillis() - start, executor.getResults(), metrics);
+    }
+
+    /**
+     * Builds several variants of the content, which differ only in their configuration. Variants with the same tools and
+     * platform share the compiled resources, classes and dex, so these are built once for every such group and the rest
+     * of the group is only packaged and signed, in parallel. Groups are built one after another in the working directory
+     * of this builder.
+     *
+     * @param variants configurations of the variants, usually modified {@link Configuration#copy() copies} of the
+     *        configuration of this builder, with different output names
+     * @return results in the order of the variants
+     */
+    public List<BuildResult> executeVariants(List<Configuration> variants) {
+        Set<String> names = new HashSet<String>();
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < variants.size(); i++) {
+            Configuration variant = variants.get(i);
+            if (!names.add(variant.getOutputName())) {
+                throw new IllegalArgumentException("Output name \"" + variant.getOutputName()
+                    + "\" is used by more than one variant!");
+            }
+
+            String key = sharedStagesKey(variant);
+            List<Integer> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(key, group);
+            }
+            group.add(i);
+        }
+
+        BuildResult[] results = new BuildResult[variants.size()];
+        for (List<Integer> group : groups.values()) {
+            List<Integer> pending = new ArrayList<Integer>(group);
+
+            // a variant from the build cache or a failed one doesn't leave the compiled outputs for the others
+            while (!pending.isEmpty()) {
+                int index = pending.remove(0);
+                results[index] = variant(variants.get(index), false).execute();
+                if (results[index].isSuccess() && !results[index].isCached()) {
+                    break;
+                }
+            }
+
+            packageVariants(variants, pending, results);
         }
 
+        if (ownsWorkingDirectory && hasOutputDirectories(variants)) {
+            deleteWorkingDirectory();
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private void packageVariants(final List<Configuration> variants, List<Integer> indexes, BuildResult[] results) {
+        int threads = Math.min(configuration.getParallelism(), indexes.size());
+        if (threads <= 1) {
+            for (int index : indexes) {
+                results[index] = variant(variants.get(index), true).execute();
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
         try {
-            packageApk();
-        } catch (IOException e) {
-            // TODO log exception
-            return null;
+            Map<Integer, Future<BuildResult>> futures = new LinkedHashMap<Integer, Future<BuildResult>>();
+            for (final int index : indexes) {
+                final ApkBuilder variant = variant(variants.get(index), true);
+                futures.put(index, executor.submit(new Callable<BuildResult>() {
+                    @Override
+                    public BuildResult call() {
+                        return variant.execute();
+                    }
+                }));
+            }
+            for (Map.Entry<Integer, Future<BuildResult>> future : futures.entrySet()) {
+                results[future.getKey()] = future.getValue().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building variants of \"" + configuration.getOutputName()
+                + "\".", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
+    }
+
+    private ApkBuilder variant(Configuration variantConfiguration, boolean packageOnly) {
+        ApkBuilder variant = new ApkBuilder(this, variantConfiguration);
+        variant.packageOnly = packageOnly;
+
+        // staging is reported with the first variant
+        variant.stagingStart = stagingStart;
+        variant.stagingDuration = stagingDuration;
+        variant.stagingThread = stagingThread;
+        stagingDuration = -1;
 
+        return variant;
+    }
+
+    /**
+     * @return key of everything influencing the outputs of the stages, which variants of a group share
+     */
+    private static String sharedStagesKey(Configuration variant) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.addFileStamp(new File(variant.getAaptPath()));
+        fingerprint.addFileStamp(new File(variant.getAndroidJarPath()));
+        fingerprint.add(variant.getJavacFingerprint());
+        fingerprint.addFileStamp(new File(variant.getDxPath()));
+        fingerprint.add(variant.getPreDexCacheDirectory() != null);
+        return fingerprint.toHex();
+    }
+
+    private static boolean hasOutputDirectories(List<Configuration> variants) {
+        for (Configuration variant : variants) {
+            if (variant.getOutputDirectory() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds a modified version of the archive, which this builder was initialized from. Only the nodes added, changed or
+     * removed since the previous build are written into the working directory and only the stages affected by them are
+     * executed, so the rebuild takes time proportional to the size of the change rather than to the size of the archive.
+     *
+     * @throws IllegalStateException if the builder wasn't initialized from an archive or its working directory was deleted
+     *         after persisting the previous APK
+     */
+    public BuildResult rebuild(Archive<?> archive) {
+        if (nodeFingerprints == null) {
+            throw new IllegalStateException("Only a builder initialized from an archive can rebuild it!");
+        }
+        if (!workingDirectory.isDirectory()) {
+            throw new IllegalStateException("Working directory \"" + workingDirectory.getPath() + "\" doesn't exist anymore!");
+        }
+
+        long stagingStart = System.nanoTime();
         try {
-            addDexToApk();
+            writeArchive(archive, archiveInput != null);
         } catch (IOException e) {
-            // TODO log exception
-            return null;
+            throw new IllegalStateException("Couldn't write archive \"" + archive.getName() + "\"!", e);
+        }
+        staged(stagingStart);
+
+        return execute();
+    }
+
+    /**
+     * Writes nodes of the archive, which aren't read directly from it during the build, into the working directory. Nodes
+     * with the same fingerprint as in the previously written archive are left untouched, nodes missing in the archive are
+     * deleted.
+     *
+     * @param inMemory if true, only the content needed on disk by the external tools is written
+     */
+    private void writeArchive(Archive<?> archive, boolean inMemory) throws IOException {
+        Map<ArchivePath, Node> content = archive.getContent();
+        SortedMap<String, String> fingerprints = new TreeMap<String, String>();
+        long filesWritten = 0;
+        long bytesWritten = 0;
+
+        // sorted, so that the fingerprint doesn't depend on the iteration order of the archive
+        for (ArchivePath path : new TreeSet<ArchivePath>(content.keySet())) {
+            Node node = content.get(path);
+            String name = path.get();
+            File file = new File(workingDirectory, name);
+            boolean onDisk = !inMemory || !ArchiveInput.isInMemory(path);
+
+            if (node.getAsset() == null) {
+                // this node is directory
+                fingerprints.put(name, DIRECTORY_FINGERPRINT);
+                if (onDisk) {
+                    file.mkdirs();
+                }
+                continue;
+            }
+
+            String previous = nodeFingerprints.get(name);
+            if (onDisk && previous == null) {
+                // a new node is fingerprinted while it's written
+                Fingerprint fingerprint = new Fingerprint();
+                bytesWritten += writeAsset(node.getAsset(), file, fingerprint);
+                filesWritten++;
+                fingerprints.put(name, fingerprint.toHex());
+                continue;
+            }
+
+            Fingerprint fingerprint = new Fingerprint();
+            InputStream inputStream = node.getAsset().openStream();
+            try {
+                fingerprint.add(inputStream);
+            } finally {
+                inputStream.close();
+            }
+            String hex = fingerprint.toHex();
+            fingerprints.put(name, hex);
+
+            if (onDisk && (!hex.equals(previous) || !file.isFile())) {
+                bytesWritten += writeAsset(node.getAsset(), file, null);
+                filesWritten++;
+            }
         }
 
+        for (String name : nodeFingerprints.keySet()) {
+            if (!fingerprints.containsKey(name)) {
+                FileUtils.delete(new File(workingDirectory, name));
+            }
+        }
+
+        Fingerprint fingerprint = new Fingerprint();
+        for (Map.Entry<String, String> node : fingerprints.entrySet()) {
+            fingerprint.add(node.getKey());
+            fingerprint.add(node.getValue());
+        }
+
+        metrics.add(BuildMetrics.FILES_WRITTEN, filesWritten);
+        metrics.add(BuildMetrics.BYTES_WRITTEN, bytesWritten);
+        nodeFingerprints = fingerprints;
+        sourceFingerprint = fingerprint.toHex();
+        archiveInput = inMemory ? new ArchiveInput(archive) : null;
+    }
+
+    /**
+     * @param fingerprint fingerprint updated with the written content, or null
+     * @return number of written bytes
+     */
+    private static long writeAsset(Asset asset, File file, Fingerprint fingerprint) throws IOException {
+        file.getParentFile().mkdirs();
+
+        byte[] buffer = new byte[8192];
+        int read;
+        long total = 0;
+        InputStream inputStream = asset.openStream();
         try {
-            signApk();
-        } catch (IOException e) {
-            // TODO log exception
-            return null;
+            FileOutputStream fileOutputStream = new FileOutputStream(file);
+            try {
+                while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                    fileOutputStream.write(buffer, 0, read);
+                    if (fingerprint != null) {
+                        fingerprint.update(buffer, 0, read);
+                    }
+                    total += read;
+                }
+            } finally {
+                fileOutputStream.close();
+            }
+        } finally {
+            inputStream.close();
         }
 
+        if (fingerprint != null) {
+            fingerprint.add(total);
+        }
+        return total;
+    }
+
+    /**
+     * Hands the APK over to the stream of the running build, or persists it if there's no stream.
+     *
+     * @return the persisted APK, or null if it was written into the stream
+     */
+    private File deliver(File apk) throws IOException {
+        if (apkStream == null) {
+            return persist(apk);
+        }
+
+        // the APK wasn't written directly into the stream, so it's moved there from the working directory
+        if (!isStreamingApk()) {
+            Files.copy(apk.toPath(), apkStream);
+            metrics.add(BuildMetrics.BYTES_READ, apk.length());
+            FileUtils.delete(apk);
+        }
+        apkStream.flush();
+
+        return null;
+    }
+
+    /**
+     * @return true if the final stage writes the APK directly into the stream of the running build
+     */
+    private boolean isStreamingApk() {
+        return apkStream != null && configuration.getSignerMode() == ExecutionMode.IN_PROCESS
+            && configuration.getBuildCacheDirectory() == null;
+    }
+
+    /**
+     * Copies the APK into the output directory, if there is one.
+     *
+     * @return the persisted APK
+     */
+    private File persist(File apk) throws IOException {
+        String outputDirectory = configuration.getOutputDirectory();
+        if (outputDirectory == null) {
+            return apk;
+        }
+
+        File directory = new File(outputDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Couldn't create output directory \"" + directory.getPath() + "\" !");
+        }
+
+        File persisted = new File(directory, apk.getName());
+        // the working directory may be on another filesystem, so the APK can't be simply renamed
+        FileUtils.copyFile(apk, persisted);
+        metrics.add(BuildMetrics.BYTES_WRITTEN, persisted.length());
+        metrics.add(BuildMetrics.FILES_WRITTEN, 1);
+
+        return persisted;
+    }
+
+    private void deleteWorkingDirectory() {
         try {
-            alignApk();
+            FileUtils.delete(workingDirectory);
         } catch (IOException e) {
-            // TODO log exception
-            return null;
+            logger.log(Level.WARNING, "Couldn't delete working directory \"" + workingDirectory.getPath() + "\".", e);
+        }
+    }
+
+    /**
+     * Cancels the running build. Child processes are destroyed immediately and no further stage is started. The builder
+     * can't be used for another build afterwards.
+     */
+    public void cancel() {
+        processRunner.cancel();
+    }
+
+    public boolean isCancelled() {
+        return processRunner.isCancelled();
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (processRunner.isCancelled()) {
+            throw new InterruptedIOException("Build of \"" + configuration.getOutputName() + "\" was cancelled.");
+        }
+    }
+
+    public File getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    public File getSourceDirectory() {
+        return sourceDirectory;
+    }
+
+    private String computeCacheKey() throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+
+        if (sourceFingerprint != null) {
+            fingerprint.add(sourceFingerprint);
+        } else {
+            fingerprint.addFile(sourceFile("/AndroidManifest.xml"));
+            fingerprint.addTree(sourceFile("/res"));
+            fingerprint.addTree(sourceFile("/asset"));
+            fingerprint.addTree(sourceFile("/class"));
+            fingerprint.addTree(sourceFile("/java"));
+        }
+
+        configuration.fingerprint(fingerprint);
+
+        return fingerprint.toHex();
+    }
+
+    /**
+     * Creates the build pipeline. Every stage writes into its own files, so that the outputs of a skipped stage stay valid
+     * for the stages depending on it.
+     */
+    private List<Stage> createStages() {
+        final String outputName = configuration.getOutputName();
+
+        Stage compileResources = new Stage("compileResources") {
+            @Override
+            public void execute() throws IOException {
+                compileResources(this);
+            }
+        }
+            .input(sourceFile("/AndroidManifest.xml"), sourceFile("/res"))
+            .tool(configuration.getAaptPath(), configuration.getAndroidJarPath())
+            .output(workingFile("/target/generated-sources/r"), workingFile("/target/resources.ap_"));
+
+        Stage compileJava = new Stage("compileJava") {
+            @Override
+            public void execute() throws IOException {
+                compileJava(this);
+            }
+
+            @Override
+            public void fingerprintInputs(Fingerprint fingerprint) throws IOException {
+                super.fingerprintInputs(fingerprint);
+                if (archiveInput != null) {
+                    archiveInput.fingerprintJavaSources(fingerprint);
+                }
+            }
+        }
+            .input(sourceFile("/java"), workingFile("/target/generated-sources/r"))
+            .parameter(configuration.getJavacFingerprint())
+            .output(workingFile("/target/generated-classes"))
+            .dependsOn(compileResources);
+
+        // aapt, javac and dx each need the output of the previous one, only the pre-dexed classes don't depend on them
+        final boolean preDex = configuration.getPreDexCacheDirectory() != null;
+        Stage preDexClasses = new Stage("preDexClasses") {
+            @Override
+            public void execute() throws IOException {
+                preDexClasses(this);
+            }
+
+            @Override
+            public void fingerprintInputs(Fingerprint fingerprint) throws IOException {
+                super.fingerprintInputs(fingerprint);
+                if (archiveInput != null) {
+                    archiveInput.fingerprintClasses(fingerprint);
+                }
+            }
+        }
+            .input(sourceFile("/class"))
+            .tool(configuration.getDxPath())
+            .output(workingFile("/target/pre-dex"));
+
+        Stage compileDex = new Stage("compileDex") {
+            @Override
+            public void execute() throws IOException {
+                if (preDex) {
+                    mergeDex(this);
+                } else {
+                    compileDex(this);
+                }
+            }
+
+            @Override
+            public void fingerprintInputs(Fingerprint fingerprint) throws IOException {
+                super.fingerprintInputs(fingerprint);
+                if (archiveInput != null && !preDex) {
+                    archiveInput.fingerprintClasses(fingerprint);
+                }
+            }
+        }
+            .input(workingFile("/target/generated-classes"))
+            .tool(configuration.getDxPath())
+            .output(workingFile("/target/classes.dex"))
+            .dependsOn(compileJava);
+        if (preDex) {
+            compileDex.input(workingFile("/target/pre-dex")).dependsOn(preDexClasses);
+        } else {
+            compileDex.input(sourceFile("/class"));
+        }
+
+        // a variant packages the outputs of the compile stages of another build of the same working directory
+        List<Stage> stages = new ArrayList<Stage>();
+        Stage[] compiled = new Stage[0];
+        if (!packageOnly) {
+            if (preDex) {
+                stages.add(preDexClasses);
+            }
+            stages.addAll(Arrays.asList(compileResources, compileJava, compileDex));
+            compiled = new Stage[] { compileDex, compileResources };
+        }
+
+        if (configuration.getSignerMode() == ExecutionMode.IN_PROCESS) {
+            Stage finalizeApk = new Stage("finalizeApk") {
+                @Override
+                public void execute() throws IOException {
+                    finalizeApk();
+                }
+
+                @Override
+                public void fingerprintInputs(Fingerprint fingerprint) throws IOException {
+                    super.fingerprintInputs(fingerprint);
+                    if (archiveInput != null) {
+                        archiveInput.fingerprintAssets(fingerprint);
+                    }
+                }
+            }
+                .input(workingFile("/target/resources.ap_"), workingFile("/target/classes.dex"), sourceFile("/asset"))
+                .tool(configuration.getKeystorePath())
+                .parameter(configuration.getKeyAlias(), configuration.getSignerFingerprint(),
+                    configuration.getCompressionPolicy())
+                .dependsOn(compiled);
+            // an APK written into a stream isn't kept anywhere, so the stage has no outputs and is always executed
+            if (!isStreamingApk()) {
+                finalizeApk.output(workingFile("/target/" + outputName + ".apk"));
+            }
+
+            stages.add(finalizeApk);
+            return stages;
         }
 
-        return new File(workingDirectory, "target" + File.separator + configuration.getOutputName() + ".apk");
+        // jarsigner and zipalign rewrite the whole file, so the forked signer needs the APK written in several steps
+        Stage addDexToApk = new Stage("addDexToApk") {
+            @Override
+            public void execute() throws IOException {
+                addDexToApk();
+            }
+
+            @Override
+            public void fingerprintInputs(Fingerprint fingerprint) throws IOException {
+                super.fingerprintInputs(fingerprint);
+                if (archiveInput != null) {
+                    archiveInput.fingerprintAssets(fingerprint);
+                }
+            }
+        }
+            .input(workingFile("/target/resources.ap_"), workingFile("/target/classes.dex"), sourceFile("/asset"))
+            .parameter(configuration.getCompressionPolicy())
+            .output(workingFile("/target/" + outputName + ".apk.unsigned"))
+            .dependsOn(compiled);
+
+        Stage signApk = new Stage("signApk") {
+            @Override
+            public void execute() throws IOException {
+                signApk(this);
+            }
+        }
+            .input(workingFile("/target/" + outputName + ".apk.unsigned"))
+            .tool(configuration.getKeystorePath())
+            .parameter(configuration.getKeyAlias(), configuration.getSignerFingerprint())
+            .output(workingFile("/target/" + outputName + ".apk.unaligned"))
+            .dependsOn(addDexToApk);
+
+        Stage alignApk = new Stage("alignApk") {
+            @Override
+            public void execute() throws IOException {
+                alignApk(this);
+            }
+        }
+            .input(workingFile("/target/" + outputName + ".apk.unaligned"))
+            .tool(configuration.getZipalignPath(), configuration.getKeystorePath())
+            .parameter(configuration.isApkSignatureSchemeV2(), configuration.getApkSignatureSchemeV2DigestAlgorithms())
+            .output(workingFile("/target/" + outputName + ".apk"))
+            .dependsOn(signApk);
+
+        stages.addAll(Arrays.asList(addDexToApk, signApk, alignApk));
+        return stages;
+    }
+
+    private File workingFile(String path) {
+        return new File(workingDirectory, FileUtils.platformIndependentPath(path));
     }
 
-    private void compileResources() throws IOException {
+    /**
+     * @return file of the application content, directories missing in an overlaid source directory are substituted by the
+     *         empty ones in the working directory
+     */
+    private File sourceFile(String path) {
+        File file = new File(sourceDirectory, FileUtils.platformIndependentPath(path));
+        if (sourceDirectory != workingDirectory && !file.exists()) {
+            return workingFile(path);
+        }
+        return file;
+    }
+
+    /**
+     * Generates R sources and packages the resources in a single run of aapt, which parses the manifest, resources and the
+     * platform only once.
+     */
+    private void compileResources(Stage stage) throws IOException {
+        File generatedSourcesDirectory = workingFile("/target/generated-sources/r");
+        FileUtils.delete(generatedSourcesDirectory);
+        generatedSourcesDirectory.mkdirs();
+        File resourcesApk = workingFile("/target/resources.ap_");
+
+        ResourceCache resourceCache = configuration.getResourceCache();
+        String cacheKey = null;
+        if (resourceCache != null) {
+            cacheKey = resourcesKey();
+            boolean hit = resourceCache.retrieve(cacheKey, resourcesApk, generatedSourcesDirectory);
+            metrics.cacheLookup(BuildMetrics.RESOURCE_CACHE, hit);
+            if (hit) {
+                return;
+            }
+        }
+
         Command command = new Command();
         command
             .add(configuration.getAaptPath())
             .add("package")
+            .add("-f")
             .add("-m")
             .add("-J")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/java/"))
+            .add(generatedSourcesDirectory.getAbsolutePath())
             .add("-M")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/AndroidManifest.xml"))
+            .add(sourceFile("/AndroidManifest.xml").getAbsolutePath())
             .add("-S")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/res/"))
+            .add(sourceFile("/res").getAbsolutePath())
             .add("-I")
-            .add(configuration.getAndroidJarPath());
+            .add(configuration.getAndroidJarPath())
+            .add("-F")
+            .add(resourcesApk.getAbsolutePath());
+
+        runCommand(stage, command);
 
-        runCommand(command);
+        if (resourceCache != null) {
+            // the compiled resources are valid, so a cache which can't be written only makes the next builds slower
+            try {
+                resourceCache.store(cacheKey, resourcesApk, generatedSourcesDirectory);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't store the compiled resources in the resource cache.", e);
+            }
+        }
     }
 
-    private void compileJava() throws IOException {
+    /**
+     * @return key of the compiled resources in the resource cache, which doesn't depend on the location of the working
+     *         directory
+     */
+    private String resourcesKey() throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.addFile(sourceFile("/AndroidManifest.xml"));
+        fingerprint.addTree(sourceFile("/res"));
+        fingerprint.addFileStamp(new File(configuration.getAaptPath()));
+        fingerprint.addFileStamp(new File(configuration.getAndroidJarPath()));
+        return fingerprint.toHex();
+    }
+
+    private void compileJava(Stage stage) throws IOException {
+        // classes of removed sources mustn't survive into the dex
+        File generatedClassesDirectory = workingFile("/target/generated-classes");
+        FileUtils.delete(generatedClassesDirectory);
+        generatedClassesDirectory.mkdirs();
+
+        List<JavaFileObject> sourceObjects = new ArrayList<JavaFileObject>();
+        if (archiveInput != null) {
+            if (configuration.isJavacInProcess()) {
+                sourceObjects.addAll(archiveInput.getJavaFileObjects());
+            } else {
+                // forked javac can only read sources from disk
+                archiveInput.writeJavaSources(workingFile("/java"));
+            }
+        }
+
+        if (javaSources == null) {
+            javaSources = new SourceSet(sourceFile("/java"), workingFile("/target/generated-sources/r"));
+        }
+        List<File> sources = javaSources.getFiles();
+        if (sources.isEmpty() && sourceObjects.isEmpty()) {
+            logger.info("There are no Java sources to compile.");
+            return;
+        }
+
+        // TODO do we need this (generated-sources)?
+        File generatedSourcesDirectory = workingFile("/target/generated-sources/apt");
+
+        if (configuration.isJavacInProcess()) {
+            List<String> options = Arrays.asList("-source", "1.6", "-target", "1.6");
+            CompilationResult result = InProcessJavacEngine.getInstance().compile(options, sources, sourceObjects,
+                Collections.<File> emptyList(), generatedClassesDirectory, generatedSourcesDirectory);
+
+            for (CompilerDiagnostic diagnostic : result.getDiagnostics()) {
+                logger.info(diagnostic.toString());
+                stage.appendOutput(diagnostic.toString() + "\n");
+            }
+            if (!result.isSuccess()) {
+                throw new CompilationFailedException(result);
+            }
+            return;
+        }
+
         Command command = new Command();
         command
             .add(configuration.getJavacPath())
@@ -132,76 +996,276 @@ public class ApkBuilder {
             .add("-target")
             .add("1.6")
             .add("-d")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/generated-classes"))
+            .add(generatedClassesDirectory.getAbsolutePath())
             .add("-s")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/generated-sources")); // TODO
-                                                                                                                       // do we
-                                                                                                                       // need
-                                                                                                                       // this
-                                                                                                                       // (generated-sources)?
+            .add(generatedSourcesDirectory.getAbsolutePath());
 
-        findJavaSourceFiles(command);
+        // thousands of sources wouldn't fit into the command line
+        File argumentFile = workingFile("/target/javac-sources.txt");
+        SourceSet.writeArgumentFile(sources, argumentFile);
+        command.add("@" + argumentFile.getAbsolutePath());
 
-        runCommand(command);
+        runCommand(stage, command);
     }
 
-    private void findJavaSourceFiles(Command command) {
-        File javaDirectory = new File(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/java"));
+    private void compileDex(Stage stage) throws IOException {
+        File classes = sourceFile("/class");
+        if (archiveInput != null && archiveInput.hasClasses()) {
+            classes = workingFile("/target/classes.jar");
+            archiveInput.writeClassesJar(classes);
+        }
 
-        findJavaSourceFiles(command, javaDirectory);
-    }
+        Command command = new Command();
+        command
+            .add(configuration.getDxPath())
+            .add("--dex")
+            .add("--output=" + workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/classes.dex"))
+            .add(classes.getAbsolutePath())
+            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/generated-classes"));
 
-    private void findJavaSourceFiles(Command command, File directory) {
+        runCommand(stage, command);
+    }
 
-        final File[] files = directory.listFiles();
+    /**
+     * Dexes only the packages of the class directory which aren't in the pre-dex cache yet, up to
+     * {@link Configuration#getParallelism()} of them at the same time. Doesn't need the compiled sources, so it runs
+     * together with aapt and javac.
+     */
+    private void preDexClasses(Stage stage) throws IOException {
+        PreDexCache preDexCache = configuration.getPreDexCache();
+        List<ClassGroup> groups;
+        if (archiveInput != null && archiveInput.hasClasses()) {
+            groups = ClassGroup.byPackage(archiveInput.getClasses());
+        } else {
+            groups = ClassGroup.byPackage(sourceFile("/class"));
+        }
 
-        for (File file : files) {
-            if (file.isDirectory()) {
-                findJavaSourceFiles(command, file);
-            } else if (file.getPath().endsWith(".java")) {
-                command.add(file.getPath());
+        File preDexDirectory = workingFile("/target/pre-dex");
+        File classesDirectory = workingFile("/target/pre-dex-classes");
+        FileUtils.delete(preDexDirectory);
+        FileUtils.delete(classesDirectory);
+        preDexDirectory.mkdirs();
+        classesDirectory.mkdirs();
+
+        File dx = new File(configuration.getDxPath());
+        List<File> dexArchives = new ArrayList<File>();
+        List<PreDexTask> missed = new ArrayList<PreDexTask>();
+        for (ClassGroup group : groups) {
+            String key = preDexCache.key(group, dx);
+            // the names keep the order of the packages
+            String name = String.format("%06d.jar", dexArchives.size());
+            File dexArchive = new File(preDexDirectory, name);
+            boolean hit = preDexCache.retrieve(key, dexArchive);
+            metrics.cacheLookup(BuildMetrics.PRE_DEX_CACHE, hit);
+            if (!hit) {
+                missed.add(new PreDexTask(stage, preDexCache, key, group, new File(classesDirectory, name), dexArchive));
             }
+            dexArchives.add(dexArchive);
         }
+        preDex(missed);
+        logger.fine("Pre-dexed " + missed.size() + " of " + groups.size() + " packages.");
     }
 
-    private void compileDex() throws IOException {
+    /**
+     * The compiled sources change with every build, so they are dexed directly and dx merges them with the pre-dexed
+     * packages.
+     */
+    private void mergeDex(Stage stage) throws IOException {
+        File[] dexArchives = workingFile("/target/pre-dex").listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(".jar");
+            }
+        });
+        if (dexArchives == null) {
+            throw new IOException("Pre-dexed classes are missing in \"" + workingFile("/target/pre-dex").getPath() + "\"!");
+        }
+        Arrays.sort(dexArchives);
+
+        // dx ignores standalone dex files, but merges the classes.dex of archives given as inputs into the output
         Command command = new Command();
         command
             .add(configuration.getDxPath())
             .add("--dex")
             .add("--output=" + workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/classes.dex"))
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/class"))
             .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/generated-classes"));
+        for (File dexArchive : dexArchives) {
+            command.add(dexArchive.getAbsolutePath());
+        }
 
-        runCommand(command);
+        runCommand(stage, command);
     }
 
-    private void packageApk() throws IOException {
-        Command command = new Command();
-        command
-            .add(configuration.getAaptPath())
-            .add("package")
-            .add("-f")
-            .add("-M")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/AndroidManifest.xml"))
-            .add("-S")
-            .add(workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/res/"))
-            .add("-I")
-            .add(configuration.getAndroidJarPath())
-            .add("-F")
-            .add(workingDirectory.getAbsolutePath()
-                + FileUtils.platformIndependentPath("/target/" + configuration.getOutputName() + ".apk.unaligned"));
+    /**
+     * Runs the tasks on up to {@link Configuration#getParallelism()} threads, every task runs its own dx.
+     */
+    private void preDex(List<PreDexTask> tasks) throws IOException {
+        int threads = Math.min(configuration.getParallelism(), tasks.size());
+        if (threads <= 1) {
+            for (PreDexTask task : tasks) {
+                task.call();
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (PreDexTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while pre-dexing classes of \"" + configuration.getOutputName()
+                + "\".");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // a failed dx fails the stage, the others are destroyed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Dexes a single package missing in the pre-dex cache and stores the dex archive there.
+     */
+    private class PreDexTask implements Callable<Void> {
+        private final Stage stage;
+        private final PreDexCache preDexCache;
+        private final String key;
+        private final ClassGroup group;
+        private final File classesJar;
+        private final File dexArchive;
+
+        public PreDexTask(Stage stage, PreDexCache preDexCache, String key, ClassGroup group, File classesJar,
+            File dexArchive) {
+            this.stage = stage;
+            this.preDexCache = preDexCache;
+            this.key = key;
+            this.group = group;
+            this.classesJar = classesJar;
+            this.dexArchive = dexArchive;
+        }
 
-        runCommand(command);
+        @Override
+        public Void call() throws IOException {
+            group.writeJar(classesJar);
+
+            // an output named .jar makes dx write an archive with classes.dex, which it can merge later
+            Command command = new Command();
+            command
+                .add(configuration.getDxPath())
+                .add("--dex")
+                .add("--output=" + dexArchive.getAbsolutePath())
+                .add(classesJar.getAbsolutePath());
+            runCommand(stage, command);
+
+            // the dex archive is valid, so a cache which can't be written only makes the next builds slower
+            try {
+                preDexCache.store(key, dexArchive);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't store the dex archive of package \"" + group.getName()
+                    + "\" in the pre-dex cache.", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the final APK from the packaged resources, the dex and the assets in one pass, signing and aligning it on the
+     * way.
+     */
+    private void finalizeApk() throws IOException {
+        File finalApk = workingFile("/target/" + configuration.getOutputName() + ".apk");
+
+        SortedMap<String, Asset> entries = apkEntries();
+
+        V2SchemeSigner v2Signer = null;
+        if (configuration.isApkSignatureSchemeV2()) {
+            v2Signer = new V2SchemeSigner(configuration.getSigningKey(),
+                configuration.getApkSignatureSchemeV2DigestAlgorithms());
+        }
+
+        OutputStream outputStream = isStreamingApk() ? apkStream : new FileOutputStream(finalApk);
+        try {
+            ApkWriter writer = new ApkWriter(outputStream, configuration.createApkSigner().newV1Signer(), v2Signer,
+                ApkWriter.DEFAULT_ALIGNMENT);
+
+            // compressed data is copied as it is, keeping the compression method aapt chose for every resource
+            ZipReader resources = new ZipReader(workingFile("/target/resources.ap_"));
+            try {
+                for (ZipReader.Entry entry : resources.getEntries()) {
+                    if (entry.isDirectory() || entries.containsKey(entry.getName())
+                        || V1SchemeSigner.isSignatureEntry(entry.getName())) {
+                        continue;
+                    }
+                    writer.copyEntry(resources, entry);
+                }
+            } finally {
+                resources.close();
+            }
+
+            new ParallelEntryWriter(writer, configuration.getCompressionPolicy(), configuration.getCompressionThreads())
+                .write(entries);
+
+            writer.finish();
+        } finally {
+            // the stream of the caller is left open
+            if (outputStream != apkStream) {
+                outputStream.close();
+            }
+        }
+    }
+
+    /**
+     * @return entries added to the packaged resources, the dex and the assets from the archive or the asset directory
+     */
+    private SortedMap<String, Asset> apkEntries() throws IOException {
+        final SortedMap<String, Asset> entries = new TreeMap<String, Asset>();
+        entries.put("classes.dex", new FileAsset(workingFile("/target/classes.dex")));
+        if (archiveInput != null) {
+            for (Map.Entry<String, Asset> asset : archiveInput.getAssets().entrySet()) {
+                entries.put("assets/" + asset.getKey(), asset.getValue());
+            }
+        }
+
+        final Path assetDirectory = sourceFile("/asset").toPath();
+        if (Files.isDirectory(assetDirectory)) {
+            Files.walkFileTree(assetDirectory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    StringBuilder name = new StringBuilder("assets");
+                    for (Path part : assetDirectory.relativize(file)) {
+                        name.append('/').append(part.toString());
+                    }
+                    entries.put(name.toString(), new FileAsset(file.toFile()));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        return entries;
     }
 
     private void addDexToApk() throws IOException {
+        File unsignedApk = workingFile("/target/" + configuration.getOutputName() + ".apk.unsigned");
+
+        // the packaged resources stay untouched, so they can be reused by the next build
+        FileUtils.copyFile(workingFile("/target/resources.ap_"), unsignedApk);
+
+        SortedMap<String, Asset> entries = apkEntries();
 
-        FileUtils.addFilesToExistingZip(
-            workingDirectory.getAbsolutePath()
-                + FileUtils.platformIndependentPath("/target/" + configuration.getOutputName() + ".apk.unaligned"),
-            workingDirectory.getAbsolutePath() + FileUtils.platformIndependentPath("/target/classes.dex")
-            );
+        FileUtils.addEntriesToExistingZip(unsignedApk, entries, configuration.getCompressionPolicy(),
+            configuration.getCompressionThreads());
 
         /*
          * Command command = new Command(); command .add(configuration.getAaptPath()) .add("add") .add("-f")
@@ -212,7 +1276,12 @@ public class ApkBuilder {
          */
     }
 
-    private void signApk() throws IOException {
+    private void signApk(Stage stage) throws IOException {
+        File unsignedApk = workingFile("/target/" + configuration.getOutputName() + ".apk.unsigned");
+        File unalignedApk = workingFile("/target/" + configuration.getOutputName() + ".apk.unaligned");
+
+        FileUtils.copyFile(unsignedApk, unalignedApk);
+
         Command command = new Command();
         command
             .add(configuration.getJarsignerPath())
@@ -223,91 +1292,125 @@ public class ApkBuilder {
             .add("-keypass")
             .add(configuration.getKeyPassword())
             .add("-sigalg")
-            .add("MD5withRSA")
+            .add(configuration.getSignatureAlgorithm())
             .add("-digestalg")
-            .add("SHA1")
-            .add(workingDirectory.getAbsolutePath()
-                + FileUtils.platformIndependentPath("/target/" + configuration.getOutputName() + ".apk.unaligned"))
+            .add(configuration.getSigningDigestAlgorithm())
+            .add(unalignedApk.getAbsolutePath())
             .add(configuration.getKeyAlias());
 
-        runCommand(command);
+        runCommand(stage, command);
     }
 
-    private void alignApk() throws IOException {
+    private void alignApk(Stage stage) throws IOException {
+        File finalApk = workingFile("/target/" + configuration.getOutputName() + ".apk");
+
+        // v2 signature covers the whole file, so it has to be applied to the already aligned APK
+        File alignedApk = finalApk;
+        if (configuration.isApkSignatureSchemeV2()) {
+            alignedApk = workingFile("/target/" + configuration.getOutputName() + ".apk.aligned");
+        }
+
+        // zipalign refuses to overwrite the APK of the previous build
+        alignedApk.delete();
+
         Command command = new Command();
         command
             .add(configuration.getZipalignPath())
             .add("4")
             .add(workingDirectory.getAbsolutePath()
                 + FileUtils.platformIndependentPath("/target/" + configuration.getOutputName() + ".apk.unaligned"))
-            .add(workingDirectory.getAbsolutePath()
-                + FileUtils.platformIndependentPath("/target/" + configuration.getOutputName() + ".apk"));
-
-        runCommand(command);
-    }
+            .add(alignedApk.getAbsolutePath());
 
-    private void runCommand(Command command) throws IOException {
-        logger.info("Running command: \"" + command.toString() + "\".");
+        runCommand(stage, command);
 
-        ProcessBuilder builder = new ProcessBuilder(command.getAsList());
-        builder.redirectErrorStream(true);
-        Process process = builder.start();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            System.out.println(line);
+        if (configuration.isApkSignatureSchemeV2()) {
+            new V2SchemeSigner(configuration.getSigningKey(), configuration.getApkSignatureSchemeV2DigestAlgorithms())
+                .sign(alignedApk, finalApk);
+            alignedApk.delete();
         }
-        reader.close();
     }
 
-    public static ApkBuilder init(Archive<?> archive) {
-        File workingDirectory = FileUtils.prepareWorkingDirectory();
-
-        Map<ArchivePath, Node> content = archive.getContent();
-
-        for (ArchivePath path : content.keySet()) {
-            Node node = content.get(path);
-
-            if (node.getAsset() == null) {
-                // this node is directory
-                File directory = new File(workingDirectory, path.get());
-
-                directory.mkdirs();
-            } else {
-                File file = new File(workingDirectory, path.get());
-
-                file.getParentFile().mkdirs();
+    private void runCommand(Stage stage, Command command) throws IOException {
+        String name = configuration.getOutputName();
+        listener.processStarted(execution, name, stage.getName(), command);
 
-                byte[] buffer = new byte[1024];
-                int read;
-                InputStream inputStream = node.getAsset().openStream();
-                FileOutputStream fileOutputStream = null;
-                try {
-                    fileOutputStream = new FileOutputStream(file);
-                    while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-                        fileOutputStream.write(buffer, 0, read);
-                    }
-                } catch (IOException e) {
+        ProcessResult result;
+        try {
+            result = processRunner.run(command, configuration.getToolTimeout());
+        } catch (ProcessFailedException e) {
+            result = e.getResult();
+            stage.appendOutput(result.getOutput());
+            processFinished(stage, result);
+            throw e;
+        }
+        stage.appendOutput(result.getOutput());
+        processFinished(stage, result);
+    }
 
-                } finally {
-                    try {
-                        if (inputStream != null) {
-                            inputStream.close();
-                        }
-                        if (fileOutputStream != null) {
-                            fileOutputStream.close();
-                        }
-                    } catch (IOException e) {
+    private void processFinished(Stage stage, ProcessResult result) {
+        metrics.add(BuildMetrics.PROCESSES, 1);
+        metrics.add(BuildMetrics.PROCESS_TIME, result.getDuration());
+        listener.processFinished(execution, configuration.getOutputName(), stage.getName(), result);
+    }
 
-                    }
+    /**
+     * Adds sizes of the files, or of all files in the directories, to the counters.
+     *
+     * @param filesCounter counter of the number of files, or null
+     */
+    private void countFiles(List<File> files, String bytesCounter, String filesCounter) {
+        for (File file : files) {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                if (children != null) {
+                    countFiles(Arrays.asList(children), bytesCounter, filesCounter);
+                }
+            } else if (file.isFile()) {
+                metrics.add(bytesCounter, file.length());
+                if (filesCounter != null) {
+                    metrics.add(filesCounter, 1);
                 }
-
             }
-
-            ArchivePath p = node.getPath();
         }
+    }
+
+    public static ApkBuilder init(Archive<?> archive) {
+        return init(archive, false);
+    }
+
+    /**
+     * Initializes the builder from the archive.
+     *
+     * @param archive archive to build
+     * @param inMemory if true, only the content needed on disk by the external tools (manifest and resources) is written
+     *        into the working directory, the rest is read directly from the archive during the build
+     */
+    public static ApkBuilder init(Archive<?> archive, boolean inMemory) {
+        return init(archive, inMemory, Workspace.DISK);
+    }
 
-        return init(archive.getName(), workingDirectory, true);
+    /**
+     * Initializes the builder from the archive.
+     *
+     * @param archive archive to build
+     * @param inMemory if true, only the content needed on disk by the external tools (manifest and resources) is written
+     *        into the working directory, the rest is read directly from the archive during the build
+     * @param workspace where the working directory is created
+     */
+    public static ApkBuilder init(Archive<?> archive, boolean inMemory, Workspace workspace) {
+        long stagingStart = System.nanoTime();
+        File workingDirectory = FileUtils.prepareWorkingDirectory(workspace.getRoot());
+
+        ApkBuilder builder = init(archive.getName(), workingDirectory, true);
+        builder.ownsWorkingDirectory = true;
+        builder.nodeFingerprints = new TreeMap<String, String>();
+        try {
+            builder.writeArchive(archive, inMemory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't write archive \"" + archive.getName() + "\"!", e);
+        }
+        builder.staged(stagingStart);
+        return builder;
     }
 
     public static ApkBuilder init(String directory) {
@@ -330,23 +1433,83 @@ public class ApkBuilder {
         return init(name, directory, false);
     }
 
+    public static ApkBuilder init(File directory, Workspace workspace) {
+        return init(generateOutputName(), directory, workspace);
+    }
+
     public static ApkBuilder init(String name, File directory, boolean safeToEdit) {
-        File workingDirectory;
         if (!safeToEdit) {
-            workingDirectory = FileUtils.prepareWorkingDirectory();
+            return init(name, directory, Workspace.DISK);
+        }
 
-            try {
-                FileUtils.copyDirectory(directory, workingDirectory);
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
-            }
-        } else {
-            workingDirectory = directory;
+        long stagingStart = System.nanoTime();
+        createSubdirectories(directory);
+
+        ApkBuilder builder = new ApkBuilder(name, directory);
+        builder.staged(stagingStart);
+        return builder;
+    }
+
+    /**
+     * Initializes the builder from a copy of the directory.
+     *
+     * @param workspace where the copy of the directory is created
+     */
+    public static ApkBuilder init(String name, File directory, Workspace workspace) {
+        long stagingStart = System.nanoTime();
+        File workingDirectory = FileUtils.prepareWorkingDirectory(workspace.getRoot());
+        BuildMetrics metrics = new BuildMetrics();
+
+        try {
+            // copyDirectory creates the destination itself
+            FileUtils.delete(workingDirectory);
+            FileUtils.copyDirectory(directory, workingDirectory, metrics);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
 
         createSubdirectories(workingDirectory);
 
-        return new ApkBuilder(name, workingDirectory);
+        ApkBuilder builder = new ApkBuilder(name, workingDirectory);
+        builder.ownsWorkingDirectory = true;
+        builder.metrics = metrics;
+        builder.staged(stagingStart);
+        return builder;
+    }
+
+    private void staged(long start) {
+        stagingStart = start;
+        stagingDuration = (System.nanoTime() - start) / 1000000L;
+        stagingThread = Thread.currentThread().getId();
+    }
+
+    public static ApkBuilder initOverlay(File directory) {
+        return initOverlay(generateOutputName(), directory, Workspace.DISK);
+    }
+
+    public static ApkBuilder initOverlay(String name, File directory) {
+        return initOverlay(name, directory, Workspace.DISK);
+    }
+
+    /**
+     * Initializes the builder, which reads the content directly from the directory without copying it. The directory is
+     * never written to, all outputs go into a separate working directory. The content mustn't change during the build.
+     *
+     * @param workspace where the working directory is created
+     */
+    public static ApkBuilder initOverlay(String name, File directory, Workspace workspace) {
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Source \"" + directory.getPath() + "\" must be a directory!");
+        }
+
+        long stagingStart = System.nanoTime();
+        File workingDirectory = FileUtils.prepareWorkingDirectory(workspace.getRoot());
+        createSubdirectories(workingDirectory);
+
+        ApkBuilder builder = new ApkBuilder(name, directory, workingDirectory);
+        builder.ownsWorkingDirectory = true;
+        builder.staged(stagingStart);
+        return builder;
     }
 
     private static String generateOutputName() {
@@ -365,6 +1528,12 @@ public class ApkBuilder {
         File generatedSourcesDir = new File(targetDir, "generated-sources");
         generatedSourcesDir.mkdir();
 
+        File generatedRDir = new File(generatedSourcesDir, "r");
+        generatedRDir.mkdir();
+
+        File generatedAptDir = new File(generatedSourcesDir, "apt");
+        generatedAptDir.mkdir();
+
         File javaDir = new File(directory, "java");
         javaDir.mkdir();
 
@@ -379,13 +1548,18 @@ public class ApkBuilder {
     }
 
     public static class Configuration {
-        private static String ANDROID_HOME = System.getenv("ANDROID_HOME");
-        private static String JAVA_HOME = System.getenv("JAVA_HOME");
-        private static int DEFAULT_API_LEVEL = 17;
+        private static final String ANDROID_HOME = System.getenv("ANDROID_HOME");
+        private static final String JAVA_HOME = System.getenv("JAVA_HOME");
+        private static final int DEFAULT_API_LEVEL = 17;
+        private static final long DEFAULT_BUILD_CACHE_SIZE = 512L * 1024L * 1024L;
+        private static final long DEFAULT_PRE_DEX_CACHE_SIZE = 256L * 1024L * 1024L;
+        private static final long DEFAULT_RESOURCE_CACHE_SIZE = 256L * 1024L * 1024L;
+        private static final long DEFAULT_TOOL_TIMEOUT = 10L * 60L * 1000L;
 
         private final SDKUtils sdkUtils;
 
         private String outputName = null;
+        private String outputDirectory = null;
 
         private Integer apiLevel = null;
         private String androidHome = null;
@@ -405,6 +1579,29 @@ public class ApkBuilder {
         private String javaBin = null;
         private String javacPath = null;
         private String jarsignerPath = null;
+        private ExecutionMode javacMode = null;
+
+        private ExecutionMode signerMode = null;
+        private String signatureAlgorithm = null;
+        private String signingDigestAlgorithm = null;
+        private Boolean apkSignatureSchemeV2 = null;
+        private List<String> apkSignatureSchemeV2DigestAlgorithms = null;
+
+        private String buildCacheDirectory = null;
+        private Long buildCacheSize = null;
+        private String preDexCacheDirectory = null;
+        private Long preDexCacheSize = null;
+        private String resourceCacheDirectory = null;
+        private Long resourceCacheSize = null;
+
+        private final List<BuildListener> buildListeners = new CopyOnWriteArrayList<BuildListener>();
+
+        private List<String> storedExtensions = null;
+        private Integer compressionThreads = null;
+
+        private Boolean incremental = null;
+        private Integer parallelism = null;
+        private Long toolTimeout = null;
 
         public Configuration() {
             sdkUtils = new SDKUtils(this);
@@ -414,6 +1611,61 @@ public class ApkBuilder {
             return sdkUtils;
         }
 
+        /**
+         * @return independent copy of the configuration, for example to be modified for another variant of the build
+         */
+        public Configuration copy() {
+            Configuration copy = new Configuration();
+            copy.outputName = outputName;
+            copy.outputDirectory = outputDirectory;
+            copy.apiLevel = apiLevel;
+            copy.androidHome = androidHome;
+            copy.aaptPath = aaptPath;
+            copy.aidlPath = aidlPath;
+            copy.dxPath = dxPath;
+            copy.llvmPath = llvmPath;
+            copy.androidJarPath = androidJarPath;
+            copy.zipalignPath = zipalignPath;
+            copy.keystorePath = keystorePath;
+            copy.keystorePassword = keystorePassword;
+            copy.keyAlias = keyAlias;
+            copy.keyPassword = keyPassword;
+            copy.javaHome = javaHome;
+            copy.javaBin = javaBin;
+            copy.javacPath = javacPath;
+            copy.jarsignerPath = jarsignerPath;
+            copy.javacMode = javacMode;
+            copy.signerMode = signerMode;
+            copy.signatureAlgorithm = signatureAlgorithm;
+            copy.signingDigestAlgorithm = signingDigestAlgorithm;
+            copy.apkSignatureSchemeV2 = apkSignatureSchemeV2;
+            if (apkSignatureSchemeV2DigestAlgorithms != null) {
+                copy.apkSignatureSchemeV2DigestAlgorithms = new ArrayList<String>(apkSignatureSchemeV2DigestAlgorithms);
+            }
+            copy.buildCacheDirectory = buildCacheDirectory;
+            copy.buildCacheSize = buildCacheSize;
+            copy.preDexCacheDirectory = preDexCacheDirectory;
+            copy.preDexCacheSize = preDexCacheSize;
+            copy.resourceCacheDirectory = resourceCacheDirectory;
+            copy.resourceCacheSize = resourceCacheSize;
+            if (storedExtensions != null) {
+                copy.storedExtensions = new ArrayList<String>(storedExtensions);
+            }
+            copy.compressionThreads = compressionThreads;
+            copy.buildListeners.addAll(buildListeners);
+            copy.incremental = incremental;
+            copy.parallelism = parallelism;
+            copy.toolTimeout = toolTimeout;
+            return copy;
+        }
+
+        /**
+         * @return tools of the configured Android home and API level, shared with other configurations using the same SDK
+         */
+        public Toolchain getToolchain() {
+            return ToolchainRegistry.getInstance().getToolchain(getAndroidHome(), getApiLevel());
+        }
+
         public String getOutputName() {
             if (outputName == null) {
                 outputName = generateOutputName();
@@ -427,6 +1679,21 @@ public class ApkBuilder {
             return this;
         }
 
+        public String getOutputDirectory() {
+            return outputDirectory;
+        }
+
+        /**
+         * Persists the built APK in the given directory. A working directory created by the builder is deleted after the
+         * build then, whether it succeeded or failed, so the builder can't be used for another build.
+         *
+         * @param outputDirectory directory for the APK, null keeps it in the working directory
+         */
+        public Configuration setOutputDirectory(String outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            return this;
+        }
+
         public int getApiLevel() {
             if (apiLevel == null) {
                 apiLevel = DEFAULT_API_LEVEL;
@@ -455,7 +1722,7 @@ public class ApkBuilder {
 
         public String getAaptPath() {
             if (aaptPath == null) {
-                aaptPath = sdkUtils.getBuildTool("aapt");
+                aaptPath = getToolchain().getAaptPath();
             }
 
             return aaptPath;
@@ -468,7 +1735,7 @@ public class ApkBuilder {
 
         public String getAidlPath() {
             if (aidlPath == null) {
-                aidlPath = sdkUtils.getBuildTool("aidl");
+                aidlPath = getToolchain().getAidlPath();
             }
 
             return aidlPath;
@@ -481,7 +1748,7 @@ public class ApkBuilder {
 
         public String getDxPath() {
             if (dxPath == null) {
-                dxPath = sdkUtils.getBuildTool("dx");
+                dxPath = getToolchain().getDxPath();
             }
 
             return dxPath;
@@ -494,7 +1761,7 @@ public class ApkBuilder {
 
         public String getLlvmPath() {
             if (llvmPath == null) {
-                llvmPath = sdkUtils.getBuildTool("llvm-rs-cc");
+                llvmPath = getToolchain().getLlvmPath();
             }
 
             return llvmPath;
@@ -507,7 +1774,7 @@ public class ApkBuilder {
 
         public String getAndroidJarPath() {
             if (androidJarPath == null) {
-                androidJarPath = new File(sdkUtils.getPlatformDirectory(), "android.jar").getAbsolutePath();
+                androidJarPath = getToolchain().getAndroidJarPath();
             }
 
             return androidJarPath;
@@ -520,7 +1787,7 @@ public class ApkBuilder {
 
         public String getZipalignPath() {
             if (zipalignPath == null) {
-                zipalignPath = sdkUtils.getPathForTool("zipalign");
+                zipalignPath = getToolchain().getZipalignPath();
             }
 
             return zipalignPath;
@@ -609,6 +1876,154 @@ public class ApkBuilder {
             return this;
         }
 
+        public ExecutionMode getJavacMode() {
+            if (javacMode == null) {
+                javacMode = ExecutionMode.IN_PROCESS;
+            }
+
+            return javacMode;
+        }
+
+        /**
+         * @param javacMode whether to compile Java sources in the current JVM or by forking javac. In-process compilation
+         *        falls back to the forked one, if the current JVM doesn't provide the system Java compiler.
+         */
+        public Configuration setJavacMode(ExecutionMode javacMode) {
+            this.javacMode = javacMode;
+            return this;
+        }
+
+        /**
+         * @return true if Java sources are going to be compiled in the current JVM
+         */
+        public boolean isJavacInProcess() {
+            return getJavacMode() == ExecutionMode.IN_PROCESS && InProcessJavacEngine.isAvailable();
+        }
+
+        /**
+         * @return identification of the Java compiler, which is going to be used
+         */
+        public String getJavacFingerprint() {
+            if (isJavacInProcess()) {
+                return "in-process:" + System.getProperty("java.vendor") + ":" + System.getProperty("java.version");
+            }
+
+            File javac = new File(getJavacPath());
+            return "forked:" + javac.getAbsolutePath() + ":" + javac.length() + ":" + javac.lastModified();
+        }
+
+        public ExecutionMode getSignerMode() {
+            if (signerMode == null) {
+                signerMode = ExecutionMode.IN_PROCESS;
+            }
+
+            return signerMode;
+        }
+
+        /**
+         * @param signerMode whether to sign the APK in the current JVM or by forking jarsigner
+         */
+        public Configuration setSignerMode(ExecutionMode signerMode) {
+            this.signerMode = signerMode;
+            return this;
+        }
+
+        public String getSignatureAlgorithm() {
+            if (signatureAlgorithm == null) {
+                signatureAlgorithm = "MD5withRSA";
+            }
+
+            return signatureAlgorithm;
+        }
+
+        /**
+         * @param signatureAlgorithm algorithm of the JAR signature, e.g. "SHA1withRSA" or "SHA256withRSA"
+         */
+        public Configuration setSignatureAlgorithm(String signatureAlgorithm) {
+            this.signatureAlgorithm = signatureAlgorithm;
+            return this;
+        }
+
+        public String getSigningDigestAlgorithm() {
+            if (signingDigestAlgorithm == null) {
+                signingDigestAlgorithm = "SHA1";
+            }
+
+            return signingDigestAlgorithm;
+        }
+
+        /**
+         * @param signingDigestAlgorithm algorithm of the digests of the APK entries in JAR signature, e.g. "SHA1" or
+         *        "SHA-256"
+         */
+        public Configuration setSigningDigestAlgorithm(String signingDigestAlgorithm) {
+            this.signingDigestAlgorithm = signingDigestAlgorithm;
+            return this;
+        }
+
+        public boolean isApkSignatureSchemeV2() {
+            if (apkSignatureSchemeV2 == null) {
+                apkSignatureSchemeV2 = false;
+            }
+
+            return apkSignatureSchemeV2;
+        }
+
+        /**
+         * @param apkSignatureSchemeV2 if true, the APK is signed also by the APK signature scheme v2
+         */
+        public Configuration setApkSignatureSchemeV2(boolean apkSignatureSchemeV2) {
+            this.apkSignatureSchemeV2 = apkSignatureSchemeV2;
+            return this;
+        }
+
+        public List<String> getApkSignatureSchemeV2DigestAlgorithms() {
+            if (apkSignatureSchemeV2DigestAlgorithms == null) {
+                apkSignatureSchemeV2DigestAlgorithms = Collections.singletonList("SHA-256");
+            }
+
+            return apkSignatureSchemeV2DigestAlgorithms;
+        }
+
+        /**
+         * @param algorithms content digest algorithms of the v2 signature, "SHA-256" and/or "SHA-512"
+         */
+        public Configuration setApkSignatureSchemeV2DigestAlgorithms(String... algorithms) {
+            this.apkSignatureSchemeV2DigestAlgorithms = Collections.unmodifiableList(Arrays.asList(algorithms));
+            return this;
+        }
+
+        /**
+         * @return signing key from the configured keystore, loaded once and shared by all builds using the same keystore
+         */
+        public SigningKey getSigningKey() throws IOException {
+            return SigningKey.load(new File(getKeystorePath()), getKeystorePassword(), getKeyAlias(), getKeyPassword());
+        }
+
+        public ApkSigner createApkSigner() throws IOException {
+            return new ApkSigner(getSigningKey(), getSigningDigestAlgorithm(), getSignatureAlgorithm(),
+                isApkSignatureSchemeV2());
+        }
+
+        /**
+         * @return identification of the signer and its settings
+         */
+        public String getSignerFingerprint() {
+            StringBuilder sb = new StringBuilder();
+            if (getSignerMode() == ExecutionMode.IN_PROCESS) {
+                sb.append("in-process");
+            } else {
+                File jarsigner = new File(getJarsignerPath());
+                sb.append("forked:").append(jarsigner.getAbsolutePath()).append(':').append(jarsigner.length()).append(':')
+                    .append(jarsigner.lastModified());
+            }
+            sb.append(':').append(getSignatureAlgorithm()).append(':').append(getSigningDigestAlgorithm());
+            if (isApkSignatureSchemeV2()) {
+                sb.append(":v2").append(getApkSignatureSchemeV2DigestAlgorithms());
+            }
+            return sb.toString();
+        }
+
         public String getJarsignerPath() {
             if (jarsignerPath == null) {
                 jarsignerPath = sdkUtils.getPathForJavaTool("jarsigner");
@@ -622,6 +2037,261 @@ public class ApkBuilder {
             return this;
         }
 
+        public boolean isIncremental() {
+            if (incremental == null) {
+                incremental = true;
+            }
+
+            return incremental;
+        }
+
+        /**
+         * @param incremental if true, stages whose inputs didn't change since their last execution in the same working
+         *        directory are skipped
+         */
+        public Configuration setIncremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        public int getParallelism() {
+            if (parallelism == null) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            }
+
+            return parallelism;
+        }
+
+        /**
+         * @param parallelism maximal number of independent stages running at the same time, 1 runs the stages sequentially
+         */
+        public Configuration setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism has to be at least 1!");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public long getToolTimeout() {
+            if (toolTimeout == null) {
+                toolTimeout = DEFAULT_TOOL_TIMEOUT;
+            }
+
+            return toolTimeout;
+        }
+
+        /**
+         * @param toolTimeout maximal duration of a single external tool in milliseconds, the build fails if it's exceeded
+         */
+        public Configuration setToolTimeout(long toolTimeout) {
+            if (toolTimeout <= 0) {
+                throw new IllegalArgumentException("Tool timeout has to be positive!");
+            }
+            this.toolTimeout = toolTimeout;
+            return this;
+        }
+
+        public List<String> getStoredExtensions() {
+            if (storedExtensions == null) {
+                storedExtensions = CompressionPolicy.DEFAULT_STORED_EXTENSIONS;
+            }
+
+            return storedExtensions;
+        }
+
+        /**
+         * @param storedExtensions extensions of the entries added to the APK, which are stored without compression, such
+         *        as already compressed images and media
+         */
+        public Configuration setStoredExtensions(List<String> storedExtensions) {
+            this.storedExtensions = storedExtensions;
+            return this;
+        }
+
+        public int getCompressionThreads() {
+            if (compressionThreads == null) {
+                compressionThreads = Runtime.getRuntime().availableProcessors();
+            }
+
+            return compressionThreads;
+        }
+
+        /**
+         * @param compressionThreads number of threads compressing the entries added to the APK, the APK is the same no
+         *        matter how many are used
+         */
+        public Configuration setCompressionThreads(int compressionThreads) {
+            if (compressionThreads < 1) {
+                throw new IllegalArgumentException("Compression threads have to be at least 1!");
+            }
+            this.compressionThreads = compressionThreads;
+            return this;
+        }
+
+        public CompressionPolicy getCompressionPolicy() {
+            return new CompressionPolicy(getStoredExtensions());
+        }
+
+        public List<BuildListener> getBuildListeners() {
+            return Collections.unmodifiableList(buildListeners);
+        }
+
+        /**
+         * Registers a listener notified about the progress of every build of this builder, for example
+         * {@link org.arquillian.android.apkbuilder.metrics.BuildStatistics#getInstance()} to aggregate the metrics in JMX.
+         */
+        public Configuration addBuildListener(BuildListener listener) {
+            buildListeners.add(listener);
+            return this;
+        }
+
+        public String getBuildCacheDirectory() {
+            return buildCacheDirectory;
+        }
+
+        /**
+         * Enables the persistent build cache in the given directory. The directory may be shared by several JVMs.
+         *
+         * @param buildCacheDirectory cache directory, null disables the cache
+         */
+        public Configuration setBuildCacheDirectory(String buildCacheDirectory) {
+            this.buildCacheDirectory = buildCacheDirectory;
+            return this;
+        }
+
+        public long getBuildCacheSize() {
+            if (buildCacheSize == null) {
+                buildCacheSize = DEFAULT_BUILD_CACHE_SIZE;
+            }
+
+            return buildCacheSize;
+        }
+
+        /**
+         * @param buildCacheSize size in bytes, after which the least recently used APKs are evicted from the cache
+         */
+        public Configuration setBuildCacheSize(long buildCacheSize) {
+            this.buildCacheSize = buildCacheSize;
+            return this;
+        }
+
+        /**
+         * @return build cache, or null if the cache is disabled
+         */
+        public BuildCache getBuildCache() {
+            if (getBuildCacheDirectory() == null) {
+                return null;
+            }
+
+            return new BuildCache(new File(getBuildCacheDirectory()), getBuildCacheSize());
+        }
+
+        public String getPreDexCacheDirectory() {
+            return preDexCacheDirectory;
+        }
+
+        /**
+         * Enables the persistent cache of pre-dexed packages in the given directory. Only the packages which aren't in the
+         * cache are dexed, the rest of the build merges the cached dex files. The directory may be shared by several JVMs.
+         *
+         * @param preDexCacheDirectory cache directory, null disables the cache
+         */
+        public Configuration setPreDexCacheDirectory(String preDexCacheDirectory) {
+            this.preDexCacheDirectory = preDexCacheDirectory;
+            return this;
+        }
+
+        public long getPreDexCacheSize() {
+            if (preDexCacheSize == null) {
+                preDexCacheSize = DEFAULT_PRE_DEX_CACHE_SIZE;
+            }
+
+            return preDexCacheSize;
+        }
+
+        /**
+         * @param preDexCacheSize size in bytes, after which the least recently used dex files are evicted from the cache
+         */
+        public Configuration setPreDexCacheSize(long preDexCacheSize) {
+            this.preDexCacheSize = preDexCacheSize;
+            return this;
+        }
+
+        /**
+         * @return pre-dex cache, or null if the cache is disabled
+         */
+        public PreDexCache getPreDexCache() {
+            if (getPreDexCacheDirectory() == null) {
+                return null;
+            }
+
+            return new PreDexCache(new File(getPreDexCacheDirectory()), getPreDexCacheSize());
+        }
+
+        public String getResourceCacheDirectory() {
+            return resourceCacheDirectory;
+        }
+
+        /**
+         * Enables the persistent cache of compiled resources in the given directory. Archives with the same manifest and
+         * resources reuse the R sources and the resources package without running aapt. The directory may be shared by
+         * several JVMs.
+         *
+         * @param resourceCacheDirectory cache directory, null disables the cache
+         */
+        public Configuration setResourceCacheDirectory(String resourceCacheDirectory) {
+            this.resourceCacheDirectory = resourceCacheDirectory;
+            return this;
+        }
+
+        public long getResourceCacheSize() {
+            if (resourceCacheSize == null) {
+                resourceCacheSize = DEFAULT_RESOURCE_CACHE_SIZE;
+            }
+
+            return resourceCacheSize;
+        }
+
+        /**
+         * @param resourceCacheSize size in bytes, after which the least recently used entries are evicted from the cache
+         */
+        public Configuration setResourceCacheSize(long resourceCacheSize) {
+            this.resourceCacheSize = resourceCacheSize;
+            return this;
+        }
+
+        /**
+         * @return resource cache, or null if the cache is disabled
+         */
+        public ResourceCache getResourceCache() {
+            if (getResourceCacheDirectory() == null) {
+                return null;
+            }
+
+            return new ResourceCache(new File(getResourceCacheDirectory()), getResourceCacheSize());
+        }
+
+        /**
+         * Adds everything that influences the content of the built APK to the fingerprint. The output name isn't part of it,
+         * as it only decides where the APK is stored.
+         */
+        public void fingerprint(Fingerprint fingerprint) {
+            fingerprint.add(getApiLevel());
+            fingerprint.addFileStamp(new File(getAaptPath()));
+            fingerprint.addFileStamp(new File(getDxPath()));
+            fingerprint.addFileStamp(new File(getAndroidJarPath()));
+            fingerprint.add(getJavacFingerprint());
+            // the in-process signer aligns the APK itself, zipalign and jarsigner only run with the forked one
+            fingerprint.add(getSignerFingerprint());
+            if (getSignerMode() == ExecutionMode.FORKED) {
+                fingerprint.addFileStamp(new File(getZipalignPath()));
+            }
+            fingerprint.addFileStamp(new File(getKeystorePath()));
+            fingerprint.add(getKeyAlias());
+            fingerprint.add(getCompressionPolicy().toString());
+        }
+
         public void validate() {
             File aapt = new File(getAaptPath());
             if (!aapt.exists()) {
@@ -663,20 +2333,24 @@ public class ApkBuilder {
                 throw new IllegalStateException("Android.jar \"" + androidJar.getPath() + "\" isn't a file!");
             }
 
-            File javac = new File(getJavacPath());
-            if (!javac.exists()) {
-                throw new IllegalStateException("Javac \"" + javac.getPath() + "\" doesn't exist!");
-            }
-            if (!javac.isFile()) {
-                throw new IllegalStateException("Javac \"" + javac.getPath() + "\" isn't a file!");
+            if (!isJavacInProcess()) {
+                File javac = new File(getJavacPath());
+                if (!javac.exists()) {
+                    throw new IllegalStateException("Javac \"" + javac.getPath() + "\" doesn't exist!");
+                }
+                if (!javac.isFile()) {
+                    throw new IllegalStateException("Javac \"" + javac.getPath() + "\" isn't a file!");
+                }
             }
 
-            File jarsigner = new File(getJarsignerPath());
-            if (!jarsigner.exists()) {
-                throw new IllegalStateException("Jarsigner \"" + jarsigner.getPath() + "\" doesn't exist!");
-            }
-            if (!jarsigner.isFile()) {
-                throw new IllegalStateException("Jarsigner \"" + jarsigner.getPath() + "\" isn't a file!");
+            if (getSignerMode() == ExecutionMode.FORKED) {
+                File jarsigner = new File(getJarsignerPath());
+                if (!jarsigner.exists()) {
+                    throw new IllegalStateException("Jarsigner \"" + jarsigner.getPath() + "\" doesn't exist!");
+                }
+                if (!jarsigner.isFile()) {
+                    throw new IllegalStateException("Jarsigner \"" + jarsigner.getPath() + "\" isn't a file!");
+                }
             }
         }
     }
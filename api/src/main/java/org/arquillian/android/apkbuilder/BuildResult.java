@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+
+/**
+ * Outcome of a single build.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class BuildResult {
+
+    private final String name;
+    private final File apk;
+    private final Throwable failure;
+    private final boolean cached;
+    private final long duration;
+    private final List<StageResult> stageResults;
+    private final BuildMetrics metrics;
+
+    public BuildResult(String name, File apk, Throwable failure, boolean cached, long duration,
+        List<StageResult> stageResults) {
+        this(name, apk, failure, cached, duration, stageResults, new BuildMetrics());
+    }
+
+    public BuildResult(String name, File apk, Throwable failure, boolean cached, long duration,
+        List<StageResult> stageResults, BuildMetrics metrics) {
+        this.name = name;
+        this.apk = apk;
+        this.failure = failure;
+        this.cached = cached;
+        this.duration = duration;
+        this.stageResults = Collections.unmodifiableList(stageResults);
+        this.metrics = metrics;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the built APK, or null if the build failed
+     */
+    public File getApk() {
+        return apk;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * @return cause of the failure, or null if the build succeeded
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the APK was retrieved from the build cache
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * @return duration of the build in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return durations and tool output of the stages in the order they finished, empty if the APK was cached
+     */
+    public List<StageResult> getStageResults() {
+        return stageResults;
+    }
+
+    /**
+     * @return counters of the I/O, processes and cache lookups of the build
+     */
+    public BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "BuildResult[" + name + (isSuccess() ? ", " + apk : ", failed: " + failure) + ", " + duration + " ms]";
+    }
+}
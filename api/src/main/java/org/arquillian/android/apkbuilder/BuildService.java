@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.jboss.shrinkwrap.api.Archive;
+
+/**
+ * Runs builds concurrently in the background. At most {@code maxConcurrentBuilds} builds run at the same time, the rest
+ * waits in the queue in the order of submission. The default limit is derived from the number of cores and the maximal
+ * heap size, so that concurrent builds neither oversubscribe the CPU nor exhaust the memory.
+ * <p>
+ * Every build has its own {@link ApkBuilder} with its own working directory and configuration. Cancelling a returned
+ * future destroys child processes of the build.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class BuildService {
+    private static final Logger logger = Logger.getLogger(BuildService.class.getName());
+
+    public static final long DEFAULT_MEMORY_PER_BUILD = 256L * 1024L * 1024L;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final int maxConcurrentBuilds;
+    // submitted builds, which haven't finished yet
+    private final Set<BuildTask> tasks = Collections.newSetFromMap(new ConcurrentHashMap<BuildTask, Boolean>());
+
+    public BuildService() {
+        this(defaultConcurrentBuilds(DEFAULT_MEMORY_PER_BUILD));
+    }
+
+    public BuildService(int maxConcurrentBuilds) {
+        if (maxConcurrentBuilds < 1) {
+            throw new IllegalArgumentException("At least one concurrent build has to be allowed!");
+        }
+        this.maxConcurrentBuilds = maxConcurrentBuilds;
+        this.executor = new ThreadPoolExecutor(maxConcurrentBuilds, maxConcurrentBuilds, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new BuildThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        logger.fine("Build service allows " + maxConcurrentBuilds + " concurrent builds.");
+    }
+
+    /**
+     * @param memoryPerBuild heap expected to be used by a single build
+     * @return number of builds, which fit both into the available cores and the maximal heap
+     */
+    public static int defaultConcurrentBuilds(long memoryPerBuild) {
+        if (memoryPerBuild <= 0) {
+            throw new IllegalArgumentException("Memory per build has to be positive!");
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        long byMemory = Runtime.getRuntime().maxMemory() / memoryPerBuild;
+        return (int) Math.max(1, Math.min(cores, byMemory));
+    }
+
+    public int getMaxConcurrentBuilds() {
+        return maxConcurrentBuilds;
+    }
+
+    /**
+     * Submits a build of an already initialized builder.
+     */
+    public Future<BuildResult> submit(final ApkBuilder builder) {
+        return submit(new BuildCallable() {
+            @Override
+            protected ApkBuilder createBuilder() {
+                return builder;
+            }
+        });
+    }
+
+    /**
+     * Submits a build of the archive with the default configuration. The archive is written into the working directory
+     * only when the build starts.
+     */
+    public Future<BuildResult> submit(final Archive<?> archive) {
+        return submit(new BuildCallable() {
+            @Override
+            protected ApkBuilder createBuilder() {
+                return ApkBuilder.init(archive);
+            }
+        });
+    }
+
+    /**
+     * Submits a build of the directory with the default configuration. The directory is copied into the working directory
+     * only when the build starts.
+     */
+    public Future<BuildResult> submit(final File directory) {
+        return submit(new BuildCallable() {
+            @Override
+            protected ApkBuilder createBuilder() {
+                return ApkBuilder.init(directory);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new builds, already submitted builds are finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Stops accepting new builds and cancels both queued and running builds.
+     */
+    public void shutdownNow() {
+        executor.shutdown();
+        for (BuildTask task : tasks) {
+            task.cancel(true);
+        }
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private Future<BuildResult> submit(BuildCallable callable) {
+        BuildTask task = new BuildTask(callable);
+        tasks.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            tasks.remove(task);
+            throw new IllegalStateException("Build service was shut down!", e);
+        }
+        return task;
+    }
+
+    private class BuildTask extends FutureTask<BuildResult> {
+        private final BuildCallable callable;
+
+        public BuildTask(BuildCallable callable) {
+            super(callable);
+            this.callable = callable;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                callable.cancel();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            tasks.remove(this);
+        }
+    }
+
+    private abstract static class BuildCallable implements Callable<BuildResult> {
+        private ApkBuilder builder;
+        private boolean cancelled = false;
+
+        protected abstract ApkBuilder createBuilder();
+
+        @Override
+        public BuildResult call() {
+            ApkBuilder newBuilder = createBuilder();
+            synchronized (this) {
+                builder = newBuilder;
+                if (cancelled) {
+                    builder.cancel();
+                }
+            }
+            return newBuilder.execute();
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            if (builder != null) {
+                builder.cancel();
+            }
+        }
+    }
+
+    private static class BuildThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "apkbuilder-build-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
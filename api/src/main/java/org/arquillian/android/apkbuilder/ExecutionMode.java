@@ -0,0 +1,35 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+/**
+ * Decides whether a build step runs inside of the current JVM or as a separate process.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public enum ExecutionMode {
+    /**
+     * Run the step in the current JVM, which saves the process startup and benefits from already warmed up JIT.
+     */
+    IN_PROCESS,
+
+    /**
+     * Run the step as a separate process using the tool from the SDK or JDK.
+     */
+    FORKED
+}
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Decides where working directories of the builds are created. All intermediate files of a build live in its working
+ * directory, so on hosts with slow or contended disks it pays off to keep them in memory.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public enum Workspace {
+    /**
+     * Working directories are created in {@code java.io.tmpdir}.
+     */
+    DISK,
+
+    /**
+     * Working directories are created on the memory-backed tmpfs in {@code /dev/shm}. The SDK tools read and write real
+     * files, so a filesystem visible to other processes is the closest to memory they can use. Falls back to {@link #DISK}
+     * if there is no writable tmpfs. Combine with {@link ApkBuilder.Configuration#setOutputDirectory(String)}, so that only
+     * the final APK is persisted and the working directory doesn't occupy memory after the build.
+     */
+    MEMORY;
+
+    private static final Logger logger = Logger.getLogger(Workspace.class.getName());
+
+    private static final String TEMP_DIRECTORY = System.getProperty("java.io.tmpdir");
+    private static final String SHARED_MEMORY_DIRECTORY = "/dev/shm";
+
+    /**
+     * @return directory in which the working directories are created
+     */
+    public File getRoot() {
+        if (this == MEMORY) {
+            File sharedMemory = new File(SHARED_MEMORY_DIRECTORY);
+            if (sharedMemory.isDirectory() && sharedMemory.canWrite()) {
+                return sharedMemory;
+            }
+            logger.warning("Shared memory directory \"" + SHARED_MEMORY_DIRECTORY
+                + "\" isn't available, using temporary directory instead.");
+        }
+
+        return new File(TEMP_DIRECTORY);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaFileObject;
+
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.asset.Asset;
+
+/**
+ * Part of the archive content, which the build reads directly from memory instead of from the working directory. Java
+ * sources go to the in-process compiler, classes are streamed into a single jar for dx and assets are streamed into the
+ * APK.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ArchiveInput {
+
+    public static final String JAVA_PREFIX = "/java/";
+    public static final String CLASS_PREFIX = "/class/";
+    public static final String ASSET_PREFIX = "/asset/";
+
+    private final SortedMap<String, Node> javaSources = new TreeMap<String, Node>();
+    private final SortedMap<String, Node> classes = new TreeMap<String, Node>();
+    private final SortedMap<String, Asset> assets = new TreeMap<String, Asset>();
+
+    public ArchiveInput(Archive<?> archive) {
+        for (Map.Entry<ArchivePath, Node> entry : archive.getContent().entrySet()) {
+            if (isInMemory(entry.getKey())) {
+                add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return true if the node at the given path doesn't have to be written into the working directory
+     */
+    public static boolean isInMemory(ArchivePath path) {
+        String name = path.get();
+        return name.startsWith(JAVA_PREFIX) || name.startsWith(CLASS_PREFIX) || name.startsWith(ASSET_PREFIX);
+    }
+
+    private void add(Node node) {
+        if (node.getAsset() == null) {
+            return;
+        }
+
+        String path = node.getPath().get();
+        if (path.startsWith(JAVA_PREFIX)) {
+            if (path.endsWith(".java")) {
+                javaSources.put(path, node);
+            }
+        } else if (path.startsWith(CLASS_PREFIX)) {
+            classes.put(path, node);
+        } else {
+            assets.put(path.substring(ASSET_PREFIX.length()), node.getAsset());
+        }
+    }
+
+    public List<JavaFileObject> getJavaFileObjects() {
+        List<JavaFileObject> fileObjects = new ArrayList<JavaFileObject>();
+        for (Node node : javaSources.values()) {
+            fileObjects.add(new ArchiveJavaFileObject(node));
+        }
+        return fileObjects;
+    }
+
+    public boolean hasJavaSources() {
+        return !javaSources.isEmpty();
+    }
+
+    public boolean hasClasses() {
+        return !classes.isEmpty();
+    }
+
+    /**
+     * @return assets keyed by their path relative to the asset directory, in a stable order
+     */
+    public SortedMap<String, Asset> getAssets() {
+        return Collections.unmodifiableSortedMap(assets);
+    }
+
+    /**
+     * Writes the Java sources into the directory, for tools which can't read them from memory.
+     */
+    public void writeJavaSources(File javaDirectory) throws IOException {
+        for (Map.Entry<String, Node> entry : javaSources.entrySet()) {
+            File file = new File(javaDirectory, entry.getKey().substring(JAVA_PREFIX.length()));
+            file.getParentFile().mkdirs();
+
+            OutputStream outputStream = new FileOutputStream(file);
+            try {
+                copy(entry.getValue().getAsset(), outputStream);
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    /**
+     * @return classes keyed by their path relative to the class directory, in a stable order
+     */
+    public SortedMap<String, Asset> getClasses() {
+        SortedMap<String, Asset> result = new TreeMap<String, Asset>();
+        for (Map.Entry<String, Node> entry : classes.entrySet()) {
+            result.put(entry.getKey().substring(CLASS_PREFIX.length()), entry.getValue().getAsset());
+        }
+        return result;
+    }
+
+    /**
+     * Streams all classes into a single uncompressed jar, which is much cheaper to write and read than a directory tree
+     * of small class files.
+     */
+    public void writeClassesJar(File jar) throws IOException {
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (Map.Entry<String, Node> entry : classes.entrySet()) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                copy(entry.getValue().getAsset(), content);
+                byte[] bytes = content.toByteArray();
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+
+                ZipEntry zipEntry = new ZipEntry(entry.getKey().substring(CLASS_PREFIX.length()));
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(bytes.length);
+                zipEntry.setCompressedSize(bytes.length);
+                zipEntry.setCrc(crc.getValue());
+
+                jarOutputStream.putNextEntry(zipEntry);
+                jarOutputStream.write(bytes);
+                jarOutputStream.closeEntry();
+            }
+        } finally {
+            jarOutputStream.close();
+        }
+    }
+
+    public void fingerprintJavaSources(Fingerprint fingerprint) throws IOException {
+        fingerprintNodes(fingerprint, javaSources);
+    }
+
+    public void fingerprintClasses(Fingerprint fingerprint) throws IOException {
+        fingerprintNodes(fingerprint, classes);
+    }
+
+    public void fingerprintAssets(Fingerprint fingerprint) throws IOException {
+        for (Map.Entry<String, Asset> entry : assets.entrySet()) {
+            fingerprint.add(entry.getKey());
+            fingerprintAsset(fingerprint, entry.getValue());
+        }
+    }
+
+    private void fingerprintNodes(Fingerprint fingerprint, SortedMap<String, Node> nodes) throws IOException {
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            fingerprint.add(entry.getKey());
+            fingerprintAsset(fingerprint, entry.getValue().getAsset());
+        }
+    }
+
+    private void fingerprintAsset(Fingerprint fingerprint, Asset asset) throws IOException {
+        InputStream inputStream = asset.openStream();
+        try {
+            fingerprint.add(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void copy(Asset asset, OutputStream outputStream) throws IOException {
+        InputStream inputStream = asset.openStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import javax.tools.SimpleJavaFileObject;
+
+import org.jboss.shrinkwrap.api.Node;
+
+/**
+ * Java source read directly from a node of the archive, so that it doesn't have to be written to disk for the compiler.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ArchiveJavaFileObject extends SimpleJavaFileObject {
+
+    private final Node node;
+
+    public ArchiveJavaFileObject(Node node) {
+        super(toUri(node), Kind.SOURCE);
+        this.node = node;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        return node.getAsset().openStream();
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+        InputStream inputStream = openInputStream();
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return content.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static URI toUri(Node node) {
+        try {
+            return new URI("archive", null, node.getPath().get(), null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid archive path \"" + node.getPath().get() + "\"!", e);
+        }
+    }
+}
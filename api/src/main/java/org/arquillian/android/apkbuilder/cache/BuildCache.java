@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+
+/**
+ * Persistent cache of built APKs, addressed by the fingerprint of everything the build depends on. The cache directory can
+ * be shared by several JVMs. Entries are published by an atomic rename, so readers never see a partially written APK, and
+ * the least recently used entries are evicted once the cache grows over its size limit.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class BuildCache {
+    private static final Logger logger = Logger.getLogger(BuildCache.class.getName());
+
+    private static final String APK_SUFFIX = ".apk";
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final long STALE_TEMP_FILE_AGE = 60L * 60L * 1000L;
+
+    private final File directory;
+    private final long maxSize;
+    private final String entrySuffix;
+
+    public BuildCache(File directory, long maxSize) {
+        this(directory, maxSize, APK_SUFFIX);
+    }
+
+    /**
+     * @param entrySuffix suffix of the entry files, caches of different artifacts may share a directory this way
+     */
+    protected BuildCache(File directory, long maxSize, String entrySuffix) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximal size of the cache has to be positive!");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.entrySuffix = entrySuffix;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Copies the cached entry to {@code destination}.
+     *
+     * @return true if the cache contained the entry, false otherwise
+     */
+    public boolean retrieve(String key, File destination) throws IOException {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            return false;
+        }
+
+        // mark as recently used
+        entry.setLastModified(System.currentTimeMillis());
+
+        try {
+            FileUtils.copyFile(entry, destination);
+        } catch (FileNotFoundException e) {
+            // evicted by another process in the meantime
+            destination.delete();
+            return false;
+        }
+
+        logger.info("Cache hit for \"" + key + "\".");
+        return true;
+    }
+
+    /**
+     * Publishes the file under the given key and evicts old entries if necessary.
+     */
+    public void store(String key, File apk) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Couldn't create build cache directory: \"" + directory.getPath() + "\" !");
+        }
+
+        File tempFile = new File(directory, TEMP_PREFIX + UUID.randomUUID().toString());
+        try {
+            FileUtils.copyFile(apk, tempFile);
+            if (!tempFile.renameTo(entryFile(key))) {
+                // on some platforms rename doesn't replace an entry published concurrently by someone else
+                logger.fine("Build cache entry \"" + key + "\" was published by another process.");
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits into its size limit.
+     */
+    public void evict() {
+        File[] entries = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(entrySuffix);
+            }
+        });
+        if (entries == null) {
+            return;
+        }
+
+        long size = 0;
+        // snapshot the timestamps, other processes may touch entries while we sort
+        final Map<File, Long> timestamps = new HashMap<File, Long>();
+        for (File entry : entries) {
+            size += entry.length();
+            timestamps.put(entry, entry.lastModified());
+        }
+
+        if (size > maxSize) {
+            Arrays.sort(entries, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    return timestamps.get(first).compareTo(timestamps.get(second));
+                }
+            });
+
+            for (File entry : entries) {
+                if (size <= maxSize) {
+                    break;
+                }
+                long length = entry.length();
+                if (entry.delete()) {
+                    size -= length;
+                    logger.fine("Evicted build cache entry \"" + entry.getName() + "\".");
+                }
+            }
+        }
+
+        deleteStaleTempFiles();
+    }
+
+    private void deleteStaleTempFiles() {
+        File[] tempFiles = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith(TEMP_PREFIX)
+                    && file.lastModified() < System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+            }
+        });
+        if (tempFiles == null) {
+            return;
+        }
+        for (File tempFile : tempFiles) {
+            if (!tempFile.delete()) {
+                logger.fine("Couldn't delete stale temporary file \"" + tempFile.getPath() + "\".");
+            }
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + entrySuffix);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+
+/**
+ * Persistent cache of compiled resources. A single entry holds both outputs of aapt, the resources package and the
+ * generated R sources, so they can never get out of sync. Changes of Java sources or classes don't touch the key, so such
+ * builds don't run aapt at all.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ResourceCache extends BuildCache {
+
+    private static final String RESOURCES_SUFFIX = ".res";
+    private static final String RESOURCES_ENTRY = "resources.ap_";
+    private static final String SOURCES_PREFIX = "r/";
+
+    public ResourceCache(File directory, long maxSize) {
+        super(directory, maxSize, RESOURCES_SUFFIX);
+    }
+
+    /**
+     * Restores the resources package and the generated sources. The content of {@code generatedSourcesDirectory} is
+     * replaced.
+     *
+     * @return true if the cache contained the entry, false otherwise
+     */
+    public boolean retrieve(String key, File resourcesApk, File generatedSourcesDirectory) throws IOException {
+        File entry = File.createTempFile("resources", RESOURCES_SUFFIX, resourcesApk.getParentFile());
+        try {
+            if (!retrieve(key, entry)) {
+                return false;
+            }
+
+            FileUtils.delete(generatedSourcesDirectory);
+            generatedSourcesDirectory.mkdirs();
+
+            ZipFile zipFile = new ZipFile(entry);
+            try {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry zipEntry = entries.nextElement();
+                    String name = zipEntry.getName();
+                    if (name.contains("..")) {
+                        throw new IOException("Invalid entry \"" + name + "\" in resource cache entry \"" + key + "\" !");
+                    }
+
+                    File destination;
+                    if (name.equals(RESOURCES_ENTRY)) {
+                        destination = resourcesApk;
+                    } else if (name.startsWith(SOURCES_PREFIX)) {
+                        destination = new File(generatedSourcesDirectory,
+                            FileUtils.platformIndependentPath(name.substring(SOURCES_PREFIX.length())));
+                        destination.getParentFile().mkdirs();
+                    } else {
+                        continue;
+                    }
+
+                    InputStream inputStream = zipFile.getInputStream(zipEntry);
+                    try {
+                        copy(inputStream, new FileOutputStream(destination));
+                    } finally {
+                        inputStream.close();
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+            return true;
+        } finally {
+            entry.delete();
+        }
+    }
+
+    /**
+     * Publishes the resources package together with the generated sources under the given key.
+     */
+    public void store(String key, File resourcesApk, File generatedSourcesDirectory) throws IOException {
+        File entry = File.createTempFile("resources", RESOURCES_SUFFIX, resourcesApk.getParentFile());
+        try {
+            ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(entry));
+            try {
+                add(zipOutputStream, RESOURCES_ENTRY, resourcesApk);
+                addTree(zipOutputStream, SOURCES_PREFIX, generatedSourcesDirectory);
+            } finally {
+                zipOutputStream.close();
+            }
+
+            store(key, entry);
+        } finally {
+            entry.delete();
+        }
+    }
+
+    private void addTree(ZipOutputStream zipOutputStream, String prefix, File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addTree(zipOutputStream, prefix + file.getName() + "/", file);
+            } else {
+                add(zipOutputStream, prefix + file.getName(), file);
+            }
+        }
+    }
+
+    private void add(ZipOutputStream zipOutputStream, String name, File file) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(name));
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                zipOutputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        zipOutputStream.closeEntry();
+    }
+
+    private void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+}
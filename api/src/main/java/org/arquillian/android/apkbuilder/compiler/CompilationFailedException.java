@@ -0,0 +1,50 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Thrown when the Java sources couldn't be compiled. The diagnostics are available through {@link #getResult()}.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class CompilationFailedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient CompilationResult result;
+
+    public CompilationFailedException(CompilationResult result) {
+        super(describe(result));
+        this.result = result;
+    }
+
+    public CompilationResult getResult() {
+        return result;
+    }
+
+    private static String describe(CompilationResult result) {
+        List<CompilerDiagnostic> errors = result.getErrors();
+        StringBuilder sb = new StringBuilder("Compilation failed with ").append(errors.size()).append(" error(s)");
+        for (CompilerDiagnostic error : errors) {
+            sb.append('\n').append(error);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a Java compilation.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class CompilationResult {
+
+    private final boolean success;
+    private final List<CompilerDiagnostic> diagnostics;
+    private final String output;
+
+    public CompilationResult(boolean success, List<CompilerDiagnostic> diagnostics, String output) {
+        this.success = success;
+        this.diagnostics = Collections.unmodifiableList(new ArrayList<CompilerDiagnostic>(diagnostics));
+        this.output = output;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public List<CompilerDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    public List<CompilerDiagnostic> getErrors() {
+        List<CompilerDiagnostic> errors = new ArrayList<CompilerDiagnostic>();
+        for (CompilerDiagnostic diagnostic : diagnostics) {
+            if (diagnostic.isError()) {
+                errors.add(diagnostic);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @return anything the compiler printed besides the diagnostics
+     */
+    public String getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import javax.tools.Diagnostic;
+
+/**
+ * Immutable copy of a diagnostic reported by the Java compiler.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class CompilerDiagnostic {
+
+    private final Diagnostic.Kind kind;
+    private final String source;
+    private final long line;
+    private final long column;
+    private final String code;
+    private final String message;
+
+    public CompilerDiagnostic(Diagnostic.Kind kind, String source, long line, long column, String code, String message) {
+        this.kind = kind;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.code = code;
+        this.message = message;
+    }
+
+    public Diagnostic.Kind getKind() {
+        return kind;
+    }
+
+    public boolean isError() {
+        return kind == Diagnostic.Kind.ERROR;
+    }
+
+    /**
+     * @return name of the source file, or null if the diagnostic isn't related to any source
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return line number, or {@link Diagnostic#NOPOS}
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * @return column number, or {@link Diagnostic#NOPOS}
+     */
+    public long getColumn() {
+        return column;
+    }
+
+    /**
+     * @return compiler specific code of the diagnostic, may be null
+     */
+    public String getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (source != null) {
+            sb.append(source);
+            if (line != Diagnostic.NOPOS) {
+                sb.append(':').append(line);
+            }
+            sb.append(": ");
+        }
+        sb.append(kind.toString().toLowerCase()).append(": ").append(message);
+        return sb.toString();
+    }
+}
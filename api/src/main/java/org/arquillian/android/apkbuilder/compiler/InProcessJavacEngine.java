@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java sources by the {@link JavaCompiler} of the running JDK, so no new JVM has to be started for each build.
+ * File managers are expensive to create (they cache opened jars and directory listings), so they are pooled and reused by
+ * subsequent compilations. The engine is shared by all builds in the JVM and is thread-safe.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class InProcessJavacEngine {
+    private static final Logger logger = Logger.getLogger(InProcessJavacEngine.class.getName());
+
+    private static InProcessJavacEngine instance;
+
+    private final JavaCompiler compiler;
+    private final Queue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<StandardJavaFileManager>();
+
+    private InProcessJavacEngine(JavaCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * @return true if the JVM runs on JDK, which provides the system Java compiler
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    public static synchronized InProcessJavacEngine getInstance() {
+        if (instance == null) {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                throw new IllegalStateException("System Java compiler isn't available, the JVM has to run on JDK!");
+            }
+            instance = new InProcessJavacEngine(compiler);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Compiles the given source files.
+     *
+     * @param options compiler options, except for locations
+     * @param sources source files to compile
+     * @param classpath classpath entries
+     * @param classOutput directory for the generated classes
+     * @param sourceOutput directory for the sources generated by annotation processors
+     */
+    public CompilationResult compile(List<String> options, List<File> sources, List<File> classpath, File classOutput,
+        File sourceOutput) throws IOException {
+        return compile(options, sources, Collections.<JavaFileObject> emptyList(), classpath, classOutput, sourceOutput);
+    }
+
+    /**
+     * Compiles the given source files together with sources, which don't exist on disk.
+     *
+     * @param options compiler options, except for locations
+     * @param sources source files to compile
+     * @param sourceObjects additional sources to compile, e.g. read from memory
+     * @param classpath classpath entries
+     * @param classOutput directory for the generated classes
+     * @param sourceOutput directory for the sources generated by annotation processors
+     */
+    public CompilationResult compile(List<String> options, List<File> sources, List<? extends JavaFileObject> sourceObjects,
+        List<File> classpath, File classOutput, File sourceOutput) throws IOException {
+        StandardJavaFileManager fileManager = acquireFileManager();
+        try {
+            setLocations(fileManager, classpath, classOutput, sourceOutput);
+
+            List<JavaFileObject> compilationUnits = new ArrayList<JavaFileObject>();
+            for (JavaFileObject fileObject : fileManager.getJavaFileObjectsFromFiles(sources)) {
+                compilationUnits.add(fileObject);
+            }
+            compilationUnits.addAll(sourceObjects);
+
+            return compile(fileManager, options, compilationUnits);
+        } finally {
+            releaseFileManager(fileManager);
+        }
+    }
+
+    private CompilationResult compile(StandardJavaFileManager fileManager, List<String> options,
+        Iterable<? extends JavaFileObject> compilationUnits) {
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<JavaFileObject>();
+        StringWriter output = new StringWriter();
+
+        long start = System.currentTimeMillis();
+        Boolean success = compiler.getTask(output, fileManager, collector, options, null, compilationUnits).call();
+        logger.fine("In-process compilation took " + (System.currentTimeMillis() - start) + " ms.");
+
+        List<CompilerDiagnostic> diagnostics = new ArrayList<CompilerDiagnostic>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : collector.getDiagnostics()) {
+            diagnostics.add(new CompilerDiagnostic(
+                diagnostic.getKind(),
+                diagnostic.getSource() == null ? null : diagnostic.getSource().getName(),
+                diagnostic.getLineNumber(),
+                diagnostic.getColumnNumber(),
+                diagnostic.getCode(),
+                diagnostic.getMessage(null)));
+        }
+
+        return new CompilationResult(Boolean.TRUE.equals(success), diagnostics, output.toString());
+    }
+
+    private void setLocations(StandardJavaFileManager fileManager, List<File> classpath, File classOutput, File sourceOutput)
+        throws IOException {
+        // the file manager is reused, so every location has to be set, not to inherit them from the previous compilation
+        fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classOutput));
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(sourceOutput));
+    }
+
+    private StandardJavaFileManager acquireFileManager() {
+        StandardJavaFileManager fileManager = fileManagers.poll();
+        if (fileManager == null) {
+            fileManager = compiler.getStandardFileManager(null, null, null);
+        }
+        return fileManager;
+    }
+
+    private void releaseFileManager(StandardJavaFileManager fileManager) throws IOException {
+        fileManager.flush();
+        fileManagers.offer(fileManager);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Java sources found under a set of root directories. Large trees are walked in parallel, one subtree per task.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class SourceSet {
+    private static final Logger logger = Logger.getLogger(SourceSet.class.getName());
+
+    private static final String JAVA_EXTENSION = ".java";
+    // a tree is split into subtrees at most this deep, deeper directories are walked by the task of their ancestor
+    private static final int MAX_SPLIT_DEPTH = 4;
+
+    private final List<File> roots;
+
+    public SourceSet(File... roots) {
+        this(Arrays.asList(roots));
+    }
+
+    public SourceSet(List<File> roots) {
+        this.roots = new ArrayList<File>(roots);
+    }
+
+    public List<File> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * @return sorted source files, the roots are scanned on every call
+     */
+    public List<File> getFiles() throws IOException {
+        long start = System.currentTimeMillis();
+        List<File> files = new ArrayList<File>();
+        for (File root : roots) {
+            scan(root.toPath(), files);
+        }
+        Collections.sort(files);
+
+        logger.fine("Found " + files.size() + " sources in " + (System.currentTimeMillis() - start) + " ms.");
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Writes the sources into a javac argument file, so that the number of sources isn't limited by the maximum length
+     * of the command line.
+     *
+     * @param files sources returned by {@link #getFiles()}, so that the roots aren't scanned again
+     */
+    public static void writeArgumentFile(List<File> files, File argumentFile) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(argumentFile), "UTF-8"));
+        try {
+            for (File file : files) {
+                // javac reads backslashes in quoted arguments as escapes
+                writer.write("\"" + file.getAbsolutePath().replace('\\', '/') + "\"\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void scan(Path root, List<File> sources) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        // split the tree breadth-first until there are enough subtrees to keep all threads busy
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        List<Path> subtrees = Collections.singletonList(root);
+        for (int depth = 0; depth < MAX_SPLIT_DEPTH && subtrees.size() < threads && !subtrees.isEmpty(); depth++) {
+            List<Path> children = new ArrayList<Path>();
+            for (Path directory : subtrees) {
+                list(directory, sources, children);
+            }
+            subtrees = children;
+        }
+
+        if (subtrees.size() < 2) {
+            for (Path subtree : subtrees) {
+                walk(subtree, sources);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<File>>> futures = new ArrayList<Future<List<File>>>();
+            for (final Path subtree : subtrees) {
+                futures.add(executor.submit(new Callable<List<File>>() {
+                    @Override
+                    public List<File> call() throws IOException {
+                        List<File> found = new ArrayList<File>();
+                        walk(subtree, found);
+                        return found;
+                    }
+                }));
+            }
+            for (Future<List<File>> future : futures) {
+                sources.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scanning of \"" + root + "\" was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void list(Path directory, List<File> sources, List<Path> subdirectories) throws IOException {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path child : stream) {
+                if (Files.isDirectory(child)) {
+                    subdirectories.add(child);
+                } else if (isSource(child)) {
+                    sources.add(child.toFile());
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void walk(Path subtree, final List<File> sources) throws IOException {
+        Files.walkFileTree(subtree, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && isSource(file)) {
+                    sources.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isSource(Path file) {
+        return file.getFileName().toString().endsWith(JAVA_EXTENSION);
+    }
+}
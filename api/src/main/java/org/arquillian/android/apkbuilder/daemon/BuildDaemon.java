@@ -0,0 +1,452 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.ApkBuilder;
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.BuildService;
+import org.arquillian.android.apkbuilder.Workspace;
+import org.arquillian.android.apkbuilder.metrics.BuildStatistics;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.jboss.shrinkwrap.api.GenericArchive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.importer.ZipImporter;
+
+/**
+ * Long-lived build process. Builds started from a fresh JVM pay for toolchain discovery, loading and JIT compilation of
+ * javac and the signer every time, while the daemon keeps all of that warm together with its caches. Clients connect over a
+ * loopback TCP socket and send either a directory or a zipped archive, see {@link BuildDaemonClient}. Requests are built
+ * concurrently by a {@link BuildService}. Requests are read only by as many threads as builds may run at the same time,
+ * so archives held in memory are limited the same way as the builds. The daemon stops itself after being idle for the given
+ * time.
+ * <p>
+ * Every request carries a random token, which the daemon writes into a file readable only by its owner, so other users of
+ * the machine can't make the daemon build their requests.
+ * <p>
+ * Every request is built in its own working directory, which is deleted as soon as the request is answered. The APKs are
+ * kept in a directory of the daemon on disk, one subdirectory per request. Clients delete the subdirectory of an APK once
+ * they don't need it, the daemon deletes the whole directory with the remaining APKs when it stops.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class BuildDaemon {
+    private static final Logger logger = Logger.getLogger(BuildDaemon.class.getName());
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 30L * 60L * 1000L;
+
+    // a client which stops sending its request mustn't block other requests forever
+    private static final int REQUEST_READ_TIMEOUT = 60 * 1000;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final int TOKEN_LENGTH = 32;
+
+    private final int port;
+    private final long idleTimeout;
+    private final BuildService buildService;
+    private final Workspace workspace;
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long lastActivity;
+    private volatile boolean stopped = false;
+
+    private ServerSocket serverSocket;
+    private File outputDirectory;
+    private File tokenFile;
+    private String token;
+    private ExecutorService connectionExecutor;
+    private ScheduledExecutorService idleChecker;
+
+    /**
+     * @param port port on the loopback interface, 0 picks a free one
+     * @param idleTimeout milliseconds without any request after which the daemon stops
+     * @param maxConcurrentBuilds number of builds running at the same time
+     */
+    public BuildDaemon(int port, long idleTimeout, int maxConcurrentBuilds) {
+        this(port, idleTimeout, maxConcurrentBuilds, Workspace.DISK);
+    }
+
+    /**
+     * @param port port on the loopback interface, 0 picks a free one
+     * @param idleTimeout milliseconds without any request after which the daemon stops
+     * @param maxConcurrentBuilds number of builds running at the same time
+     * @param workspace where the working directories of the builds are created
+     */
+    public BuildDaemon(int port, long idleTimeout, int maxConcurrentBuilds, Workspace workspace) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("Idle timeout has to be positive!");
+        }
+        this.port = port;
+        this.idleTimeout = idleTimeout;
+        this.buildService = new BuildService(maxConcurrentBuilds);
+        this.workspace = workspace;
+    }
+
+    /**
+     * Starts accepting requests in background threads.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Daemon was already started!");
+        }
+
+        // the daemon builds whatever it's told to, so it mustn't be reachable from other machines
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        outputDirectory = FileUtils.prepareWorkingDirectory();
+        restrictToOwner(outputDirectory);
+        token = createToken();
+        tokenFile = new File(outputDirectory, "daemon.token");
+        writeOwnerOnly(tokenFile, token);
+        // further connections wait in the queue without being read
+        connectionExecutor = Executors.newFixedThreadPool(buildService.getMaxConcurrentBuilds(),
+            new DaemonThreadFactory("apkbuilder-daemon-connection-"));
+        idleChecker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("apkbuilder-daemon-idle-"));
+        lastActivity = System.currentTimeMillis();
+
+        Thread acceptor = new DaemonThreadFactory("apkbuilder-daemon-acceptor-").newThread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        acceptor.start();
+
+        long checkInterval = Math.max(10L, Math.min(idleTimeout / 2, 1000L));
+        idleChecker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                stopIfIdle();
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+
+        logger.info("Build daemon listens on port " + getPort() + ".");
+    }
+
+    /**
+     * @return port the daemon listens on
+     */
+    public synchronized int getPort() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Daemon wasn't started yet!");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return file with the token clients have to send, readable only by the user running the daemon
+     */
+    public synchronized File getTokenFile() {
+        if (tokenFile == null) {
+            throw new IllegalStateException("Daemon wasn't started yet!");
+        }
+        return tokenFile;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stops accepting requests, cancels builds in progress and deletes the APKs the clients didn't delete.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't close the daemon socket.", e);
+        }
+        if (connectionExecutor != null) {
+            // connections waiting in the queue are never handled
+            for (Runnable connection : connectionExecutor.shutdownNow()) {
+                close(((Connection) connection).socket);
+            }
+            idleChecker.shutdownNow();
+        }
+        buildService.shutdownNow();
+        if (outputDirectory != null) {
+            try {
+                FileUtils.delete(outputDirectory);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't delete output directory \"" + outputDirectory.getPath() + "\".", e);
+            }
+        }
+        notifyAll();
+
+        logger.info("Build daemon stopped.");
+    }
+
+    /**
+     * Blocks until the daemon is stopped.
+     */
+    public synchronized void awaitStop() throws InterruptedException {
+        while (!stopped) {
+            wait();
+        }
+    }
+
+    /**
+     * Customizes configuration of every build. Does nothing by default, so the builds use the environment of the daemon
+     * and store the APKs in the output directory of the daemon.
+     */
+    protected void configure(ApkBuilder.Configuration configuration) {
+    }
+
+    private void acceptConnections() {
+        while (!stopped) {
+            try {
+                Socket socket = serverSocket.accept();
+                // queued connections keep the daemon alive too
+                activeRequests.incrementAndGet();
+                try {
+                    connectionExecutor.execute(new Connection(socket));
+                } catch (RejectedExecutionException e) {
+                    // stopped meanwhile
+                    close(socket);
+                    activeRequests.decrementAndGet();
+                }
+            } catch (SocketException e) {
+                // socket closed by stop()
+                if (!stopped) {
+                    logger.log(Level.SEVERE, "Build daemon socket failed.", e);
+                    stop();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't accept a connection.", e);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(REQUEST_READ_TIMEOUT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            BuildResult result;
+            ApkBuilder builder = null;
+            try {
+                builder = createBuilder(in);
+                result = build(builder);
+            } catch (IOException e) {
+                result = failure(e);
+            } catch (RuntimeException e) {
+                result = failure(e);
+            } finally {
+                // the APK was persisted into the output directory, nothing else outlives the request
+                if (builder != null) {
+                    deleteWorkingDirectory(builder);
+                }
+            }
+            DaemonProtocol.writeResult(out, result);
+            out.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't handle a request.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(socket);
+            lastActivity = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Couldn't close a connection.", e);
+        }
+    }
+
+    private ApkBuilder createBuilder(DataInputStream in) throws IOException {
+        byte type = DaemonProtocol.readHeader(in, token);
+        String name = DaemonProtocol.readString(in);
+
+        ApkBuilder builder;
+        if (type == DaemonProtocol.TYPE_DIRECTORY) {
+            File directory = new File(DaemonProtocol.readString(in));
+            builder = name.length() > 0 ? ApkBuilder.init(name, directory, workspace)
+                : ApkBuilder.init(directory, workspace);
+        } else if (type == DaemonProtocol.TYPE_ARCHIVE) {
+            int length = in.readInt();
+            if (length < 0 || length > DaemonProtocol.MAX_ARCHIVE_SIZE) {
+                throw new IOException("Invalid archive length " + length + "!");
+            }
+            byte[] zip = new byte[length];
+            in.readFully(zip);
+
+            GenericArchive archive = ShrinkWrap.create(ZipImporter.class, name.length() > 0 ? name : "archive.apk")
+                .importFrom(new ByteArrayInputStream(zip)).as(GenericArchive.class);
+            builder = ApkBuilder.init(archive, true, workspace);
+        } else {
+            throw new IOException("Unknown request type " + type + "!");
+        }
+
+        builder.getConfiguration()
+            .setOutputDirectory(new File(outputDirectory, UUID.randomUUID().toString()).getAbsolutePath())
+            .addBuildListener(BuildStatistics.getInstance());
+        configure(builder.getConfiguration());
+        return builder;
+    }
+
+    private BuildResult build(ApkBuilder builder) throws InterruptedException {
+        try {
+            return buildService.submit(builder).get();
+        } catch (ExecutionException e) {
+            return failure(e.getCause());
+        } catch (InterruptedException e) {
+            builder.cancel();
+            throw e;
+        }
+    }
+
+    private void deleteWorkingDirectory(ApkBuilder builder) {
+        try {
+            FileUtils.delete(builder.getWorkingDirectory());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't delete working directory \"" + builder.getWorkingDirectory().getPath()
+                + "\".", e);
+        }
+    }
+
+    private static String createToken() {
+        byte[] bytes = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        return token.toString();
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    // temporary directories of systems without POSIX permissions, e.g. Windows, are private to the user already
+    private static void restrictToOwner(File directory) throws IOException {
+        if (isPosix()) {
+            Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+        }
+    }
+
+    private static void writeOwnerOnly(File file, String content) throws IOException {
+        // the permissions are set on creation, so that the file is never readable by others
+        if (isPosix()) {
+            Files.createFile(file.toPath(),
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file.toPath());
+        }
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    private BuildResult failure(Throwable cause) {
+        logger.log(Level.WARNING, "Build request failed.", cause);
+        return new BuildResult("", null, cause, false, 0, Collections.<StageResult> emptyList());
+    }
+
+    private void stopIfIdle() {
+        if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity >= idleTimeout) {
+            logger.info("Build daemon was idle for " + idleTimeout + " ms.");
+            stop();
+        }
+    }
+
+    /**
+     * Starts the daemon and waits until it stops.
+     *
+     * @param args port (default 0), idle timeout in seconds (default 1800) and workspace (default {@code DISK})
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        long idleTimeout = args.length > 1 ? Long.parseLong(args[1]) * 1000L : DEFAULT_IDLE_TIMEOUT;
+        Workspace workspace = args.length > 2 ? Workspace.valueOf(args[2]) : Workspace.DISK;
+
+        BuildDaemon daemon = new BuildDaemon(port, idleTimeout, BuildService.defaultConcurrentBuilds(
+            BuildService.DEFAULT_MEMORY_PER_BUILD), workspace);
+        daemon.start();
+        // clients started by scripts read the port from the first line and the token file from the second one
+        System.out.println(daemon.getPort());
+        System.out.println(daemon.getTokenFile().getAbsolutePath());
+        daemon.awaitStop();
+    }
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+
+        public Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            handle(socket);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+
+/**
+ * Sends build requests to a {@link BuildDaemon} running on this machine. The client authenticates by the token of the
+ * daemon, see {@link BuildDaemon#getTokenFile()}, so it has to run as the same user as the daemon. The client is
+ * stateless and can be shared by threads, every request uses its own connection.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class BuildDaemonClient {
+
+    private final int port;
+    private final String token;
+
+    /**
+     * @param port port the daemon listens on
+     * @param tokenFile file with the token of the daemon
+     */
+    public BuildDaemonClient(int port, File tokenFile) throws IOException {
+        this.port = port;
+        this.token = new String(Files.readAllBytes(tokenFile.toPath()), "UTF-8").trim();
+    }
+
+    /**
+     * Builds the directory. The daemon reads it directly, so it has to run on the same machine with access to the
+     * directory.
+     *
+     * @return result with the APK in a directory of its own, which the caller deletes once the APK isn't needed
+     */
+    public BuildResult build(String name, File directory) throws IOException {
+        Socket socket = connect();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DaemonProtocol.writeHeader(out, token, DaemonProtocol.TYPE_DIRECTORY, name != null ? name : "");
+            DaemonProtocol.writeString(out, directory.getAbsolutePath());
+            out.flush();
+
+            return readResult(socket, name);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Builds the archive, which is sent zipped to the daemon.
+     *
+     * @return result with the APK in a directory of its own, which the caller deletes once the APK isn't needed
+     */
+    public BuildResult build(Archive<?> archive) throws IOException {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        archive.as(ZipExporter.class).exportTo(zip);
+        if (zip.size() > DaemonProtocol.MAX_ARCHIVE_SIZE) {
+            throw new IllegalArgumentException("Archive \"" + archive.getName() + "\" is too large to be sent to the daemon!");
+        }
+
+        Socket socket = connect();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DaemonProtocol.writeHeader(out, token, DaemonProtocol.TYPE_ARCHIVE, archive.getName());
+            out.writeInt(zip.size());
+            zip.writeTo(out);
+            out.flush();
+
+            return readResult(socket, archive.getName());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private BuildResult readResult(Socket socket, String name) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        return DaemonProtocol.readResult(in, name);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+
+/**
+ * Wire format shared by {@link BuildDaemon} and {@link BuildDaemonClient}. Every connection carries a single request and
+ * its response.
+ *
+ * <pre>
+ * request:  magic, version, token, type, name, (directory path | archive length, zipped archive)
+ * response: success, cached, duration, APK path, failure message, stage count, stages
+ * stage:    name, executed, success, duration, output
+ * </pre>
+ *
+ * The token is a secret of the daemon, readable only by its owner, so other users of the machine can't make the daemon
+ * build their requests. Strings are written as UTF-8 bytes prefixed by their length. Names and paths are limited to
+ * {@value #MAX_STRING_LENGTH} bytes, failures and outputs in the response to {@value #MAX_OUTPUT_LENGTH} bytes.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+final class DaemonProtocol {
+
+    static final int MAGIC = 0x41504b42;
+    static final int VERSION = 2;
+
+    static final byte TYPE_DIRECTORY = 1;
+    static final byte TYPE_ARCHIVE = 2;
+
+    // archives are held in memory by the daemon
+    static final int MAX_ARCHIVE_SIZE = 256 * 1024 * 1024;
+    // names and paths
+    static final int MAX_STRING_LENGTH = 8 * 1024;
+    // failures and outputs of the stages in the response, which carry outputs of the tools
+    static final int MAX_OUTPUT_LENGTH = 4 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DaemonProtocol() {
+    }
+
+    static void writeHeader(DataOutputStream out, String token, byte type, String name) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, token);
+        out.writeByte(type);
+        writeString(out, name);
+    }
+
+    /**
+     * @param token token of the daemon, requests with any other token are rejected
+     * @return type of the request
+     */
+    static byte readHeader(DataInputStream in, String token) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an apkbuilder daemon request!");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version + ", expected " + VERSION + "!");
+        }
+        // compared in constant time, so that the token can't be guessed byte by byte
+        if (!MessageDigest.isEqual(token.getBytes(UTF_8), readString(in).getBytes(UTF_8))) {
+            throw new IOException("Invalid daemon token!");
+        }
+        return in.readByte();
+    }
+
+    static void writeResult(DataOutputStream out, BuildResult result) throws IOException {
+        out.writeBoolean(result.isSuccess());
+        out.writeBoolean(result.isCached());
+        out.writeLong(result.getDuration());
+        writeString(out, result.getApk() != null ? result.getApk().getAbsolutePath() : "");
+        writeString(out, result.getFailure() != null ? String.valueOf(result.getFailure().getMessage()) : "");
+
+        out.writeInt(result.getStageResults().size());
+        for (StageResult stage : result.getStageResults()) {
+            writeString(out, stage.getName());
+            out.writeBoolean(stage.isExecuted());
+            out.writeBoolean(stage.isSuccess());
+            out.writeLong(stage.getDuration());
+            writeString(out, stage.getOutput());
+        }
+    }
+
+    static BuildResult readResult(DataInputStream in, String name) throws IOException {
+        boolean success = in.readBoolean();
+        boolean cached = in.readBoolean();
+        long duration = in.readLong();
+        String apkPath = readString(in);
+        String failure = readOutput(in);
+
+        int stageCount = in.readInt();
+        List<StageResult> stages = new ArrayList<StageResult>(stageCount);
+        for (int i = 0; i < stageCount; i++) {
+            stages.add(new StageResult(readString(in), in.readBoolean(), in.readBoolean(), in.readLong(), readOutput(in)));
+        }
+
+        return new BuildResult(name, success ? new File(apkPath) : null,
+            success ? null : new IOException("Build in the daemon failed: " + failure), cached, duration, stages);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return readString(in, MAX_STRING_LENGTH);
+    }
+
+    static String readOutput(DataInputStream in) throws IOException {
+        return readString(in, MAX_OUTPUT_LENGTH);
+    }
+
+    private static String readString(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid string length " + length + "!");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.dex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
+
+/**
+ * Classes of a single package. A package is the unit of the pre-dex cache, so a changed class only causes its own package
+ * to be dexed again.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ClassGroup {
+
+    private final String name;
+    private final SortedMap<String, Asset> classes = new TreeMap<String, Asset>();
+
+    ClassGroup(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return package path of the classes, e.g. {@code org/example}, empty for the default package
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return classes keyed by their path relative to the class root
+     */
+    public SortedMap<String, Asset> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Adds paths and contents of the classes to the fingerprint.
+     */
+    public void fingerprint(Fingerprint fingerprint) throws IOException {
+        fingerprint.add(name);
+        for (Map.Entry<String, Asset> entry : classes.entrySet()) {
+            fingerprint.add(entry.getKey());
+            InputStream inputStream = entry.getValue().openStream();
+            try {
+                fingerprint.add(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the classes into an uncompressed jar, which is the input of dx.
+     */
+    public void writeJar(File jar) throws IOException {
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (Map.Entry<String, Asset> entry : classes.entrySet()) {
+                byte[] bytes = read(entry.getValue());
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(bytes.length);
+                zipEntry.setCompressedSize(bytes.length);
+                zipEntry.setCrc(crc.getValue());
+
+                jarOutputStream.putNextEntry(zipEntry);
+                jarOutputStream.write(bytes);
+                jarOutputStream.closeEntry();
+            }
+        } finally {
+            jarOutputStream.close();
+        }
+    }
+
+    /**
+     * Splits the classes into groups by their package.
+     *
+     * @param classes classes keyed by their path relative to the class root
+     * @return groups sorted by the package name
+     */
+    public static List<ClassGroup> byPackage(SortedMap<String, Asset> classes) {
+        SortedMap<String, ClassGroup> groups = new TreeMap<String, ClassGroup>();
+        for (Map.Entry<String, Asset> entry : classes.entrySet()) {
+            String path = entry.getKey();
+            if (!path.endsWith(".class")) {
+                continue;
+            }
+
+            int separator = path.lastIndexOf('/');
+            String packageName = separator == -1 ? "" : path.substring(0, separator);
+
+            ClassGroup group = groups.get(packageName);
+            if (group == null) {
+                group = new ClassGroup(packageName);
+                groups.put(packageName, group);
+            }
+            group.classes.put(path, entry.getValue());
+        }
+        return new ArrayList<ClassGroup>(groups.values());
+    }
+
+    /**
+     * Splits the classes found under {@code directory} into groups by their package.
+     */
+    public static List<ClassGroup> byPackage(File directory) {
+        SortedMap<String, Asset> classes = new TreeMap<String, Asset>();
+        collect(directory, "", classes);
+        return byPackage(classes);
+    }
+
+    private static void collect(File directory, String prefix, SortedMap<String, Asset> classes) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                collect(file, path + "/", classes);
+            } else {
+                classes.put(path, new FileAsset(file));
+            }
+        }
+    }
+
+    private static byte[] read(Asset asset) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        InputStream inputStream = asset.openStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                content.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return content.toByteArray();
+    }
+}
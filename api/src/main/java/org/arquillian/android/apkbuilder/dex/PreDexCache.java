@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.dex;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.arquillian.android.apkbuilder.cache.BuildCache;
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+
+/**
+ * Persistent cache of dexed single packages, addressed by the content of the package and the dx used to dex it. Every
+ * entry is an archive with a {@code classes.dex}, as dx only merges dex files packed that way. Test harness and library
+ * classes are the same in most archives, so they are dexed only once and later builds just merge the cached archives with
+ * the classes which changed.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class PreDexCache extends BuildCache {
+
+    private static final String DEX_ARCHIVE_SUFFIX = ".dex.jar";
+
+    public PreDexCache(File directory, long maxSize) {
+        super(directory, maxSize, DEX_ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * @param dx dx executable, replacing it invalidates all entries
+     * @return key of the dex archive of the given group
+     */
+    public String key(ClassGroup group, File dx) throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.addFileStamp(dx);
+        group.fingerprint(fingerprint);
+        return fingerprint.toHex();
+    }
+}
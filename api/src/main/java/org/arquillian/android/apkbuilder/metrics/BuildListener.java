@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.Command;
+
+/**
+ * Receives the progress of builds. Stages of a build run concurrently and several builds may share a listener, so the
+ * methods are called from different threads and have to be thread-safe. Every method is called on the thread doing the
+ * reported work. Exceptions thrown by a listener are logged and don't affect the build.
+ * <p>
+ * Every execution of a build is identified by a number unique in the JVM, which tells apart builds of the same name running
+ * at the same time, or one after another by the same builder.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public interface BuildListener {
+
+    void buildStarted(long execution, String build);
+
+    /**
+     * Reports writing of the content into the working directory, which happens when the builder is initialized, before
+     * any listener can be registered. Called once after the first {@link #buildStarted(long, String)} of the builder, not at all
+     * if nothing was staged.
+     *
+     * @param start time the staging started at, as returned by {@link System#nanoTime()}, so that it can be compared with
+     *        the time of the other events
+     * @param duration duration of the staging in milliseconds
+     * @param threadId id of the thread which did the staging
+     */
+    void stagingFinished(long execution, String build, long start, long duration, long threadId);
+
+    void stageStarted(long execution, String build, String stage);
+
+    void stageFinished(long execution, String build, StageResult result);
+
+    void processStarted(long execution, String build, String stage, Command command);
+
+    /**
+     * Called also if the process failed or timed out, but not if it couldn't be started at all.
+     */
+    void processFinished(long execution, String build, String stage, ProcessResult result);
+
+    /**
+     * @param result outcome of the build, its metrics are complete at this point
+     */
+    void buildFinished(long execution, BuildResult result);
+}
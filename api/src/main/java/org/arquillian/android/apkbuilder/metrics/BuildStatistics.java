@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.Command;
+
+/**
+ * Aggregates metrics of all builds of the JVM, which listen to it, and exposes them as an MXBean named
+ * {@value #OBJECT_NAME}.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class BuildStatistics implements BuildListener, BuildStatisticsMXBean {
+    private static final Logger logger = Logger.getLogger(BuildStatistics.class.getName());
+
+    public static final String OBJECT_NAME = "org.arquillian.android.apkbuilder:type=BuildStatistics";
+
+    private static final File PROC_STAT = new File("/proc/self/stat");
+    // clock ticks per second of /proc, which is fixed to 100 on all common Linux platforms
+    private static final long CLOCK_TICKS = 100;
+
+    private static BuildStatistics instance;
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong failedBuilds = new AtomicLong();
+    private final AtomicLong cachedBuilds = new AtomicLong();
+    private final Histogram buildTime = new Histogram();
+    private final Histogram processTime = new Histogram();
+    private final Histogram stagingTime = new Histogram();
+    private final Map<String, Histogram> stageTimes = new TreeMap<String, Histogram>();
+    private final BuildMetrics counters = new BuildMetrics();
+
+    /**
+     * @return statistics registered in the platform MBean server
+     */
+    public static synchronized BuildStatistics getInstance() {
+        if (instance == null) {
+            instance = new BuildStatistics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                logger.log(Level.WARNING, "Couldn't register build statistics MBean.", e);
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void buildStarted(long execution, String build) {
+    }
+
+    @Override
+    public void stagingFinished(long execution, String build, long start, long duration, long threadId) {
+        stagingTime.record(duration);
+    }
+
+    @Override
+    public void stageStarted(long execution, String build, String stage) {
+    }
+
+    @Override
+    public void stageFinished(long execution, String build, StageResult result) {
+        if (!result.isExecuted()) {
+            return;
+        }
+        Histogram histogram;
+        synchronized (stageTimes) {
+            histogram = stageTimes.get(result.getName());
+            if (histogram == null) {
+                histogram = new Histogram();
+                stageTimes.put(result.getName(), histogram);
+            }
+        }
+        histogram.record(result.getDuration());
+    }
+
+    @Override
+    public void processStarted(long execution, String build, String stage, Command command) {
+    }
+
+    @Override
+    public void processFinished(long execution, String build, String stage, ProcessResult result) {
+        processTime.record(result.getDuration());
+    }
+
+    @Override
+    public void buildFinished(long execution, BuildResult result) {
+        builds.incrementAndGet();
+        if (!result.isSuccess()) {
+            failedBuilds.incrementAndGet();
+        }
+        if (result.isCached()) {
+            cachedBuilds.incrementAndGet();
+        }
+        buildTime.record(result.getDuration());
+
+        for (Map.Entry<String, Long> counter : result.getMetrics().getCounters().entrySet()) {
+            counters.add(counter.getKey(), counter.getValue());
+        }
+    }
+
+    @Override
+    public long getBuilds() {
+        return builds.get();
+    }
+
+    @Override
+    public long getFailedBuilds() {
+        return failedBuilds.get();
+    }
+
+    @Override
+    public long getCachedBuilds() {
+        return cachedBuilds.get();
+    }
+
+    @Override
+    public HistogramSnapshot getBuildTime() {
+        return buildTime.snapshot();
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getStageTimes() {
+        SortedMap<String, HistogramSnapshot> snapshots = new TreeMap<String, HistogramSnapshot>();
+        synchronized (stageTimes) {
+            for (Map.Entry<String, Histogram> entry : stageTimes.entrySet()) {
+                snapshots.put(entry.getKey(), entry.getValue().snapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    @Override
+    public HistogramSnapshot getStagingTime() {
+        return stagingTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getProcessTime() {
+        return processTime.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return counters.getCounters();
+    }
+
+    @Override
+    public long getChildProcessCpuTime() {
+        if (!PROC_STAT.isFile()) {
+            return -1;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(PROC_STAT));
+            try {
+                String stat = reader.readLine();
+                // the command name may contain spaces, the fields are counted from its closing parenthesis
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                // cutime and cstime, the 16th and 17th field of the whole line
+                long ticks = Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+                return ticks * 1000 / CLOCK_TICKS;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Couldn't read \"" + PROC_STAT.getPath() + "\".", e);
+            return -1;
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "Couldn't parse \"" + PROC_STAT.getPath() + "\".", e);
+            return -1;
+        }
+    }
+
+    @Override
+    public void reset() {
+        builds.set(0);
+        failedBuilds.set(0);
+        cachedBuilds.set(0);
+        buildTime.reset();
+        processTime.reset();
+        stagingTime.reset();
+        synchronized (stageTimes) {
+            stageTimes.clear();
+        }
+        counters.reset();
+    }
+}
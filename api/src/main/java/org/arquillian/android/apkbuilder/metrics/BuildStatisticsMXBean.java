@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BuildStatistics}. Durations are in milliseconds.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public interface BuildStatisticsMXBean {
+
+    long getBuilds();
+
+    long getFailedBuilds();
+
+    long getCachedBuilds();
+
+    HistogramSnapshot getBuildTime();
+
+    /**
+     * @return durations of the executed stages keyed by the stage name, stages skipped as up to date aren't included
+     */
+    Map<String, HistogramSnapshot> getStageTimes();
+
+    HistogramSnapshot getProcessTime();
+
+    /**
+     * @return durations of writing the content into working directories
+     */
+    HistogramSnapshot getStagingTime();
+
+    /**
+     * @return counters of all finished builds summed up, see {@link BuildMetrics}
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return CPU time consumed by all finished child processes of this JVM, or -1 if the platform doesn't provide it
+     */
+    long getChildProcessCpuTime();
+
+    void reset();
+}
@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.Command;
+
+/**
+ * Records builds as a timeline in the Chrome trace event format, which can be opened in Perfetto or
+ * {@code chrome://tracing}. Every build is shown as a separate process, its stages and child processes as slices on the
+ * threads which ran them. A single listener can be shared by concurrent builds to see how they compete for the machine.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ChromeTraceListener implements BuildListener {
+    private static final Logger logger = Logger.getLogger(ChromeTraceListener.class.getName());
+
+    private final File directory;
+    private final File file;
+
+    // builds of the same name may run at the same time, so they are told apart by their execution
+    private final Map<Long, BuildTrace> traces = new HashMap<Long, BuildTrace>();
+    private final List<BuildTrace> finishedTraces = new ArrayList<BuildTrace>();
+    private int nextPid = 1;
+
+    private ChromeTraceListener(File directory, File file) {
+        this.directory = directory;
+        this.file = file;
+    }
+
+    /**
+     * @return listener writing a trace file of every build into the directory as soon as the build finishes
+     */
+    public static ChromeTraceListener perBuild(File directory) {
+        return new ChromeTraceListener(directory, null);
+    }
+
+    /**
+     * @return listener collecting all builds into a single file, which is written by {@link #close()}
+     */
+    public static ChromeTraceListener batch(File file) {
+        return new ChromeTraceListener(null, file);
+    }
+
+    @Override
+    public void buildStarted(long execution, String build) {
+        trace(execution, build).begin("build", build, now());
+    }
+
+    @Override
+    public void stagingFinished(long execution, String build, long start, long duration, long threadId) {
+        trace(execution, build).complete("staging", "staging", start / 1000L, duration * 1000L, threadId);
+    }
+
+    @Override
+    public void stageStarted(long execution, String build, String stage) {
+        trace(execution, build).begin("stage", stage, now());
+    }
+
+    @Override
+    public void stageFinished(long execution, String build, StageResult result) {
+        trace(execution, build).end(now(), "\"executed\":" + result.isExecuted() + ",\"success\":" + result.isSuccess());
+    }
+
+    @Override
+    public void processStarted(long execution, String build, String stage, Command command) {
+        trace(execution, build).begin("process", new File(command.getAsList().get(0)).getName(), now());
+    }
+
+    @Override
+    public void processFinished(long execution, String build, String stage, ProcessResult result) {
+        trace(execution, build).end(now(), "\"exitCode\":" + result.getExitCode() + ",\"timedOut\":" + result.isTimedOut());
+    }
+
+    @Override
+    public void buildFinished(long execution, BuildResult result) {
+        BuildTrace trace;
+        synchronized (traces) {
+            trace = traces.remove(execution);
+        }
+        if (trace == null) {
+            return;
+        }
+        trace.end(now(), "\"success\":" + result.isSuccess() + ",\"cached\":" + result.isCached());
+
+        if (directory == null) {
+            synchronized (finishedTraces) {
+                finishedTraces.add(trace);
+            }
+            return;
+        }
+
+        try {
+            directory.mkdirs();
+            List<BuildTrace> single = new ArrayList<BuildTrace>();
+            single.add(trace);
+            write(new File(directory, result.getName() + "-" + trace.pid + ".trace.json"), single);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't write trace of build \"" + result.getName() + "\".", e);
+        }
+    }
+
+    /**
+     * Writes the builds collected by a batch listener, including those which didn't finish yet. Does nothing for a
+     * listener writing every build separately.
+     */
+    public void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+
+        List<BuildTrace> all = new ArrayList<BuildTrace>();
+        synchronized (finishedTraces) {
+            all.addAll(finishedTraces);
+        }
+        synchronized (traces) {
+            all.addAll(traces.values());
+        }
+        write(file, all);
+    }
+
+    private BuildTrace trace(long execution, String build) {
+        synchronized (traces) {
+            BuildTrace trace = traces.get(execution);
+            if (trace == null) {
+                trace = new BuildTrace(nextPid++, build);
+                traces.put(execution, trace);
+            }
+            return trace;
+        }
+    }
+
+    /**
+     * @return microseconds of {@link System#nanoTime()}, the clock of all events, including the staging
+     */
+    private long now() {
+        return System.nanoTime() / 1000L;
+    }
+
+    /**
+     * Writes the events with timestamps relative to the earliest one, so the timeline starts at zero.
+     */
+    private void write(File destination, List<BuildTrace> builds) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        for (BuildTrace trace : builds) {
+            events.addAll(trace.getEvents());
+        }
+        long origin = Long.MAX_VALUE;
+        for (Event event : events) {
+            if (event.hasTimestamp()) {
+                origin = Math.min(origin, event.timestamp);
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destination), "UTF-8"));
+        try {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (Event event : events) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                writer.write(event.toJson(origin));
+                first = false;
+            }
+            writer.write("\n]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Events of a single build. Begin and end events have to come from the same thread, which is how builds report them.
+     */
+    private static class BuildTrace {
+        private final int pid;
+        private final List<Event> events = new ArrayList<Event>();
+        private final Set<Long> namedThreads = new HashSet<Long>();
+
+        public BuildTrace(int pid, String build) {
+            this.pid = pid;
+            events.add(new Event("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"args\":{\"name\":"
+                + quote(build) + "}}"));
+        }
+
+        public synchronized void begin(String category, String name, long timestamp) {
+            long tid = currentThread();
+            events.add(new Event("{\"name\":" + quote(name) + ",\"cat\":\"" + category + "\",\"ph\":\"B\",\"ts\":", timestamp,
+                ",\"pid\":" + pid + ",\"tid\":" + tid + "}"));
+        }
+
+        public synchronized void end(long timestamp, String args) {
+            long tid = currentThread();
+            events.add(new Event("{\"ph\":\"E\",\"ts\":", timestamp, ",\"pid\":" + pid + ",\"tid\":" + tid + ",\"args\":{"
+                + args + "}}"));
+        }
+
+        public synchronized void complete(String category, String name, long timestamp, long duration, long tid) {
+            events.add(new Event("{\"name\":" + quote(name) + ",\"cat\":\"" + category + "\",\"ph\":\"X\",\"ts\":", timestamp,
+                ",\"dur\":" + duration + ",\"pid\":" + pid + ",\"tid\":" + tid + "}"));
+        }
+
+        public synchronized List<Event> getEvents() {
+            return new ArrayList<Event>(events);
+        }
+
+        private long currentThread() {
+            Thread thread = Thread.currentThread();
+            if (namedThreads.add(thread.getId())) {
+                events.add(new Event("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + thread.getId()
+                    + ",\"args\":{\"name\":" + quote(thread.getName()) + "}}"));
+            }
+            return thread.getId();
+        }
+    }
+
+    /**
+     * Single event in JSON, with the timestamp kept apart until the origin of the timeline is known.
+     */
+    private static class Event {
+        private final String head;
+        private final long timestamp;
+        private final String tail;
+
+        /**
+         * Metadata event without a timestamp.
+         */
+        public Event(String json) {
+            this(json, Long.MIN_VALUE, "");
+        }
+
+        public Event(String head, long timestamp, String tail) {
+            this.head = head;
+            this.timestamp = timestamp;
+            this.tail = tail;
+        }
+
+        public boolean hasTimestamp() {
+            return timestamp != Long.MIN_VALUE;
+        }
+
+        public String toJson(long origin) {
+            return hasTimestamp() ? head + (timestamp - origin) + tail : head;
+        }
+    }
+}
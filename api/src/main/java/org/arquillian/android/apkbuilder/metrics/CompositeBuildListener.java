@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.Command;
+
+/**
+ * Forwards the events to several listeners. A failing listener is logged and doesn't prevent the others from being
+ * notified.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class CompositeBuildListener implements BuildListener {
+    private static final Logger logger = Logger.getLogger(CompositeBuildListener.class.getName());
+
+    private final List<BuildListener> listeners;
+
+    public CompositeBuildListener(List<BuildListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void buildStarted(long execution, String build) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.buildStarted(execution, build);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void stagingFinished(long execution, String build, long start, long duration, long threadId) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.stagingFinished(execution, build, start, duration, threadId);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void stageStarted(long execution, String build, String stage) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.stageStarted(execution, build, stage);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void stageFinished(long execution, String build, StageResult result) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.stageFinished(execution, build, result);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void processStarted(long execution, String build, String stage, Command command) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.processStarted(execution, build, stage, command);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void processFinished(long execution, String build, String stage, ProcessResult result) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.processFinished(execution, build, stage, result);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void buildFinished(long execution, BuildResult result) {
+        for (BuildListener listener : listeners) {
+            try {
+                listener.buildFinished(execution, result);
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    private void failed(BuildListener listener, RuntimeException e) {
+        logger.log(Level.WARNING, "Build listener " + listener + " failed.", e);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+/**
+ * Distribution of durations with a bounded memory footprint. Values are counted in logarithmic buckets, four per power of
+ * two, so percentiles are accurate to about 20 %, which is plenty to find the outliers.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class Histogram {
+
+    private static final int BUCKETS_PER_POWER_OF_TWO = 4;
+    // covers values up to 2^40, far more than any duration in milliseconds
+    private static final int BUCKET_COUNT = 40 * BUCKETS_PER_POWER_OF_TWO;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long max;
+
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[bucket(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public synchronized HistogramSnapshot snapshot() {
+        return new HistogramSnapshot(count, count == 0 ? 0 : sum / count, max, percentile(0.5), percentile(0.9),
+            percentile(0.99));
+    }
+
+    private long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // the upper bound of the bucket, but never more than what was really seen
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int bucket(long value) {
+        int bucket = (int) Math.floor(BUCKETS_PER_POWER_OF_TWO * Math.log(value + 1) / Math.log(2));
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(2, (double) (bucket + 1) / BUCKETS_PER_POWER_OF_TWO)) - 1;
+    }
+}
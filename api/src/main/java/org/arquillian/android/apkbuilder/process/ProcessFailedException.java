@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.process;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an external tool exits with a non-zero code or doesn't finish in time.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ProcessFailedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient ProcessResult result;
+
+    public ProcessFailedException(ProcessResult result) {
+        super(createMessage(result));
+        this.result = result;
+    }
+
+    public ProcessResult getResult() {
+        return result;
+    }
+
+    private static String createMessage(ProcessResult result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Command \"").append(result.getCommand()).append("\" ");
+        if (result.isTimedOut()) {
+            sb.append("timed out after ").append(result.getDuration()).append(" ms");
+        } else {
+            sb.append("failed with exit code ").append(result.getExitCode());
+        }
+        if (result.getOutput().length() > 0) {
+            sb.append(":\n").append(result.getOutput());
+        } else {
+            sb.append('.');
+        }
+        return sb.toString();
+    }
+}
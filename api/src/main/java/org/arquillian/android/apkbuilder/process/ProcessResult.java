@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.process;
+
+/**
+ * Outcome of a finished external tool.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ProcessResult {
+
+    private final String command;
+    private final int exitCode;
+    private final boolean timedOut;
+    private final String output;
+    private final long duration;
+
+    public ProcessResult(String command, int exitCode, boolean timedOut, String output, long duration) {
+        this.command = command;
+        this.exitCode = exitCode;
+        this.timedOut = timedOut;
+        this.output = output;
+        this.duration = duration;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return exit code of the process, meaningless if the process timed out
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public boolean isSuccess() {
+        return !timedOut && exitCode == 0;
+    }
+
+    /**
+     * @return merged standard and error output, only its end is kept if the tool printed too much
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return duration of the process in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+}
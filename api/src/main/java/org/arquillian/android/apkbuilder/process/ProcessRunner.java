@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.util.Command;
+
+/**
+ * Runs external tools of a single build. Output of the tools is drained by a background thread into a bounded buffer, so
+ * that a chatty tool can neither block on a full pipe nor fill the heap. Every tool has to finish within a timeout and a
+ * non-zero exit code fails the build.
+ * <p>
+ * The runner can be cancelled from any thread, which destroys all running processes and refuses to start new ones.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ProcessRunner {
+    private static final Logger logger = Logger.getLogger(ProcessRunner.class.getName());
+
+    public static final int DEFAULT_OUTPUT_LIMIT = 64 * 1024;
+
+    // how often a running process is checked for exit
+    private static final long POLL_INTERVAL = 10;
+    // how long the rest of the output is read after the process exits, a forked child may keep the pipe open
+    private static final long OUTPUT_GRACE_PERIOD = 1000;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final int outputLimit;
+    private final Set<Process> runningProcesses = new HashSet<Process>();
+    private volatile boolean cancelled = false;
+
+    public ProcessRunner() {
+        this(DEFAULT_OUTPUT_LIMIT);
+    }
+
+    /**
+     * @param outputLimit number of characters of the output kept for every process
+     */
+    public ProcessRunner(int outputLimit) {
+        if (outputLimit <= 0) {
+            throw new IllegalArgumentException("Output limit has to be positive!");
+        }
+        this.outputLimit = outputLimit;
+    }
+
+    /**
+     * Runs the command and waits for it to finish.
+     *
+     * @param timeout maximal duration of the process in milliseconds
+     * @throws ProcessFailedException if the process exits with a non-zero code or times out
+     * @throws InterruptedIOException if the runner was cancelled or the thread interrupted
+     */
+    public ProcessResult run(Command command, long timeout) throws IOException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout has to be positive!");
+        }
+        logger.info("Running command: \"" + command.toString() + "\".");
+
+        ProcessBuilder builder = new ProcessBuilder(command.getAsList());
+        builder.redirectErrorStream(true);
+
+        long start = System.currentTimeMillis();
+        Process process;
+        synchronized (runningProcesses) {
+            checkCancelled();
+            process = builder.start();
+            runningProcesses.add(process);
+        }
+
+        OutputDrainer drainer = new OutputDrainer(process.getInputStream(), outputLimit);
+        Thread drainerThread = new Thread(drainer, "apkbuilder-output-" + threadCounter.incrementAndGet());
+        drainerThread.setDaemon(true);
+        drainerThread.start();
+
+        boolean timedOut = false;
+        int exitCode = -1;
+        long deadline = start + timeout;
+        try {
+            while (true) {
+                Integer exitValue = exitValue(process);
+                if (exitValue != null) {
+                    exitCode = exitValue;
+                    drainerThread.join(OUTPUT_GRACE_PERIOD);
+                    break;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    timedOut = true;
+                    process.destroy();
+                    break;
+                }
+
+                // the output is usually closed when the process exits, so the drainer finishes together with it, but a
+                // forked child may inherit the pipe and keep it open after the process exits
+                if (drainerThread.isAlive()) {
+                    drainerThread.join(Math.min(remaining, POLL_INTERVAL));
+                } else {
+                    Thread.sleep(Math.min(remaining, POLL_INTERVAL));
+                }
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for \"" + command.getFirst() + "\".");
+        } finally {
+            synchronized (runningProcesses) {
+                runningProcesses.remove(process);
+            }
+        }
+
+        // output of a destroyed process is incomplete
+        checkCancelled();
+
+        ProcessResult result = new ProcessResult(command.toString(), exitCode, timedOut, drainer.getOutput(),
+            System.currentTimeMillis() - start);
+        if (!result.isSuccess()) {
+            throw new ProcessFailedException(result);
+        }
+        if (result.getOutput().length() > 0) {
+            logger.fine("Output of \"" + command.getFirst() + "\":\n" + result.getOutput());
+        }
+        return result;
+    }
+
+    /**
+     * @return exit code of the process, or null if it's still running
+     */
+    private static Integer exitValue(Process process) {
+        try {
+            return process.exitValue();
+        } catch (IllegalThreadStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Destroys running processes, no process is started afterwards.
+     */
+    public void cancel() {
+        synchronized (runningProcesses) {
+            cancelled = true;
+            for (Process process : runningProcesses) {
+                process.destroy();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Execution of tools was cancelled.");
+        }
+    }
+
+    /**
+     * Keeps the last {@code limit} characters of the stream in a ring buffer.
+     */
+    private static class OutputDrainer implements Runnable {
+        private final InputStream inputStream;
+        private final char[] ring;
+        private long total = 0;
+
+        public OutputDrainer(InputStream inputStream, int limit) {
+            this.inputStream = inputStream;
+            this.ring = new char[limit];
+        }
+
+        @Override
+        public void run() {
+            char[] buffer = new char[4096];
+            try {
+                Reader reader = new InputStreamReader(inputStream);
+                try {
+                    int read;
+                    while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+                        append(buffer, read);
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                // the stream is closed when the process is destroyed
+                logger.fine("Reading of process output ended: " + e.getMessage());
+            }
+        }
+
+        private synchronized void append(char[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                ring[(int) (total++ % ring.length)] = buffer[i];
+            }
+        }
+
+        public synchronized String getOutput() {
+            if (total <= ring.length) {
+                return new String(ring, 0, (int) total);
+            }
+
+            int start = (int) (total % ring.length);
+            StringBuilder sb = new StringBuilder(ring.length + 64);
+            sb.append("[... ").append(total - ring.length).append(" characters truncated]\n");
+            sb.append(ring, start, ring.length - start);
+            sb.append(ring, 0, start);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sdk;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.util.SDKUtils;
+
+/**
+ * Immutable snapshot of the tools resolved for an Android SDK and API level. Tools, which weren't found, are reported only
+ * when they are requested.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public final class Toolchain {
+
+    private final String androidHome;
+    private final int apiLevel;
+    private final File platformDirectory;
+    private final String aaptPath;
+    private final String aidlPath;
+    private final String dxPath;
+    private final String llvmPath;
+    private final String zipalignPath;
+    private final String androidJarPath;
+
+    // directories whose modification changes the resolution
+    private final List<File> watchedDirectories;
+    private final List<Long> timestamps;
+
+    private Toolchain(String androidHome, int apiLevel, File platformDirectory, String aaptPath, String aidlPath,
+        String dxPath, String llvmPath, String zipalignPath, String androidJarPath, List<File> watchedDirectories,
+        List<Long> timestamps) {
+        this.androidHome = androidHome;
+        this.apiLevel = apiLevel;
+        this.platformDirectory = platformDirectory;
+        this.aaptPath = aaptPath;
+        this.aidlPath = aidlPath;
+        this.dxPath = dxPath;
+        this.llvmPath = llvmPath;
+        this.zipalignPath = zipalignPath;
+        this.androidJarPath = androidJarPath;
+        this.watchedDirectories = watchedDirectories;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Probes the SDK for all tools.
+     */
+    static Toolchain resolve(String androidHome, int apiLevel) {
+        File sdkDirectory = new File(androidHome);
+        if (!new File(sdkDirectory, "platforms").isDirectory()) {
+            throw new IllegalStateException("Directory \"" + androidHome
+                + "\" doesn't contain Android SDK platforms! Please ensure ANDROID_HOME points to your Android SDK.");
+        }
+
+        List<File> watchedDirectories = new ArrayList<File>(Arrays.asList(sdkDirectory, new File(sdkDirectory, "platforms"),
+            new File(sdkDirectory, "build-tools"), new File(sdkDirectory, "platform-tools"), new File(sdkDirectory, "tools")));
+        // timestamps are taken before probing, so that a concurrent change invalidates the snapshot
+        List<Long> timestamps = timestamps(watchedDirectories);
+
+        SDKUtils sdkUtils = new SDKUtils(androidHome, apiLevel);
+        File platformDirectory = sdkUtils.getPlatformDirectory();
+        watchedDirectories.add(platformDirectory);
+        timestamps.add(platformDirectory.lastModified());
+
+        String aaptPath = sdkUtils.findBuildTool("aapt");
+        String aidlPath = sdkUtils.findBuildTool("aidl");
+        String dxPath = sdkUtils.findBuildTool("dx");
+        String llvmPath = sdkUtils.findBuildTool("llvm-rs-cc");
+        String zipalignPath = sdkUtils.findTool("zipalign");
+        String androidJarPath = new File(platformDirectory, "android.jar").getAbsolutePath();
+
+        return new Toolchain(androidHome, apiLevel, platformDirectory, aaptPath, aidlPath, dxPath, llvmPath, zipalignPath,
+            androidJarPath, Collections.unmodifiableList(watchedDirectories), Collections.unmodifiableList(timestamps));
+    }
+
+    /**
+     * @return false if any of the SDK directories was modified since the toolchain was resolved
+     */
+    boolean isUpToDate() {
+        return timestamps.equals(timestamps(watchedDirectories));
+    }
+
+    private static List<Long> timestamps(List<File> directories) {
+        List<Long> timestamps = new ArrayList<Long>(directories.size());
+        for (File directory : directories) {
+            timestamps.add(directory.lastModified());
+        }
+        return timestamps;
+    }
+
+    public String getAndroidHome() {
+        return androidHome;
+    }
+
+    public int getApiLevel() {
+        return apiLevel;
+    }
+
+    public File getPlatformDirectory() {
+        return platformDirectory;
+    }
+
+    public String getAaptPath() {
+        return require("aapt", aaptPath);
+    }
+
+    public String getAidlPath() {
+        return require("aidl", aidlPath);
+    }
+
+    public String getDxPath() {
+        return require("dx", dxPath);
+    }
+
+    public String getLlvmPath() {
+        return require("llvm-rs-cc", llvmPath);
+    }
+
+    public String getZipalignPath() {
+        return require("zipalign", zipalignPath);
+    }
+
+    public String getAndroidJarPath() {
+        return androidJarPath;
+    }
+
+    private String require(String tool, String path) {
+        if (path == null) {
+            throw new IllegalStateException("Couldn't find tool \"" + tool + "\" in Android SDK \"" + androidHome + "\"!");
+        }
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "Toolchain[" + androidHome + ", API " + apiLevel + ", " + platformDirectory.getName() + "]";
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sdk;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Resolves Android SDK toolchains once per JVM. Every configuration used to probe the SDK for each tool on its own, which
+ * adds up with hundreds of builds. Resolved toolchains are cached by the SDK location and the API level, and resolved
+ * again once any of the SDK directories is modified, e.g. when new build tools get installed.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ToolchainRegistry {
+    private static final Logger logger = Logger.getLogger(ToolchainRegistry.class.getName());
+
+    private static final ToolchainRegistry instance = new ToolchainRegistry();
+
+    private final ConcurrentMap<String, Toolchain> toolchains = new ConcurrentHashMap<String, Toolchain>();
+
+    ToolchainRegistry() {
+    }
+
+    public static ToolchainRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return toolchain of the SDK, resolved by this call only if it isn't cached or the SDK was modified
+     */
+    public Toolchain getToolchain(String androidHome, int apiLevel) {
+        if (androidHome == null) {
+            throw new IllegalStateException(
+                "Android home isn't set! Please set ANDROID_HOME environment variable or the Android home of the configuration.");
+        }
+
+        String key = new File(androidHome).getAbsolutePath() + ":" + apiLevel;
+        Toolchain toolchain = toolchains.get(key);
+        if (toolchain != null && toolchain.isUpToDate()) {
+            return toolchain;
+        }
+
+        // concurrent resolutions of the same SDK yield equal snapshots, so the last one can simply win
+        toolchain = Toolchain.resolve(androidHome, apiLevel);
+        toolchains.put(key, toolchain);
+        logger.fine("Resolved " + toolchain + ".");
+        return toolchain;
+    }
+
+    /**
+     * Forgets all resolved toolchains.
+     */
+    public void invalidate() {
+        toolchains.clear();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+/**
+ * Signs APKs in the current JVM, replacing the forked jarsigner. The v1 signer it creates is fed by
+ * {@link org.arquillian.android.apkbuilder.zip.ApkWriter} while the APK is written.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ApkSigner {
+
+    private final SigningKey signingKey;
+    private final String digestAlgorithm;
+    private final String signatureAlgorithm;
+    private final boolean v2Enabled;
+
+    /**
+     * @param signingKey key to sign with
+     * @param digestAlgorithm algorithm of the v1 entry digests
+     * @param signatureAlgorithm algorithm of the v1 signature
+     * @param v2Enabled whether the APK will be also signed by {@link V2SchemeSigner}
+     */
+    public ApkSigner(SigningKey signingKey, String digestAlgorithm, String signatureAlgorithm, boolean v2Enabled) {
+        this.signingKey = signingKey;
+        this.digestAlgorithm = digestAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.v2Enabled = v2Enabled;
+    }
+
+    public V1SchemeSigner newV1Signer() {
+        return new V1SchemeSigner(signingKey, digestAlgorithm, signatureAlgorithm, v2Enabled);
+    }
+}
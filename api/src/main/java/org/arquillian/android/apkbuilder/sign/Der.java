@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+
+/**
+ * Minimal DER encoder, just enough to produce PKCS #7 signature blocks of signed jars.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+final class Der {
+
+    private static final int INTEGER = 0x02;
+    private static final int OCTET_STRING = 0x04;
+    private static final int NULL = 0x05;
+    private static final int OBJECT_IDENTIFIER = 0x06;
+    private static final int SEQUENCE = 0x30;
+    private static final int SET = 0x31;
+    private static final int CONTEXT_SPECIFIC_CONSTRUCTED = 0xa0;
+
+    private Der() {
+    }
+
+    static byte[] sequence(byte[]... elements) {
+        return tagged(SEQUENCE, concat(elements));
+    }
+
+    static byte[] set(byte[]... elements) {
+        return tagged(SET, concat(elements));
+    }
+
+    /**
+     * Context specific constructed element [tag], used for both explicit and implicit tagging of constructed types.
+     */
+    static byte[] contextSpecific(int tag, byte[]... elements) {
+        return tagged(CONTEXT_SPECIFIC_CONSTRUCTED | tag, concat(elements));
+    }
+
+    static byte[] integer(BigInteger value) {
+        return tagged(INTEGER, value.toByteArray());
+    }
+
+    static byte[] integer(long value) {
+        return integer(BigInteger.valueOf(value));
+    }
+
+    static byte[] octetString(byte[] value) {
+        return tagged(OCTET_STRING, value);
+    }
+
+    static byte[] nullValue() {
+        return new byte[] { NULL, 0 };
+    }
+
+    static byte[] oid(String oid) {
+        String[] parts = oid.split("\\.");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+        for (int i = 2; i < parts.length; i++) {
+            long value = Long.parseLong(parts[i]);
+            int groups = 1;
+            while ((value >>> (7 * groups)) != 0) {
+                groups++;
+            }
+            for (int group = groups - 1; group >= 0; group--) {
+                int bits = (int) ((value >>> (7 * group)) & 0x7f);
+                content.write(group == 0 ? bits : bits | 0x80);
+            }
+        }
+        return tagged(OBJECT_IDENTIFIER, content.toByteArray());
+    }
+
+    private static byte[] tagged(int tag, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = 1;
+            while ((length >>> (8 * bytes)) != 0) {
+                bytes++;
+            }
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write((length >>> (8 * i)) & 0xff);
+            }
+        }
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... elements) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] element : elements) {
+            out.write(element, 0, element.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+
+/**
+ * Private key and certificate chain used to sign APKs. Loading a keystore is relatively expensive, so keys are cached for
+ * the lifetime of the JVM and reloaded only when the keystore file changes.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class SigningKey {
+    private static final Logger logger = Logger.getLogger(SigningKey.class.getName());
+
+    private static final ConcurrentMap<String, SigningKey> cache = new ConcurrentHashMap<String, SigningKey>();
+
+    private final PrivateKey privateKey;
+    private final List<X509Certificate> certificates;
+
+    public SigningKey(PrivateKey privateKey, List<X509Certificate> certificates) {
+        if (certificates.isEmpty()) {
+            throw new IllegalArgumentException("At least one certificate is required!");
+        }
+        this.privateKey = privateKey;
+        this.certificates = Collections.unmodifiableList(new ArrayList<X509Certificate>(certificates));
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * @return certificate of the signer
+     */
+    public X509Certificate getCertificate() {
+        return certificates.get(0);
+    }
+
+    public List<X509Certificate> getCertificates() {
+        return certificates;
+    }
+
+    /**
+     * @return "RSA", "DSA" or "EC"
+     */
+    public String getKeyAlgorithm() {
+        return privateKey.getAlgorithm();
+    }
+
+    /**
+     * Loads the key from the keystore, or returns the already loaded one if the keystore didn't change since.
+     */
+    public static SigningKey load(File keystore, String keystorePassword, String alias, String keyPassword) throws IOException {
+        String key = new Fingerprint()
+            .addFileStamp(keystore)
+            .add(keystorePassword)
+            .add(alias)
+            .add(keyPassword)
+            .toHex();
+
+        SigningKey signingKey = cache.get(key);
+        if (signingKey == null) {
+            signingKey = loadFromKeystore(keystore, keystorePassword, alias, keyPassword);
+            SigningKey previous = cache.putIfAbsent(key, signingKey);
+            if (previous != null) {
+                signingKey = previous;
+            }
+        }
+        return signingKey;
+    }
+
+    private static SigningKey loadFromKeystore(File keystoreFile, String keystorePassword, String alias, String keyPassword)
+        throws IOException {
+        KeyStore keystore = openKeystore(keystoreFile, keystorePassword);
+
+        try {
+            PrivateKey privateKey = (PrivateKey) keystore.getKey(alias, keyPassword.toCharArray());
+            if (privateKey == null) {
+                throw new IOException("Keystore \"" + keystoreFile.getPath() + "\" doesn't contain key \"" + alias + "\"!");
+            }
+
+            Certificate[] chain = keystore.getCertificateChain(alias);
+            if (chain == null || chain.length == 0) {
+                throw new IOException("Key \"" + alias + "\" in keystore \"" + keystoreFile.getPath()
+                    + "\" doesn't have any certificate!");
+            }
+
+            List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+            for (Certificate certificate : chain) {
+                certificates.add((X509Certificate) certificate);
+            }
+
+            logger.info("Loaded signing key \"" + alias + "\" from \"" + keystoreFile.getPath() + "\".");
+            return new SigningKey(privateKey, certificates);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Couldn't load key \"" + alias + "\" from keystore \"" + keystoreFile.getPath() + "\"!", e);
+        }
+    }
+
+    private static KeyStore openKeystore(File keystoreFile, String keystorePassword) throws IOException {
+        // Android debug keystores are JKS, newer JDKs default to PKCS12
+        Set<String> types = new LinkedHashSet<String>();
+        types.add(KeyStore.getDefaultType());
+        types.add("JKS");
+        types.add("PKCS12");
+
+        Exception lastException = null;
+        for (String type : types) {
+            InputStream inputStream = new FileInputStream(keystoreFile);
+            try {
+                KeyStore keystore = KeyStore.getInstance(type);
+                keystore.load(inputStream, keystorePassword.toCharArray());
+                return keystore;
+            } catch (GeneralSecurityException e) {
+                lastException = e;
+            } catch (IOException e) {
+                lastException = e;
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        throw new IOException("Couldn't open keystore \"" + keystoreFile.getPath() + "\"!", lastException);
+    }
+}
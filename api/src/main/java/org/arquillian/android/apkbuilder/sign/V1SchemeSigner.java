@@ -0,0 +1,340 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Signs APKs by the JAR signature scheme (v1). Entry digests are collected while the entries are being written, so the
+ * APK doesn't have to be read again. When all entries are known, {@link #sign()} produces the META-INF entries to be
+ * appended to the APK.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class V1SchemeSigner {
+
+    public static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final String SIGNATURE_NAME = "META-INF/CERT.SF";
+    private static final String BLOCK_NAME_PREFIX = "META-INF/CERT.";
+
+    private static final String CREATED_BY = "1.0 (Android)";
+    private static final int MAX_LINE_LENGTH = 72;
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final String OID_DATA = "1.2.840.113549.1.7.1";
+    private static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+
+    private final SigningKey signingKey;
+    private final String digestAlgorithm;
+    private final String signatureAlgorithm;
+    private final boolean signedWithV2;
+
+    private final SortedMap<String, byte[]> entryDigests = new TreeMap<String, byte[]>();
+
+    /**
+     * @param signingKey key to sign with
+     * @param digestAlgorithm algorithm of the entry digests, e.g. "SHA1" or "SHA-256"
+     * @param signatureAlgorithm algorithm of the signature, e.g. "SHA1withRSA"
+     * @param signedWithV2 if true, the signature file declares the APK is also signed by the v2 scheme, which prevents
+     *        stripping of the v2 signature
+     */
+    public V1SchemeSigner(SigningKey signingKey, String digestAlgorithm, String signatureAlgorithm, boolean signedWithV2) {
+        this.signingKey = signingKey;
+        this.digestAlgorithm = normalizeDigestAlgorithm(digestAlgorithm);
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signedWithV2 = signedWithV2;
+
+        // fail early on unsupported algorithms
+        newEntryDigest();
+        getSignatureDigestAlgorithm();
+    }
+
+    /**
+     * @return true if the entry is created by the signer and has to be left out when copying an already signed APK
+     */
+    public static boolean isSignatureEntry(String name) {
+        String upperCaseName = name.toUpperCase(Locale.ENGLISH);
+        if (!upperCaseName.startsWith("META-INF/") || upperCaseName.indexOf('/', "META-INF/".length()) != -1) {
+            return false;
+        }
+        return upperCaseName.equals(MANIFEST_NAME) || upperCaseName.endsWith(".SF") || upperCaseName.endsWith(".RSA")
+            || upperCaseName.endsWith(".DSA") || upperCaseName.endsWith(".EC");
+    }
+
+    /**
+     * @return new digest, to which the uncompressed content of an entry should be written
+     */
+    public MessageDigest newEntryDigest() {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm \"" + digestAlgorithm + "\"!", e);
+        }
+    }
+
+    /**
+     * Records the digest of an entry, computed by a digest obtained from {@link #newEntryDigest()}.
+     */
+    public synchronized void addEntryDigest(String name, byte[] digest) {
+        if (isSignatureEntry(name)) {
+            return;
+        }
+        entryDigests.put(name, digest);
+    }
+
+    /**
+     * @return META-INF entries to add to the APK, keyed by their names in the order they should be written
+     */
+    public synchronized SortedMap<String, byte[]> sign() throws IOException {
+        String digestAttribute = getDigestAttributeName();
+
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        writeAttribute(manifest, "Manifest-Version", "1.0");
+        writeAttribute(manifest, "Created-By", CREATED_BY);
+        writeLine(manifest, "");
+
+        ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+        ByteArrayOutputStream signatureSections = new ByteArrayOutputStream();
+
+        for (Map.Entry<String, byte[]> entry : entryDigests.entrySet()) {
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            writeAttribute(section, "Name", entry.getKey());
+            writeAttribute(section, digestAttribute, base64(entry.getValue()));
+            writeLine(section, "");
+
+            byte[] sectionBytes = section.toByteArray();
+            manifest.write(sectionBytes);
+
+            writeAttribute(signatureSections, "Name", entry.getKey());
+            writeAttribute(signatureSections, digestAttribute, base64(digest(sectionBytes)));
+            writeLine(signatureSections, "");
+        }
+
+        byte[] manifestBytes = manifest.toByteArray();
+
+        writeAttribute(signatureFile, "Signature-Version", "1.0");
+        writeAttribute(signatureFile, "Created-By", CREATED_BY);
+        writeAttribute(signatureFile, digestAttribute + "-Manifest", base64(digest(manifestBytes)));
+        if (signedWithV2) {
+            writeAttribute(signatureFile, "X-Android-APK-Signed", "2");
+        }
+        writeLine(signatureFile, "");
+        signatureFile.write(signatureSections.toByteArray());
+
+        byte[] signatureFileBytes = signatureFile.toByteArray();
+
+        SortedMap<String, byte[]> entries = new TreeMap<String, byte[]>();
+        entries.put(MANIFEST_NAME, manifestBytes);
+        entries.put(SIGNATURE_NAME, signatureFileBytes);
+        entries.put(BLOCK_NAME_PREFIX + getBlockExtension(), createSignatureBlock(signatureFileBytes));
+        return Collections.unmodifiableSortedMap(entries);
+    }
+
+    private byte[] createSignatureBlock(byte[] signatureFile) throws IOException {
+        X509Certificate certificate = signingKey.getCertificate();
+        String signatureDigestAlgorithm = getSignatureDigestAlgorithm();
+
+        try {
+            Signature signature = Signature.getInstance(signatureAlgorithm);
+            signature.initSign(signingKey.getPrivateKey());
+            signature.update(signatureFile);
+            byte[] signatureBytes = signature.sign();
+
+            byte[] digestAlgorithmIdentifier = Der.sequence(Der.oid(digestOid(signatureDigestAlgorithm)), Der.nullValue());
+
+            byte[][] encodedCertificates = new byte[signingKey.getCertificates().size()][];
+            for (int i = 0; i < encodedCertificates.length; i++) {
+                encodedCertificates[i] = signingKey.getCertificates().get(i).getEncoded();
+            }
+
+            byte[] signerInfo = Der.sequence(
+                Der.integer(1),
+                Der.sequence(certificate.getIssuerX500Principal().getEncoded(), Der.integer(certificate.getSerialNumber())),
+                digestAlgorithmIdentifier,
+                signatureAlgorithmIdentifier(signatureDigestAlgorithm),
+                Der.octetString(signatureBytes));
+
+            byte[] signedData = Der.sequence(
+                Der.integer(1),
+                Der.set(digestAlgorithmIdentifier),
+                Der.sequence(Der.oid(OID_DATA)),
+                Der.contextSpecific(0, encodedCertificates),
+                Der.set(signerInfo));
+
+            return Der.sequence(Der.oid(OID_SIGNED_DATA), Der.contextSpecific(0, signedData));
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Couldn't encode the signing certificate!", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Couldn't sign the APK by \"" + signatureAlgorithm + "\"!", e);
+        }
+    }
+
+    private byte[] signatureAlgorithmIdentifier(String signatureDigestAlgorithm) {
+        String keyAlgorithm = signingKey.getKeyAlgorithm();
+        if ("RSA".equals(keyAlgorithm)) {
+            return Der.sequence(Der.oid("1.2.840.113549.1.1.1"), Der.nullValue());
+        }
+        if ("EC".equals(keyAlgorithm)) {
+            if ("SHA1".equals(signatureDigestAlgorithm)) {
+                return Der.sequence(Der.oid("1.2.840.10045.4.1"));
+            }
+            if ("SHA-256".equals(signatureDigestAlgorithm)) {
+                return Der.sequence(Der.oid("1.2.840.10045.4.3.2"));
+            }
+            if ("SHA-512".equals(signatureDigestAlgorithm)) {
+                return Der.sequence(Der.oid("1.2.840.10045.4.3.4"));
+            }
+        }
+        if ("DSA".equals(keyAlgorithm)) {
+            if ("SHA1".equals(signatureDigestAlgorithm)) {
+                return Der.sequence(Der.oid("1.2.840.10040.4.3"));
+            }
+            if ("SHA-256".equals(signatureDigestAlgorithm)) {
+                return Der.sequence(Der.oid("2.16.840.1.101.3.4.3.2"));
+            }
+        }
+        throw new IllegalArgumentException("Unsupported combination of key algorithm \"" + keyAlgorithm
+            + "\" and signature algorithm \"" + signatureAlgorithm + "\"!");
+    }
+
+    private String getBlockExtension() {
+        String keyAlgorithm = signingKey.getKeyAlgorithm();
+        if ("RSA".equals(keyAlgorithm) || "DSA".equals(keyAlgorithm) || "EC".equals(keyAlgorithm)) {
+            return keyAlgorithm;
+        }
+        throw new IllegalArgumentException("Unsupported key algorithm \"" + keyAlgorithm + "\"!");
+    }
+
+    /**
+     * @return digest algorithm of the signature algorithm, e.g. "SHA1" for "SHA1withRSA"
+     */
+    private String getSignatureDigestAlgorithm() {
+        int index = signatureAlgorithm.toUpperCase(Locale.ENGLISH).indexOf("WITH");
+        if (index <= 0) {
+            throw new IllegalArgumentException("Unsupported signature algorithm \"" + signatureAlgorithm + "\"!");
+        }
+        String algorithm = normalizeDigestAlgorithm(signatureAlgorithm.substring(0, index));
+        digestOid(algorithm);
+        return algorithm;
+    }
+
+    private String getDigestAttributeName() {
+        return digestAlgorithm + "-Digest";
+    }
+
+    private static String digestOid(String digestAlgorithm) {
+        if ("MD5".equals(digestAlgorithm)) {
+            return "1.2.840.113549.2.5";
+        }
+        if ("SHA1".equals(digestAlgorithm)) {
+            return "1.3.14.3.2.26";
+        }
+        if ("SHA-256".equals(digestAlgorithm)) {
+            return "2.16.840.1.101.3.4.2.1";
+        }
+        if ("SHA-512".equals(digestAlgorithm)) {
+            return "2.16.840.1.101.3.4.2.3";
+        }
+        throw new IllegalArgumentException("Unsupported digest algorithm \"" + digestAlgorithm + "\"!");
+    }
+
+    /**
+     * Unifies different spellings of the same algorithm, e.g. "SHA-1", "SHA1" and "sha256".
+     */
+    private static String normalizeDigestAlgorithm(String algorithm) {
+        String upperCase = algorithm.toUpperCase(Locale.ENGLISH).replace("-", "");
+        if ("SHA".equals(upperCase) || "SHA1".equals(upperCase)) {
+            return "SHA1";
+        }
+        if (upperCase.startsWith("SHA")) {
+            return "SHA-" + upperCase.substring(3);
+        }
+        return upperCase;
+    }
+
+    private byte[] digest(byte[] bytes) {
+        return newEntryDigest().digest(bytes);
+    }
+
+    private static String base64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int group = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                group |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                group |= bytes[i + 2] & 0xff;
+            }
+            sb.append(BASE64[(group >> 18) & 0x3f]);
+            sb.append(BASE64[(group >> 12) & 0x3f]);
+            sb.append(remaining > 1 ? BASE64[(group >> 6) & 0x3f] : '=');
+            sb.append(remaining > 2 ? BASE64[group & 0x3f] : '=');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the attribute, wrapping it to lines of at most 72 bytes as required by the JAR specification.
+     */
+    private static void writeAttribute(ByteArrayOutputStream out, String name, String value) throws IOException {
+        byte[] line = toUtf8(name + ": " + value);
+        int offset = 0;
+        int chunk = MAX_LINE_LENGTH;
+        while (offset < line.length) {
+            if (offset > 0) {
+                out.write(' ');
+            }
+            int length = Math.min(chunk, line.length - offset);
+            out.write(line, offset, length);
+            out.write('\r');
+            out.write('\n');
+            offset += length;
+            // continuation lines start with a space
+            chunk = MAX_LINE_LENGTH - 1;
+        }
+    }
+
+    private static void writeLine(ByteArrayOutputStream out, String line) throws IOException {
+        out.write(toUtf8(line));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static byte[] toUtf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
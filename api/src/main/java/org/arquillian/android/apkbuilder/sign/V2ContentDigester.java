@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the content digests of the APK signature scheme v2. The signed content consists of sections (zip entries,
+ * central directory and end of central directory), every section is split into 1 MB chunks, chunks are digested separately
+ * and the final digest is computed over the chunk digests. The content can be fed incrementally while it is being
+ * written.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class V2ContentDigester {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final List<String> algorithms;
+    private final List<MessageDigest> chunkDigests = new ArrayList<MessageDigest>();
+    private final List<List<byte[]>> chunks = new ArrayList<List<byte[]>>();
+
+    private int chunkLength = 0;
+    private final byte[] chunkBuffer = new byte[CHUNK_SIZE];
+
+    /**
+     * @param algorithms digest algorithms, "SHA-256" or "SHA-512"
+     */
+    public V2ContentDigester(List<String> algorithms) {
+        this.algorithms = new ArrayList<String>(algorithms);
+        for (String algorithm : algorithms) {
+            chunkDigests.add(newDigest(algorithm));
+            chunks.add(new ArrayList<byte[]>());
+        }
+    }
+
+    public void update(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int toCopy = Math.min(length, CHUNK_SIZE - chunkLength);
+            System.arraycopy(bytes, offset, chunkBuffer, chunkLength, toCopy);
+            chunkLength += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+
+            if (chunkLength == CHUNK_SIZE) {
+                finishChunk();
+            }
+        }
+    }
+
+    public void update(byte[] bytes) {
+        update(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Ends the current section, the next bytes start a new chunk.
+     */
+    public void endSection() {
+        if (chunkLength > 0) {
+            finishChunk();
+        }
+    }
+
+    /**
+     * @return content digests keyed by their algorithms
+     */
+    public Map<String, byte[]> digest() {
+        endSection();
+
+        Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < algorithms.size(); i++) {
+            MessageDigest digest = newDigest(algorithms.get(i));
+            List<byte[]> chunkList = chunks.get(i);
+            digest.update((byte) 0x5a);
+            digest.update(intLittleEndian(chunkList.size()));
+            for (byte[] chunk : chunkList) {
+                digest.update(chunk);
+            }
+            digests.put(algorithms.get(i), digest.digest());
+        }
+        return digests;
+    }
+
+    private void finishChunk() {
+        byte[] length = intLittleEndian(chunkLength);
+        for (int i = 0; i < chunkDigests.size(); i++) {
+            MessageDigest digest = chunkDigests.get(i);
+            digest.update((byte) 0xa5);
+            digest.update(length);
+            digest.update(chunkBuffer, 0, chunkLength);
+            chunks.get(i).add(digest.digest());
+        }
+        chunkLength = 0;
+    }
+
+    private static byte[] intLittleEndian(int value) {
+        return new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) };
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm \"" + algorithm + "\"!", e);
+        }
+    }
+}
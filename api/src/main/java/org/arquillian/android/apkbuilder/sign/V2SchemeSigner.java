@@ -0,0 +1,276 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs APKs by the APK signature scheme v2, which protects the whole file instead of individual entries. The signature
+ * is stored in the APK Signing Block inserted right before the central directory, so the APK has to be aligned before it
+ * gets signed and mustn't be modified afterwards.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class V2SchemeSigner {
+
+    private static final int SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+    private static final byte[] SIGNING_BLOCK_MAGIC = {
+        'A', 'P', 'K', ' ', 'S', 'i', 'g', ' ', 'B', 'l', 'o', 'c', 'k', ' ', '4', '2' };
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int EOCD_CENTRAL_DIRECTORY_SIZE_OFFSET = 12;
+    private static final int EOCD_CENTRAL_DIRECTORY_OFFSET_OFFSET = 16;
+
+    private final SigningKey signingKey;
+    private final List<String> digestAlgorithms;
+
+    /**
+     * @param signingKey key to sign with
+     * @param digestAlgorithms content digest algorithms, "SHA-256" and/or "SHA-512", one signature is created for each
+     */
+    public V2SchemeSigner(SigningKey signingKey, List<String> digestAlgorithms) {
+        if (digestAlgorithms.isEmpty()) {
+            throw new IllegalArgumentException("At least one digest algorithm is required!");
+        }
+        this.signingKey = signingKey;
+        this.digestAlgorithms = new ArrayList<String>(digestAlgorithms);
+        for (String digestAlgorithm : digestAlgorithms) {
+            // fail early on unsupported algorithms
+            getSignatureAlgorithmId(digestAlgorithm);
+        }
+    }
+
+    public V2ContentDigester newContentDigester() {
+        return new V2ContentDigester(digestAlgorithms);
+    }
+
+    /**
+     * Creates the APK Signing Block for content digested by a digester obtained from {@link #newContentDigester()}.
+     */
+    public byte[] createSigningBlock(V2ContentDigester digester) throws IOException {
+        Map<String, byte[]> contentDigests = digester.digest();
+
+        try {
+            ByteArrayOutputStream digests = new ByteArrayOutputStream();
+            for (String digestAlgorithm : digestAlgorithms) {
+                ByteArrayOutputStream digest = new ByteArrayOutputStream();
+                writeInt(digest, getSignatureAlgorithmId(digestAlgorithm));
+                writeLengthPrefixed(digest, contentDigests.get(digestAlgorithm));
+                writeLengthPrefixed(digests, digest.toByteArray());
+            }
+
+            ByteArrayOutputStream certificates = new ByteArrayOutputStream();
+            for (X509Certificate certificate : signingKey.getCertificates()) {
+                writeLengthPrefixed(certificates, certificate.getEncoded());
+            }
+
+            ByteArrayOutputStream signedData = new ByteArrayOutputStream();
+            writeLengthPrefixed(signedData, digests.toByteArray());
+            writeLengthPrefixed(signedData, certificates.toByteArray());
+            // no additional attributes
+            writeLengthPrefixed(signedData, new byte[0]);
+            byte[] signedDataBytes = signedData.toByteArray();
+
+            ByteArrayOutputStream signatures = new ByteArrayOutputStream();
+            for (String digestAlgorithm : digestAlgorithms) {
+                Signature signature = Signature.getInstance(getSignatureAlgorithm(digestAlgorithm));
+                signature.initSign(signingKey.getPrivateKey());
+                signature.update(signedDataBytes);
+
+                ByteArrayOutputStream signatureItem = new ByteArrayOutputStream();
+                writeInt(signatureItem, getSignatureAlgorithmId(digestAlgorithm));
+                writeLengthPrefixed(signatureItem, signature.sign());
+                writeLengthPrefixed(signatures, signatureItem.toByteArray());
+            }
+
+            ByteArrayOutputStream signer = new ByteArrayOutputStream();
+            writeLengthPrefixed(signer, signedDataBytes);
+            writeLengthPrefixed(signer, signatures.toByteArray());
+            writeLengthPrefixed(signer, signingKey.getCertificate().getPublicKey().getEncoded());
+
+            ByteArrayOutputStream signers = new ByteArrayOutputStream();
+            writeLengthPrefixed(signers, signer.toByteArray());
+
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            writeLengthPrefixed(value, signers.toByteArray());
+
+            return createSigningBlock(value.toByteArray());
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Couldn't encode the signing certificate!", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Couldn't create the APK signature scheme v2 signature!", e);
+        }
+    }
+
+    private byte[] createSigningBlock(byte[] value) {
+        // size excludes the leading size field itself
+        long pairSize = 4 + value.length;
+        long blockSize = 8 + pairSize + 8 + SIGNING_BLOCK_MAGIC.length;
+
+        ByteBuffer block = ByteBuffer.allocate((int) (8 + blockSize)).order(ByteOrder.LITTLE_ENDIAN);
+        block.putLong(blockSize);
+        block.putLong(pairSize);
+        block.putInt(SIGNATURE_SCHEME_V2_BLOCK_ID);
+        block.put(value);
+        block.putLong(blockSize);
+        block.put(SIGNING_BLOCK_MAGIC);
+        return block.array();
+    }
+
+    /**
+     * Signs an already written and aligned APK.
+     *
+     * @param input APK to sign, it mustn't contain APK Signing Block yet
+     * @param output signed APK
+     */
+    public void sign(File input, File output) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(input, "r");
+        try {
+            long endOfCentralDirectoryOffset = findEndOfCentralDirectory(file);
+            byte[] endOfCentralDirectory = new byte[(int) (file.length() - endOfCentralDirectoryOffset)];
+            file.seek(endOfCentralDirectoryOffset);
+            file.readFully(endOfCentralDirectory);
+
+            ByteBuffer eocd = ByteBuffer.wrap(endOfCentralDirectory).order(ByteOrder.LITTLE_ENDIAN);
+            long centralDirectorySize = eocd.getInt(EOCD_CENTRAL_DIRECTORY_SIZE_OFFSET) & 0xffffffffL;
+            long centralDirectoryOffset = eocd.getInt(EOCD_CENTRAL_DIRECTORY_OFFSET_OFFSET) & 0xffffffffL;
+
+            V2ContentDigester digester = newContentDigester();
+            digest(file, 0, centralDirectoryOffset, digester);
+            digest(file, centralDirectoryOffset, centralDirectorySize, digester);
+            digester.update(endOfCentralDirectory);
+            byte[] signingBlock = createSigningBlock(digester);
+
+            // central directory moves behind the signing block
+            eocd.putInt(EOCD_CENTRAL_DIRECTORY_OFFSET_OFFSET, (int) (centralDirectoryOffset + signingBlock.length));
+
+            FileOutputStream outputStream = new FileOutputStream(output);
+            try {
+                FileChannel source = new FileInputStream(input).getChannel();
+                try {
+                    FileChannel target = outputStream.getChannel();
+                    transfer(source, 0, centralDirectoryOffset, target);
+                    outputStream.write(signingBlock);
+                    transfer(source, centralDirectoryOffset, centralDirectorySize, target);
+                    outputStream.write(endOfCentralDirectory);
+                } finally {
+                    source.close();
+                }
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void digest(RandomAccessFile file, long offset, long length, V2ContentDigester digester) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        file.seek(offset);
+        while (length > 0) {
+            int read = file.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1) {
+                throw new IOException("Unexpected end of file!");
+            }
+            digester.update(buffer, 0, read);
+            length -= read;
+        }
+        digester.endSection();
+    }
+
+    private static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, target);
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static long findEndOfCentralDirectory(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < EOCD_MIN_SIZE) {
+            throw new IOException("File is too short to be a zip archive!");
+        }
+
+        // the record is followed by a comment of at most 65535 bytes
+        long minimalOffset = Math.max(0, length - EOCD_MIN_SIZE - 0xffff);
+        for (long offset = length - EOCD_MIN_SIZE; offset >= minimalOffset; offset--) {
+            file.seek(offset);
+            if (Integer.reverseBytes(file.readInt()) == EOCD_SIGNATURE) {
+                file.seek(offset + EOCD_MIN_SIZE - 2);
+                int commentLength = Short.reverseBytes(file.readShort()) & 0xffff;
+                if (offset + EOCD_MIN_SIZE + commentLength == length) {
+                    return offset;
+                }
+            }
+        }
+        throw new IOException("End of central directory record not found!");
+    }
+
+    private int getSignatureAlgorithmId(String digestAlgorithm) {
+        String keyAlgorithm = signingKey.getKeyAlgorithm();
+        boolean sha256 = "SHA-256".equals(digestAlgorithm);
+        boolean sha512 = "SHA-512".equals(digestAlgorithm);
+
+        if ("RSA".equals(keyAlgorithm) && (sha256 || sha512)) {
+            return sha256 ? 0x0103 : 0x0104;
+        }
+        if ("EC".equals(keyAlgorithm) && (sha256 || sha512)) {
+            return sha256 ? 0x0201 : 0x0202;
+        }
+        if ("DSA".equals(keyAlgorithm) && sha256) {
+            return 0x0301;
+        }
+        throw new IllegalArgumentException("Unsupported combination of key algorithm \"" + keyAlgorithm
+            + "\" and digest algorithm \"" + digestAlgorithm + "\" for APK signature scheme v2!");
+    }
+
+    private String getSignatureAlgorithm(String digestAlgorithm) {
+        String keyAlgorithm = signingKey.getKeyAlgorithm();
+        String digest = digestAlgorithm.replace("-", "");
+        return digest + "with" + ("EC".equals(keyAlgorithm) ? "ECDSA" : keyAlgorithm);
+    }
+
+    private static void writeLengthPrefixed(ByteArrayOutputStream out, byte[] bytes) throws IOException {
+        writeInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
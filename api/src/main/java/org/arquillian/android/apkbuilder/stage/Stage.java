@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+
+/**
+ * One step of the build pipeline. Stage declares what it reads and what it produces, so that it can be skipped when
+ * nothing it depends on has changed since its last execution.
+ *
+ * <ul>
+ * <li>inputs - files or directories, whose content is fingerprinted</li>
+ * <li>tools - executables and platform files, which are only fingerprinted by path, size and timestamp</li>
+ * <li>parameters - any other value influencing the outputs</li>
+ * <li>outputs - files or directories produced by the stage</li>
+ * <li>dependencies - stages producing the inputs, see {@link StageScheduler}</li>
+ * </ul>
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public abstract class Stage {
+
+    private final String name;
+    private final List<File> inputs = new ArrayList<File>();
+    private final List<File> tools = new ArrayList<File>();
+    private final List<String> parameters = new ArrayList<String>();
+    private final List<File> outputs = new ArrayList<File>();
+    private final List<Stage> dependencies = new ArrayList<Stage>();
+    private final StringBuilder output = new StringBuilder();
+
+    protected Stage(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Stage input(File... files) {
+        Collections.addAll(inputs, files);
+        return this;
+    }
+
+    public Stage tool(String... paths) {
+        for (String path : paths) {
+            tools.add(new File(path));
+        }
+        return this;
+    }
+
+    public Stage parameter(Object... values) {
+        for (Object value : values) {
+            parameters.add(String.valueOf(value));
+        }
+        return this;
+    }
+
+    public Stage output(File... files) {
+        Collections.addAll(outputs, files);
+        return this;
+    }
+
+    /**
+     * Declares stages, which have to finish before this stage can start.
+     */
+    public Stage dependsOn(Stage... stages) {
+        Collections.addAll(dependencies, stages);
+        return this;
+    }
+
+    public List<Stage> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    public List<File> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    public List<File> getOutputs() {
+        return Collections.unmodifiableList(outputs);
+    }
+
+    /**
+     * Adds everything the stage depends on to the fingerprint. Stages reading something else than files have to override
+     * this method and call the super implementation.
+     */
+    public void fingerprintInputs(Fingerprint fingerprint) throws IOException {
+        fingerprint.add(name);
+        for (File input : inputs) {
+            fingerprint.add(input.getPath());
+            if (input.isDirectory()) {
+                fingerprint.addTree(input);
+            } else {
+                fingerprint.addFile(input);
+            }
+        }
+        for (File tool : tools) {
+            fingerprint.addFileStamp(tool);
+        }
+        for (String parameter : parameters) {
+            fingerprint.add(parameter);
+        }
+    }
+
+    /**
+     * Adds the state of the outputs to the fingerprint. Outputs are only checked for not being removed or modified since
+     * the stage produced them, so their stamps are sufficient.
+     */
+    public void fingerprintOutputs(Fingerprint fingerprint) {
+        for (File output : outputs) {
+            addStamps(fingerprint, output);
+        }
+    }
+
+    private void addStamps(Fingerprint fingerprint, File file) {
+        if (!file.exists()) {
+            fingerprint.add(file.getPath());
+            fingerprint.add(false);
+        } else if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File child : files) {
+                    addStamps(fingerprint, child);
+                }
+            }
+        } else {
+            fingerprint.addFileStamp(file);
+        }
+    }
+
+    /**
+     * Records output of a tool run by this stage, it becomes part of the {@link StageResult}.
+     */
+    public void appendOutput(String toolOutput) {
+        synchronized (output) {
+            output.append(toolOutput);
+        }
+    }
+
+    String takeOutput() {
+        synchronized (output) {
+            String result = output.toString();
+            output.setLength(0);
+            return result;
+        }
+    }
+
+    public abstract void execute() throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
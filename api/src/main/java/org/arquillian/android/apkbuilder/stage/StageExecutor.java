@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.stage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+
+/**
+ * Executes stages and records fingerprints of their inputs and outputs in the state directory. A stage is skipped if its
+ * inputs have the same fingerprint as during its last successful execution and its outputs weren't touched since then.
+ * A stage without outputs has nothing to keep up to date, so it's always executed.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class StageExecutor {
+    private static final Logger logger = Logger.getLogger(StageExecutor.class.getName());
+
+    private static final String INPUTS_PROPERTY = "inputs";
+    private static final String OUTPUTS_PROPERTY = "outputs";
+
+    private final File stateDirectory;
+    private final boolean incremental;
+    private final List<StageResult> results = new ArrayList<StageResult>();
+    private volatile Listener listener;
+
+    /**
+     * @param stateDirectory directory where the fingerprints are stored
+     * @param incremental if false, all stages are executed, but the fingerprints are still recorded
+     */
+    public StageExecutor(File stateDirectory, boolean incremental) {
+        this.stateDirectory = stateDirectory;
+        this.incremental = incremental;
+    }
+
+    /**
+     * @param listener notified about every stage on the thread executing it, or null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return true if the stage was executed, false if it was up to date
+     */
+    public boolean execute(Stage stage) throws IOException {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.stageStarted(stage);
+        }
+        long start = System.currentTimeMillis();
+        stage.takeOutput();
+
+        boolean success = false;
+        boolean executed = false;
+        try {
+            executed = executeIfNeeded(stage);
+            success = true;
+            return executed;
+        } finally {
+            // a failed stage is always reported as executed
+            StageResult result = new StageResult(stage.getName(), executed || !success, success,
+                System.currentTimeMillis() - start, stage.takeOutput());
+            synchronized (results) {
+                results.add(result);
+            }
+            if (listener != null) {
+                listener.stageFinished(stage, result);
+            }
+        }
+    }
+
+    /**
+     * @return results of the stages in the order they finished
+     */
+    public List<StageResult> getResults() {
+        synchronized (results) {
+            return new ArrayList<StageResult>(results);
+        }
+    }
+
+    private boolean executeIfNeeded(Stage stage) throws IOException {
+        File stateFile = new File(stateDirectory, stage.getName() + ".properties");
+
+        Fingerprint inputsFingerprint = new Fingerprint();
+        stage.fingerprintInputs(inputsFingerprint);
+        String inputs = inputsFingerprint.toHex();
+
+        if (incremental && isUpToDate(stage, stateFile, inputs)) {
+            logger.info("Stage \"" + stage.getName() + "\" is up to date.");
+            return false;
+        }
+
+        // forget the previous state, so that a failed execution is never considered up to date
+        stateFile.delete();
+
+        stage.execute();
+
+        Fingerprint outputsFingerprint = new Fingerprint();
+        stage.fingerprintOutputs(outputsFingerprint);
+
+        Properties state = new Properties();
+        state.setProperty(INPUTS_PROPERTY, inputs);
+        state.setProperty(OUTPUTS_PROPERTY, outputsFingerprint.toHex());
+        writeState(stateFile, state);
+
+        return true;
+    }
+
+    private boolean isUpToDate(Stage stage, File stateFile, String inputs) throws IOException {
+        if (!stateFile.isFile() || stage.getOutputs().isEmpty()) {
+            return false;
+        }
+
+        Properties state = readState(stateFile);
+        if (!inputs.equals(state.getProperty(INPUTS_PROPERTY))) {
+            return false;
+        }
+
+        for (File output : stage.getOutputs()) {
+            if (!output.exists()) {
+                return false;
+            }
+        }
+
+        Fingerprint outputsFingerprint = new Fingerprint();
+        stage.fingerprintOutputs(outputsFingerprint);
+        return outputsFingerprint.toHex().equals(state.getProperty(OUTPUTS_PROPERTY));
+    }
+
+    private Properties readState(File stateFile) throws IOException {
+        Properties state = new Properties();
+        InputStream inputStream = new FileInputStream(stateFile);
+        try {
+            state.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        return state;
+    }
+
+    private void writeState(File stateFile, Properties state) throws IOException {
+        // stages running in parallel may create the directory at the same time
+        if (!stateDirectory.isDirectory() && !stateDirectory.mkdirs() && !stateDirectory.isDirectory()) {
+            throw new IOException("Couldn't create stage state directory: \"" + stateDirectory.getPath() + "\" !");
+        }
+
+        OutputStream outputStream = new FileOutputStream(stateFile);
+        try {
+            state.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Receives the start and the result of every stage.
+     */
+    public interface Listener {
+
+        void stageStarted(Stage stage);
+
+        void stageFinished(Stage stage, StageResult result);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.stage;
+
+/**
+ * Outcome of a single stage of the build.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class StageResult {
+
+    private final String name;
+    private final boolean executed;
+    private final boolean success;
+    private final long duration;
+    private final String output;
+
+    public StageResult(String name, boolean executed, boolean success, long duration, String output) {
+        this.name = name;
+        this.executed = executed;
+        this.success = success;
+        this.duration = duration;
+        this.output = output;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return false if the stage was skipped as up to date
+     */
+    public boolean isExecuted() {
+        return executed;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return duration of the stage in milliseconds, including the up to date check
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return output of the tools run by the stage
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return name + (executed ? "" : " (up to date)") + (success ? "" : " FAILED") + ": " + duration + " ms";
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.stage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs stages in the order given by their dependencies. Stages, which don't depend on each other, run concurrently on up
+ * to {@code parallelism} threads.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class StageScheduler {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final StageExecutor executor;
+    private final int parallelism;
+
+    public StageScheduler(StageExecutor executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be at least 1!");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs all stages and waits for them to finish. The first failure cancels stages, which haven't finished yet.
+     *
+     * @throws StageFailedException if any of the stages fails
+     */
+    public void run(List<Stage> stages) throws IOException {
+        if (parallelism == 1) {
+            runSequentially(stages);
+        } else {
+            runConcurrently(stages);
+        }
+    }
+
+    private void runSequentially(List<Stage> stages) throws IOException {
+        Set<Stage> pending = new LinkedHashSet<Stage>(stages);
+        Set<Stage> finished = new HashSet<Stage>();
+
+        while (!pending.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted before stages " + pending + " were run.");
+            }
+
+            Stage stage = nextReadyStage(pending, finished);
+            if (stage == null) {
+                throw new IllegalStateException("Stages " + pending + " have unsatisfiable dependencies!");
+            }
+            pending.remove(stage);
+
+            execute(stage);
+            finished.add(stage);
+        }
+    }
+
+    private void runConcurrently(List<Stage> stages) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, stages.size()), new StageThreadFactory());
+        CompletionService<Stage> completionService = new ExecutorCompletionService<Stage>(pool);
+
+        Set<Stage> pending = new LinkedHashSet<Stage>(stages);
+        Set<Stage> finished = new HashSet<Stage>();
+        int running = 0;
+
+        try {
+            while (!pending.isEmpty() || running > 0) {
+                Stage stage;
+                while ((stage = nextReadyStage(pending, finished)) != null) {
+                    pending.remove(stage);
+                    completionService.submit(new StageCallable(stage));
+                    running++;
+                }
+
+                if (running == 0) {
+                    throw new IllegalStateException("Stages " + pending + " have unsatisfiable dependencies!");
+                }
+
+                Future<Stage> future = completionService.take();
+                running--;
+                finished.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for build stages.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Stage nextReadyStage(Set<Stage> pending, Set<Stage> finished) {
+        for (Iterator<Stage> iterator = pending.iterator(); iterator.hasNext();) {
+            Stage stage = iterator.next();
+            if (finished.containsAll(stage.getDependencies())) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private void execute(Stage stage) throws StageFailedException {
+        try {
+            executor.execute(stage);
+        } catch (IOException e) {
+            throw new StageFailedException(stage.getName(), e);
+        } catch (RuntimeException e) {
+            throw new StageFailedException(stage.getName(), e);
+        }
+    }
+
+    private class StageCallable implements Callable<Stage> {
+        private final Stage stage;
+
+        public StageCallable(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public Stage call() throws Exception {
+            execute(stage);
+            return stage;
+        }
+    }
+
+    private static class StageThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "apkbuilder-stage-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
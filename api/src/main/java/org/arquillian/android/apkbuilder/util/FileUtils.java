@@ -18,12 +18,33 @@
 package org.arquillian.android.apkbuilder.util;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.zip.ApkWriter;
+import org.arquillian.android.apkbuilder.zip.CompressionPolicy;
+import org.arquillian.android.apkbuilder.zip.ParallelEntryWriter;
+import org.arquillian.android.apkbuilder.zip.ZipReader;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
 
 /**
  * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
@@ -31,6 +52,8 @@ import java.util.zip.ZipOutputStream;
 public class FileUtils {
     private static final Logger logger = Logger.getLogger(FileUtils.class.getName());
     private static final String TEMP_DIRECTORY = System.getProperty("java.io.tmpdir");
+    // below this number of files, starting threads costs more than copying sequentially
+    private static final int PARALLEL_COPY_THRESHOLD = 64;
 
     public static String platformIndependentPath(String path) {
         return path.replace('/', File.separatorChar);
@@ -47,7 +70,7 @@ public class FileUtils {
     public static File prepareWorkingDirectory(File parent) {
         String randomDirectoryName = UUID.randomUUID().toString();
 
-        File workingDirectory = new File(TEMP_DIRECTORY, randomDirectoryName);
+        File workingDirectory = new File(parent, randomDirectoryName);
 
         if(workingDirectory.exists()) {
             if(!workingDirectory.delete()) {
@@ -63,6 +86,24 @@ public class FileUtils {
         return workingDirectory;
     }
 
+    /**
+     * Deletes the file, or the directory including its content. Nonexistent file is ignored.
+     */
+    public static void delete(File file) throws IOException {
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    delete(child);
+                }
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Couldn't delete \"" + file.getPath() + "\" !");
+        }
+    }
+
     public static void copy(File source, File destination) throws IOException {
         if(source.isDirectory()) {
             copyDirectory(source, destination);
@@ -72,6 +113,13 @@ public class FileUtils {
     }
 
     public static void copyDirectory(File source, File destination) throws IOException {
+        copyDirectory(source, destination, null);
+    }
+
+    /**
+     * @param metrics counters of the copied files and bytes, or null
+     */
+    public static void copyDirectory(File source, File destination, BuildMetrics metrics) throws IOException {
         if(!source.isDirectory()) {
             throw new IllegalArgumentException("Source \"" + source.getPath() + "\" must be a directory!");
         }
@@ -82,17 +130,66 @@ public class FileUtils {
             throw new IllegalStateException("Destination \"" + destination.getPath() + "\" exists!");
         }
 
-        destination.mkdirs();
-        final File[] files = source.listFiles();
+        final Path sourceRoot = source.toPath();
+        final Path destinationRoot = destination.toPath();
+        final List<Path> files = new ArrayList<Path>();
+        final long[] bytes = new long[1];
+
+        // directories are created during the walk, so that the files can be copied in any order afterwards
+        Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                Files.createDirectories(destinationRoot.resolve(sourceRoot.relativize(directory)));
+                return FileVisitResult.CONTINUE;
+            }
 
-        for(File file : files) {
-            if(file.isDirectory()) {
-                copyDirectory(file, new File(destination, file.getName()));
-            } else {
-                copyFile(file, new File(destination, file.getName()));
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                files.add(file);
+                bytes[0] += attributes.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        if (metrics != null) {
+            metrics.add(BuildMetrics.FILES_WRITTEN, files.size());
+            metrics.add(BuildMetrics.BYTES_READ, bytes[0]);
+            metrics.add(BuildMetrics.BYTES_WRITTEN, bytes[0]);
+        }
+
+        if (files.size() < PARALLEL_COPY_THRESHOLD) {
+            for (Path file : files) {
+                Files.copy(file, destinationRoot.resolve(sourceRoot.relativize(file)));
             }
+            return;
         }
 
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Path>> futures = new ArrayList<Future<Path>>();
+            for (final Path file : files) {
+                futures.add(executor.submit(new Callable<Path>() {
+                    @Override
+                    public Path call() throws IOException {
+                        return Files.copy(file, destinationRoot.resolve(sourceRoot.relativize(file)));
+                    }
+                }));
+            }
+            for (Future<Path> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copying of \"" + source.getPath() + "\" was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     public static void copyFile(File source, File destination) throws IOException {
@@ -103,10 +200,13 @@ public class FileUtils {
             fileInputStream = new FileInputStream(source);
             fileOutputStream = new FileOutputStream(destination);
 
-            byte[] buffer = new byte[1024];
-            int read;
-            while((read = fileInputStream.read(buffer, 0, buffer.length)) != -1) {
-                fileOutputStream.write(buffer, 0, read);
+            // lets the kernel copy the data without passing it through the heap
+            FileChannel sourceChannel = fileInputStream.getChannel();
+            FileChannel destinationChannel = fileOutputStream.getChannel();
+            long size = sourceChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += sourceChannel.transferTo(position, size - position, destinationChannel);
             }
         } catch(IOException e) {
             exception = e;
@@ -151,52 +251,65 @@ public class FileUtils {
     }
 
     public static void addFilesToExistingZip(File existingZipFile, File... files) throws IOException{
-        File tempZipFile = new File(existingZipFile.getParentFile(), UUID.randomUUID().toString());
-        existingZipFile.renameTo(tempZipFile);
-
-        ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(tempZipFile));
-        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(existingZipFile));
-
-        byte[] buffer = new byte[1024];
+        SortedMap<String, Asset> entries = new TreeMap<String, Asset>();
+        for(File file : files) {
+            entries.put(file.getName(), new FileAsset(file));
+        }
 
-        ZipEntry zipEntry = null;
-        while((zipEntry = zipInputStream.getNextEntry()) != null) {
-            String name = zipEntry.getName();
-            boolean notInFiles = true;
-            for(File file : files) {
-                if(file.getName().equals(name)) {
-                    notInFiles = false;
-                    break;
-                }
-            }
-            if(notInFiles) {
-                zipOutputStream.putNextEntry(new ZipEntry(name));
+        addEntriesToExistingZip(existingZipFile, entries);
+    }
 
-                int read;
-                while((read = zipInputStream.read(buffer, 0, buffer.length)) != -1) {
-                    zipOutputStream.write(buffer, 0, read);
-                }
+    /**
+     * Adds the entries to the zip file, replacing existing entries with the same name. Entries which are kept are copied
+     * including their compressed data, only the added entries are compressed, on as many threads as there are
+     * processors.
+     *
+     * @param existingZipFile zip file to modify
+     * @param entries contents of the entries keyed by their names
+     */
+    public static void addEntriesToExistingZip(File existingZipFile, Map<String, Asset> entries) throws IOException{
+        addEntriesToExistingZip(existingZipFile, entries, CompressionPolicy.DEFAULT,
+            Runtime.getRuntime().availableProcessors());
+    }
 
-                zipOutputStream.closeEntry();
-            }
+    /**
+     * Adds the entries to the zip file, replacing existing entries with the same name. Entries which are kept are copied
+     * including their compressed data, the added entries are compressed on several threads.
+     *
+     * @param existingZipFile zip file to modify
+     * @param entries contents of the entries keyed by their names
+     * @param policy decides which of the added entries are stored without compression
+     * @param threads number of threads compressing the added entries
+     */
+    public static void addEntriesToExistingZip(File existingZipFile, Map<String, Asset> entries, CompressionPolicy policy,
+        int threads) throws IOException {
+        File tempZipFile = new File(existingZipFile.getParentFile(), UUID.randomUUID().toString());
+        if(!existingZipFile.renameTo(tempZipFile)) {
+            throw new IOException("Couldn't move \"" + existingZipFile.getPath() + "\" aside!");
         }
 
-        zipInputStream.close();
+        ZipReader zipReader = new ZipReader(tempZipFile);
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(existingZipFile);
+            try {
+                ApkWriter writer = new ApkWriter(fileOutputStream, null, null, 1);
+
+                for(ZipReader.Entry zipEntry : zipReader.getEntries()) {
+                    if(!entries.containsKey(zipEntry.getName())) {
+                        writer.copyEntry(zipReader, zipEntry);
+                    }
+                }
 
-        for(File file : files) {
-            InputStream inputStream = new FileInputStream(file);
-            zipOutputStream.putNextEntry(new ZipEntry(file.getName()));
+                new ParallelEntryWriter(writer, policy, threads).write(new TreeMap<String, Asset>(entries));
 
-            int read;
-            while((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-                zipOutputStream.write(buffer, 0, read);
+                writer.finish();
+            } finally {
+                fileOutputStream.close();
             }
-
-            zipOutputStream.closeEntry();
-            inputStream.close();
+        } finally {
+            zipReader.close();
         }
 
-        zipOutputStream.close();
         tempZipFile.delete();
     }
 }
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Incrementally computes a content hash of build inputs. Every value is length-prefixed, so that two different sequences of
+ * values never produce the same fingerprint by accident.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class Fingerprint {
+    private static final String ALGORITHM = "SHA-256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Message digest \"" + ALGORITHM + "\" isn't available!", e);
+        }
+    }
+
+    public Fingerprint add(String value) {
+        if (value == null) {
+            return add(-1L);
+        }
+
+        try {
+            byte[] bytes = value.getBytes("UTF-8");
+            add((long) bytes.length);
+            digest.update(bytes);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    public Fingerprint add(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+        return this;
+    }
+
+    public Fingerprint add(boolean value) {
+        digest.update((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public Fingerprint add(byte[] bytes) {
+        add((long) bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+    /**
+     * Adds the raw bytes without length prefix. Use {@link #add(long)} to record the total length afterwards.
+     */
+    public Fingerprint update(byte[] bytes, int offset, int length) {
+        digest.update(bytes, offset, length);
+        return this;
+    }
+
+    /**
+     * Reads the whole stream into the fingerprint. The stream is not closed.
+     */
+    public Fingerprint add(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+        while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+            digest.update(buffer, 0, read);
+            total += read;
+        }
+        return add(total);
+    }
+
+    /**
+     * Adds the content of the file, or a marker if the file doesn't exist.
+     */
+    public Fingerprint addFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return add(false);
+        }
+
+        add(true);
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return add(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Adds the path, size and timestamp of the file. This is cheap and good enough for tools, which we only want to notice
+     * being replaced, not to read completely.
+     */
+    public Fingerprint addFileStamp(File file) {
+        add(file.getAbsolutePath());
+        add(file.length());
+        return add(file.lastModified());
+    }
+
+    /**
+     * Adds relative paths and contents of all files under {@code directory} in a stable order.
+     */
+    public Fingerprint addTree(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            return add(false);
+        }
+
+        add(true);
+        addTree(directory, "");
+        return add("");
+    }
+
+    private void addTree(File directory, String prefix) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                addTree(file, path + "/");
+            } else {
+                add(path);
+                addFile(file);
+            }
+        }
+    }
+
+    /**
+     * Finishes the computation. The fingerprint is reset afterwards.
+     *
+     * @return hexadecimal representation of the hash
+     */
+    public String toHex() {
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
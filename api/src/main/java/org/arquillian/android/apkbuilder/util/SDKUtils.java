@@ -45,16 +45,31 @@ public class SDKUtils {
     private static final String SOURCE_PROPERTIES_FILENAME = "source.properties";
 
     private final ApkBuilder.Configuration configuration;
+    private final String androidHome;
+    private final Integer apiLevel;
 
     private Set<Platform> availablePlatforms;
 
     public SDKUtils(final ApkBuilder.Configuration configuration) {
         this.configuration = configuration;
+        this.androidHome = null;
+        this.apiLevel = null;
+    }
 
-        availablePlatforms = findAvailablePlatforms();
+    /**
+     * Creates utils for a fixed SDK, which can't look up Java tools.
+     */
+    public SDKUtils(String androidHome, int apiLevel) {
+        this.configuration = null;
+        this.androidHome = androidHome;
+        this.apiLevel = apiLevel;
     }
 
     public String getPathForJavaTool(String tool) {
+        if (configuration == null) {
+            throw new IllegalStateException("Java tools can be only looked up through the configuration!");
+        }
+
         String[] possiblePaths = {
             configuration.getJavaHome() + platformIndependentPath("/bin/" + tool)
         };
@@ -71,6 +86,17 @@ public class SDKUtils {
     }
 
     public String getPathForTool(String tool) {
+        String path = findTool(tool);
+        if (path == null) {
+            throw new RuntimeException("Could not find tool \"" + tool + "\"!");
+        }
+        return path;
+    }
+
+    /**
+     * @return path to the tool, or null if it wasn't found
+     */
+    public String findTool(String tool) {
         String[] possiblePaths = {
             getSdkPath() + platformIndependentPath("/" + PLATFORMS_FOLDER_NAME + "/" + tool),
             getSdkPath() + platformIndependentPath("/" + PLATFORMS_FOLDER_NAME + "/" + tool + ".exe"),
@@ -94,11 +120,21 @@ public class SDKUtils {
             }
         }
 
-        throw new RuntimeException("Could not find tool \"" + tool + "\"!");
+        return null;
     }
 
     public String getBuildTool(String tool) {
+        String path = findBuildTool(tool);
+        if (path == null) {
+            throw new RuntimeException("Couldn't find tool: \"" + tool + "\"!");
+        }
+        return path;
+    }
 
+    /**
+     * @return path to the tool from the platform or the build tools, or null if it wasn't found
+     */
+    public String findBuildTool(String tool) {
         File possiblePlatformPath = new File(getPlatformDirectory(), platformIndependentPath("/tools/" + tool));
 
         if (possiblePlatformPath.exists() && !possiblePlatformPath.isDirectory()) {
@@ -108,6 +144,9 @@ public class SDKUtils {
         File possibleBuildPath = new File(getSdkPath(), BUILD_TOOLS_FOLDER_NAME);
 
         File[] dirs = possibleBuildPath.listFiles();
+        if (dirs == null) {
+            return null;
+        }
         Arrays.sort(dirs);
 
         for (File dir : dirs) {
@@ -117,7 +156,7 @@ public class SDKUtils {
             }
         }
 
-        throw new RuntimeException("Couldn't find tool: \"" + tool + "\"!");
+        return null;
     }
 
     public File getPlatformDirectory() {
@@ -137,11 +176,11 @@ public class SDKUtils {
     }
 
     public Platform getCurrentPlatform() {
-        return findPlatformByApiLevel(configuration.getApiLevel());
+        return findPlatformByApiLevel(configuration != null ? configuration.getApiLevel() : apiLevel);
     }
 
     private Platform findPlatformByApiLevel(Integer apiLevel) {
-        for (Platform p : availablePlatforms) {
+        for (Platform p : getAvailablePlatforms()) {
             if (p.apiLevel.equals(apiLevel)) {
                 return p;
             }
@@ -149,8 +188,16 @@ public class SDKUtils {
         return null;
     }
 
+    // platforms are looked up on first use, so that the Android home set on the configuration is respected
+    private synchronized Set<Platform> getAvailablePlatforms() {
+        if (availablePlatforms == null) {
+            availablePlatforms = findAvailablePlatforms();
+        }
+        return availablePlatforms;
+    }
+
     private String getSdkPath() {
-        return configuration.getAndroidHome();
+        return configuration != null ? configuration.getAndroidHome() : androidHome;
     }
 
     private Set<Platform> findAvailablePlatforms() {
@@ -0,0 +1,501 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.arquillian.android.apkbuilder.sign.V1SchemeSigner;
+import org.arquillian.android.apkbuilder.sign.V2ContentDigester;
+import org.arquillian.android.apkbuilder.sign.V2SchemeSigner;
+
+/**
+ * Writes the final APK sequentially in a single pass. STORED entries are aligned, so the output doesn't need zipalign,
+ * and the entries are digested for the v1 signature and the v2 content digest while they are being written. The v1
+ * signature entries, the APK Signing Block and the central directory are appended by {@link #finish()}.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ApkWriter {
+
+    public static final int DEFAULT_ALIGNMENT = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF_8 = 0x0800;
+
+    // 1981-01-01 00:00, a fixed timestamp keeps the output reproducible
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 9) | (1 << 5) | 1;
+
+    private final PositionOutputStream output;
+    private final V1SchemeSigner v1Signer;
+    private final V2SchemeSigner v2Signer;
+    private final V2ContentDigester v2Digester;
+    private final int alignment;
+
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<String>();
+    private final byte[] buffer = new byte[64 * 1024];
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private boolean writingSignature = false;
+    private boolean finished = false;
+
+    /**
+     * @param outputStream stream the APK is written to, it's not closed by the writer
+     * @param v1Signer signer of the v1 scheme, or null if the APK shouldn't be signed by it
+     * @param v2Signer signer of the v2 scheme, or null if the APK shouldn't be signed by it
+     * @param alignment alignment of the data of STORED entries
+     */
+    public ApkWriter(OutputStream outputStream, V1SchemeSigner v1Signer, V2SchemeSigner v2Signer, int alignment) {
+        if (alignment <= 0) {
+            throw new IllegalArgumentException("Alignment has to be positive!");
+        }
+        this.v1Signer = v1Signer;
+        this.v2Signer = v2Signer;
+        this.v2Digester = v2Signer != null ? v2Signer.newContentDigester() : null;
+        this.output = new PositionOutputStream(outputStream, v2Digester);
+        this.alignment = alignment;
+    }
+
+    /**
+     * @return whether an entry of the name was already written
+     */
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Writes a STORED entry. The data is aligned, so it can be mapped to memory directly from the installed APK.
+     *
+     * @param size uncompressed size of the content
+     * @param crc CRC-32 of the content
+     */
+    public void writeStored(String name, InputStream content, long size, long crc) throws IOException {
+        byte[] nameBytes = beginEntry(name);
+
+        long headerOffset = output.getPosition();
+        writeLocalHeader(nameBytes, ZipEntry.STORED, 0, crc, size, size, padding(headerOffset, nameBytes));
+
+        MessageDigest digest = v1Signer != null ? v1Signer.newEntryDigest() : null;
+        long written = 0;
+        int read;
+        while ((read = content.read(buffer, 0, buffer.length)) != -1) {
+            output.write(buffer, 0, read);
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+            written += read;
+        }
+        if (written != size) {
+            throw new IOException("Entry \"" + name + "\" has " + written + " bytes, but " + size + " were declared!");
+        }
+
+        endEntry(name, nameBytes, ZipEntry.STORED, 0, crc, size, size, headerOffset, digest);
+    }
+
+    /**
+     * Writes a STORED entry held in memory.
+     */
+    public void writeStored(String name, byte[] content) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        writeStored(name, new ByteArrayInputStream(content), content.length, crc.getValue());
+    }
+
+    /**
+     * Writes a DEFLATED entry. The content is compressed while it's written, sizes and CRC-32 follow the data in a data
+     * descriptor.
+     */
+    public void writeDeflated(String name, InputStream content) throws IOException {
+        writeDeflated(name, content, null);
+    }
+
+    /**
+     * Writes a DEFLATED entry compressed in chunks on several threads by the {@link ParallelDeflater}.
+     *
+     * @param parallelDeflater deflater of the chunks, or null to compress the content on the calling thread
+     */
+    void writeDeflated(String name, InputStream content, ParallelDeflater parallelDeflater) throws IOException {
+        byte[] nameBytes = beginEntry(name);
+
+        long headerOffset = output.getPosition();
+        writeLocalHeader(nameBytes, ZipEntry.DEFLATED, FLAG_DATA_DESCRIPTOR, 0, 0, 0, 0);
+
+        MessageDigest digest = v1Signer != null ? v1Signer.newEntryDigest() : null;
+        CRC32 crc = new CRC32();
+        long size = 0;
+        long dataOffset = output.getPosition();
+
+        if (parallelDeflater != null) {
+            size = parallelDeflater.deflate(content, output, crc, digest);
+        } else {
+            deflater.reset();
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(new NonClosingOutputStream(output),
+                deflater, buffer.length);
+            byte[] readBuffer = new byte[8192];
+            int read;
+            while ((read = content.read(readBuffer, 0, readBuffer.length)) != -1) {
+                deflaterOutputStream.write(readBuffer, 0, read);
+                crc.update(readBuffer, 0, read);
+                if (digest != null) {
+                    digest.update(readBuffer, 0, read);
+                }
+                size += read;
+            }
+            deflaterOutputStream.finish();
+        }
+        long compressedSize = output.getPosition() - dataOffset;
+
+        ByteArrayOutputStream dataDescriptor = new ByteArrayOutputStream(16);
+        writeInt(dataDescriptor, DATA_DESCRIPTOR_SIGNATURE);
+        writeInt(dataDescriptor, (int) crc.getValue());
+        writeInt(dataDescriptor, checkedInt(compressedSize));
+        writeInt(dataDescriptor, checkedInt(size));
+        dataDescriptor.writeTo(output);
+
+        endEntry(name, nameBytes, ZipEntry.DEFLATED, FLAG_DATA_DESCRIPTOR, crc.getValue(), compressedSize, size, headerOffset,
+            digest);
+    }
+
+    /**
+     * Reads the content and compresses it unless the entry is STORED. It doesn't touch the state of the writer, so entries
+     * can be prepared on other threads and written by {@link #writeCompressed(String, CompressedEntry)} afterwards.
+     *
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     */
+    CompressedEntry compress(InputStream content, int method) throws IOException {
+        MessageDigest digest = v1Signer != null ? v1Signer.newEntryDigest() : null;
+        CRC32 crc = new CRC32();
+        long size = 0;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Deflater entryDeflater = method == ZipEntry.DEFLATED ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        try {
+            OutputStream outputStream = entryDeflater != null ? new DeflaterOutputStream(data, entryDeflater, 8192) : data;
+            byte[] readBuffer = new byte[8192];
+            int read;
+            while ((read = content.read(readBuffer, 0, readBuffer.length)) != -1) {
+                outputStream.write(readBuffer, 0, read);
+                crc.update(readBuffer, 0, read);
+                if (digest != null) {
+                    digest.update(readBuffer, 0, read);
+                }
+                size += read;
+            }
+            if (entryDeflater != null) {
+                ((DeflaterOutputStream) outputStream).finish();
+            }
+        } finally {
+            if (entryDeflater != null) {
+                entryDeflater.end();
+            }
+        }
+
+        return new CompressedEntry(method, data.toByteArray(), size, crc.getValue(), digest);
+    }
+
+    /**
+     * Writes an entry prepared by {@link #compress(InputStream, int)}. Sizes and CRC-32 are known, so they are written in
+     * the local header and no data descriptor is needed.
+     */
+    void writeCompressed(String name, CompressedEntry entry) throws IOException {
+        byte[] nameBytes = beginEntry(name);
+
+        long headerOffset = output.getPosition();
+        int padding = entry.getMethod() == ZipEntry.STORED ? padding(headerOffset, nameBytes) : 0;
+        writeLocalHeader(nameBytes, entry.getMethod(), 0, entry.getCrc(), entry.getData().length, entry.getSize(), padding);
+        output.write(entry.getData());
+
+        endEntry(name, nameBytes, entry.getMethod(), 0, entry.getCrc(), entry.getData().length, entry.getSize(),
+            headerOffset, entry.getDigest());
+    }
+
+    /**
+     * Copies an entry of another archive without recompressing it. The compressed data is transferred by the operating
+     * system when the APK is written to a file and isn't signed by the v2 scheme, otherwise it passes through memory.
+     * Inflating is only needed for the v1 digest.
+     */
+    public void copyEntry(ZipReader reader, ZipReader.Entry entry) throws IOException {
+        byte[] nameBytes = beginEntry(entry.getName());
+
+        long headerOffset = output.getPosition();
+        int padding = entry.getMethod() == ZipEntry.STORED ? padding(headerOffset, nameBytes) : 0;
+        writeLocalHeader(nameBytes, entry.getMethod(), 0, entry.getCrc(), entry.getCompressedSize(), entry.getSize(),
+            padding);
+
+        if (v2Digester == null && output.getTarget() instanceof FileOutputStream) {
+            output.flush();
+            reader.transferRaw(entry, ((FileOutputStream) output.getTarget()).getChannel());
+            output.skip(entry.getCompressedSize());
+        } else {
+            copy(reader.openRawStream(entry), output, null);
+        }
+
+        MessageDigest digest = null;
+        if (v1Signer != null) {
+            digest = v1Signer.newEntryDigest();
+            copy(reader.openStream(entry), null, digest);
+        }
+
+        endEntry(entry.getName(), nameBytes, entry.getMethod(), 0, entry.getCrc(), entry.getCompressedSize(),
+            entry.getSize(), headerOffset, digest);
+    }
+
+    /**
+     * Appends the v1 signature entries, the APK Signing Block and the central directory. The underlying stream is left
+     * open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("APK was already finished!");
+        }
+
+        if (v1Signer != null) {
+            writingSignature = true;
+            for (Map.Entry<String, byte[]> signatureEntry : v1Signer.sign().entrySet()) {
+                writeStored(signatureEntry.getKey(), signatureEntry.getValue());
+            }
+        }
+        finished = true;
+        deflater.end();
+
+        long centralDirectoryOffset = output.getPosition();
+        byte[] centralDirectoryBytes = centralDirectory.toByteArray();
+        int entryCount = names.size();
+        if (entryCount > 0xffff) {
+            throw new IOException("Too many entries for a zip archive without ZIP64 extensions!");
+        }
+
+        // nothing else than the signing block may be written before the central directory from now on
+        output.stopDigesting();
+
+        byte[] signingBlock = new byte[0];
+        if (v2Signer != null) {
+            v2Digester.endSection();
+            v2Digester.update(centralDirectoryBytes);
+            v2Digester.endSection();
+            // digested end of central directory points to the offset the central directory would have without the block
+            v2Digester.update(endOfCentralDirectory(entryCount, centralDirectoryBytes.length, centralDirectoryOffset));
+            signingBlock = v2Signer.createSigningBlock(v2Digester);
+        }
+
+        output.write(signingBlock);
+        output.write(centralDirectoryBytes);
+        output.write(endOfCentralDirectory(entryCount, centralDirectoryBytes.length,
+            centralDirectoryOffset + signingBlock.length));
+        output.flush();
+    }
+
+    private int padding(long headerOffset, byte[] nameBytes) {
+        long dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameBytes.length;
+        return (int) ((alignment - dataOffset % alignment) % alignment);
+    }
+
+    private void copy(InputStream inputStream, OutputStream outputStream, MessageDigest digest) throws IOException {
+        try {
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                if (outputStream != null) {
+                    outputStream.write(buffer, 0, read);
+                }
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private byte[] beginEntry(String name) {
+        if (finished) {
+            throw new IllegalStateException("APK was already finished!");
+        }
+        if (!names.add(name)) {
+            throw new IllegalArgumentException("Duplicate entry \"" + name + "\"!");
+        }
+        if (v1Signer != null && !writingSignature && V1SchemeSigner.isSignatureEntry(name)) {
+            throw new IllegalArgumentException("Entry \"" + name + "\" would be overwritten by the signature!");
+        }
+        return name.getBytes(UTF_8);
+    }
+
+    private void endEntry(String name, byte[] nameBytes, int method, int flags, long crc, long compressedSize, long size,
+        long headerOffset, MessageDigest digest) throws IOException {
+        if (digest != null && !writingSignature) {
+            v1Signer.addEntryDigest(name, digest.digest());
+        }
+
+        writeInt(centralDirectory, CENTRAL_HEADER_SIGNATURE);
+        writeShort(centralDirectory, 20);
+        writeShort(centralDirectory, method == ZipEntry.STORED ? 10 : 20);
+        writeShort(centralDirectory, flags | FLAG_UTF_8);
+        writeShort(centralDirectory, method);
+        writeShort(centralDirectory, DOS_TIME);
+        writeShort(centralDirectory, DOS_DATE);
+        writeInt(centralDirectory, (int) crc);
+        writeInt(centralDirectory, checkedInt(compressedSize));
+        writeInt(centralDirectory, checkedInt(size));
+        writeShort(centralDirectory, nameBytes.length);
+        // extra field, comment, disk number, internal and external attributes
+        writeShort(centralDirectory, 0);
+        writeShort(centralDirectory, 0);
+        writeShort(centralDirectory, 0);
+        writeShort(centralDirectory, 0);
+        writeInt(centralDirectory, 0);
+        writeInt(centralDirectory, checkedInt(headerOffset));
+        centralDirectory.write(nameBytes);
+    }
+
+    private void writeLocalHeader(byte[] nameBytes, int method, int flags, long crc, long compressedSize, long size,
+        int padding) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(LOCAL_HEADER_SIZE + nameBytes.length + padding);
+        writeInt(header, LOCAL_HEADER_SIGNATURE);
+        writeShort(header, method == ZipEntry.STORED ? 10 : 20);
+        writeShort(header, flags | FLAG_UTF_8);
+        writeShort(header, method);
+        writeShort(header, DOS_TIME);
+        writeShort(header, DOS_DATE);
+        writeInt(header, (int) crc);
+        writeInt(header, checkedInt(compressedSize));
+        writeInt(header, checkedInt(size));
+        writeShort(header, nameBytes.length);
+        // alignment is done the same way as by zipalign, by zero bytes in the extra field
+        writeShort(header, padding);
+        header.write(nameBytes);
+        header.write(new byte[padding]);
+        header.writeTo(output);
+    }
+
+    private static byte[] endOfCentralDirectory(int entryCount, long centralDirectorySize, long centralDirectoryOffset)
+        throws IOException {
+        ByteArrayOutputStream eocd = new ByteArrayOutputStream(22);
+        writeInt(eocd, EOCD_SIGNATURE);
+        writeShort(eocd, 0);
+        writeShort(eocd, 0);
+        writeShort(eocd, entryCount);
+        writeShort(eocd, entryCount);
+        writeInt(eocd, checkedInt(centralDirectorySize));
+        writeInt(eocd, checkedInt(centralDirectoryOffset));
+        writeShort(eocd, 0);
+        return eocd.toByteArray();
+    }
+
+    private static int checkedInt(long value) throws IOException {
+        if (value > 0xffffffffL) {
+            throw new IOException("APK is too large for a zip archive without ZIP64 extensions!");
+        }
+        return (int) value;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+
+    /**
+     * Tracks the position in the APK and feeds the written bytes to the v2 content digester.
+     */
+    private static class PositionOutputStream extends FilterOutputStream {
+        private V2ContentDigester digester;
+        private long position = 0;
+
+        public PositionOutputStream(OutputStream out, V2ContentDigester digester) {
+            super(out);
+            this.digester = digester;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public OutputStream getTarget() {
+            return out;
+        }
+
+        /**
+         * Accounts for bytes written directly to the target.
+         */
+        public void skip(long count) {
+            position += count;
+        }
+
+        public void stopDigesting() {
+            digester = null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (digester != null) {
+                digester.update(b, off, len);
+            }
+            position += len;
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        public NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
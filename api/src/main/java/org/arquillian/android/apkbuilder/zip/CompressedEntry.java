@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import java.security.MessageDigest;
+
+/**
+ * Content of an entry prepared apart from the {@link ApkWriter}, compressed unless the entry is STORED.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+class CompressedEntry {
+    private final int method;
+    private final byte[] data;
+    private final long size;
+    private final long crc;
+    private final MessageDigest digest;
+
+    CompressedEntry(int method, byte[] data, long size, long crc, MessageDigest digest) {
+        this.method = method;
+        this.data = data;
+        this.size = size;
+        this.crc = crc;
+        this.digest = digest;
+    }
+
+    int getMethod() {
+        return method;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getCrc() {
+        return crc;
+    }
+
+    /**
+     * @return digest of the v1 signature updated with the content, or null if the APK isn't signed by the v1 scheme
+     */
+    MessageDigest getDigest() {
+        return digest;
+    }
+}
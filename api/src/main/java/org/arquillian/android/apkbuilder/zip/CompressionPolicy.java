@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+
+/**
+ * Decides by the extension of an entry, whether it's STORED or DEFLATED. Media formats are compressed already, deflating
+ * them costs time without making the APK smaller, and STORED entries are aligned, so they can be mapped to memory
+ * directly from the installed APK.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class CompressionPolicy {
+
+    /**
+     * Extensions, which aapt doesn't compress either.
+     */
+    public static final List<String> DEFAULT_STORED_EXTENSIONS = Collections.unmodifiableList(Arrays.asList("jpg", "jpeg",
+        "png", "gif", "wav", "mp2", "mp3", "ogg", "aac", "mpg", "mpeg", "mid", "midi", "smf", "jet", "rtttl", "imy", "xmf",
+        "mp4", "m4a", "m4v", "3gp", "3gpp", "3g2", "3gpp2", "amr", "awb", "wma", "wmv", "webm", "mkv"));
+
+    public static final CompressionPolicy DEFAULT = new CompressionPolicy(DEFAULT_STORED_EXTENSIONS);
+
+    private final Set<String> storedExtensions = new TreeSet<String>();
+
+    /**
+     * @param extensions extensions of the entries, which are STORED, case insensitive and with or without the dot
+     */
+    public CompressionPolicy(Collection<String> extensions) {
+        for (String extension : extensions) {
+            storedExtensions.add(normalize(extension));
+        }
+    }
+
+    /**
+     * @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     */
+    public int getMethod(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return ZipEntry.DEFLATED;
+        }
+
+        return storedExtensions.contains(normalize(name.substring(dot + 1))) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    }
+
+    public Set<String> getStoredExtensions() {
+        return Collections.unmodifiableSet(storedExtensions);
+    }
+
+    private static String normalize(String extension) {
+        return (extension.startsWith(".") ? extension.substring(1) : extension).toLowerCase(Locale.ENGLISH);
+    }
+
+    @Override
+    public String toString() {
+        return "stored" + storedExtensions;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a single large entry on several threads the way pigz does it. The content is split into chunks of a fixed
+ * size, every chunk is deflated on its own, primed by the last 32 KB of the previous chunk as a dictionary, and ends by a
+ * sync flush, so the compressed chunks can be simply concatenated into one DEFLATE stream. The output only depends on the
+ * chunk size, never on the number of threads.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+class ParallelDeflater {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ExecutorService executor;
+    private final int window;
+
+    /**
+     * @param executor pool compressing the chunks, or null to compress them on the calling thread
+     * @param threads number of threads of the pool, two chunks per thread are compressed ahead of the output
+     */
+    ParallelDeflater(ExecutorService executor, int threads) {
+        this.executor = executor;
+        this.window = 2 * threads;
+    }
+
+    /**
+     * Reads the content, updates the checksum and the digest with it and writes it compressed into the stream.
+     *
+     * @param digest digest updated with the content, or null
+     * @return uncompressed size of the content
+     */
+    long deflate(InputStream content, OutputStream outputStream, CRC32 crc, MessageDigest digest) throws IOException {
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        long size = 0;
+        byte[] dictionary = null;
+
+        // one chunk is read ahead, so that the last chunk is known when it's submitted
+        byte[] chunk = readChunk(content);
+        try {
+            while (true) {
+                byte[] next = chunk.length == CHUNK_SIZE ? readChunk(content) : new byte[0];
+                boolean last = next.length == 0;
+
+                crc.update(chunk);
+                if (digest != null) {
+                    digest.update(chunk);
+                }
+                size += chunk.length;
+
+                ChunkTask task = new ChunkTask(chunk, dictionary, last);
+                if (executor == null) {
+                    outputStream.write(task.call());
+                } else {
+                    while (pending.size() >= window) {
+                        outputStream.write(pending.poll().get());
+                    }
+                    pending.add(executor.submit(task));
+                }
+
+                if (last) {
+                    break;
+                }
+                dictionary = chunk.length > DICTIONARY_SIZE ? Arrays.copyOfRange(chunk, chunk.length - DICTIONARY_SIZE,
+                    chunk.length) : chunk;
+                chunk = next;
+            }
+
+            while (!pending.isEmpty()) {
+                outputStream.write(pending.poll().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing an entry.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        return size;
+    }
+
+    private static byte[] readChunk(InputStream content) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int length = 0;
+        int read;
+        while (length < CHUNK_SIZE && (read = content.read(chunk, length, CHUNK_SIZE - length)) != -1) {
+            length += read;
+        }
+        return length == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, length);
+    }
+
+    private static class ChunkTask implements Callable<byte[]> {
+        private final byte[] chunk;
+        private final byte[] dictionary;
+        private final boolean last;
+
+        public ChunkTask(byte[] chunk, byte[] dictionary, boolean last) {
+            this.chunk = chunk;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(chunk);
+
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunk.length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        compressed.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // sync flush ends the chunk on a byte boundary without ending the stream
+                    int length;
+                    do {
+                        length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, length);
+                    } while (length == buffer.length || !deflater.needsInput());
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
+
+/**
+ * Writes entries into an {@link ApkWriter}, compressing them on several threads. Entries are compressed ahead of the
+ * writer, but written in the order they were given, so the output doesn't depend on the number of threads. At most two
+ * entries per thread are held in memory. Large files are streamed into the writer instead, compressed in chunks by the
+ * {@link ParallelDeflater} on the same threads.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ParallelEntryWriter {
+
+    // files larger than this aren't held in memory, but compressed in chunks
+    static final long LARGE_ENTRY_SIZE = 4L * ParallelDeflater.CHUNK_SIZE;
+
+    private final ApkWriter writer;
+    private final CompressionPolicy policy;
+    private final int threads;
+
+    /**
+     * @param threads number of threads compressing the entries, 1 compresses them on the calling thread
+     */
+    public ParallelEntryWriter(ApkWriter writer, CompressionPolicy policy, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads has to be positive!");
+        }
+        this.writer = writer;
+        this.policy = policy;
+        this.threads = threads;
+    }
+
+    /**
+     * Writes the entries in the order of their names.
+     */
+    public void write(SortedMap<String, Asset> entries) throws IOException {
+        if (threads == 1) {
+            ParallelDeflater deflater = new ParallelDeflater(null, 1);
+            for (Map.Entry<String, Asset> entry : entries.entrySet()) {
+                if (isLarge(entry.getValue())) {
+                    writeStreamed(entry.getKey(), entry.getValue(), deflater);
+                } else {
+                    writer.writeCompressed(entry.getKey(), compress(entry.getKey(), entry.getValue()));
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ParallelDeflater deflater = new ParallelDeflater(executor, threads);
+        Deque<Map.Entry<String, Future<CompressedEntry>>> pending =
+            new ArrayDeque<Map.Entry<String, Future<CompressedEntry>>>();
+        try {
+            for (final Map.Entry<String, Asset> entry : entries.entrySet()) {
+                if (isLarge(entry.getValue())) {
+                    writePending(pending, 0);
+                    writeStreamed(entry.getKey(), entry.getValue(), deflater);
+                    continue;
+                }
+
+                writePending(pending, 2 * threads - 1);
+                Future<CompressedEntry> future = executor.submit(new Callable<CompressedEntry>() {
+                    @Override
+                    public CompressedEntry call() throws IOException {
+                        return compress(entry.getKey(), entry.getValue());
+                    }
+                });
+                pending.add(new AbstractMap.SimpleEntry<String, Future<CompressedEntry>>(entry.getKey(), future));
+            }
+            writePending(pending, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing entries.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the oldest pending entries, until at most the given number of entries is left.
+     */
+    private void writePending(Deque<Map.Entry<String, Future<CompressedEntry>>> pending, int left)
+        throws IOException, InterruptedException, ExecutionException {
+        while (pending.size() > left) {
+            Map.Entry<String, Future<CompressedEntry>> entry = pending.poll();
+            writer.writeCompressed(entry.getKey(), entry.getValue().get());
+        }
+    }
+
+    private CompressedEntry compress(String name, Asset asset) throws IOException {
+        InputStream inputStream = asset.openStream();
+        try {
+            return writer.compress(inputStream, policy.getMethod(name));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void writeStreamed(String name, Asset asset, ParallelDeflater deflater) throws IOException {
+        if (policy.getMethod(name) == ZipEntry.DEFLATED) {
+            InputStream inputStream = asset.openStream();
+            try {
+                writer.writeDeflated(name, inputStream, deflater);
+            } finally {
+                inputStream.close();
+            }
+            return;
+        }
+
+        // STORED entry needs its CRC-32 in the local header
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long size = 0;
+        int read;
+        InputStream inputStream = asset.openStream();
+        try {
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        inputStream = asset.openStream();
+        try {
+            writer.writeStored(name, inputStream, size, crc.getValue());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static boolean isLarge(Asset asset) {
+        return asset instanceof FileAsset && ((FileAsset) asset).getSource().length() > LARGE_ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads a zip archive through its central directory. Unlike {@link java.util.zip.ZipFile}, it gives access to the
+ * compressed data of the entries, so that they can be copied into another archive without being inflated and deflated
+ * again.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class ZipReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset CP437 = Charset.forName("IBM437");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int EOCD_SIZE = 22;
+    private static final int FLAG_UTF_8 = 0x0800;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    public ZipReader(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = randomAccessFile.getChannel();
+        try {
+            readCentralDirectory();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return entries in the order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+    }
+
+    /**
+     * @return entry of the name, or null if there is no such entry
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * @return stream of the uncompressed content of the entry
+     */
+    public InputStream openStream(Entry entry) throws IOException {
+        InputStream rawStream = openRawStream(entry);
+        if (entry.getMethod() == ZipEntry.STORED) {
+            return rawStream;
+        }
+        // the inflater needs an extra byte after the compressed data when nowrap is used
+        return new InflaterInputStream(new PaddedInputStream(rawStream), new Inflater(true), 8192) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * @return stream of the data of the entry as stored in the archive
+     */
+    public InputStream openRawStream(Entry entry) throws IOException {
+        return new EntryDataInputStream(channel, getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    /**
+     * Copies the data of the entry as stored in the archive. The copy is done by the operating system if the target is a
+     * file.
+     */
+    public void transferRaw(Entry entry, WritableByteChannel target) throws IOException {
+        long position = getDataOffset(entry);
+        long count = entry.getCompressedSize();
+        while (count > 0) {
+            long transferred = channel.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of file \"" + file.getPath() + "\"!");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            // local extra field may differ from the one in the central directory
+            ByteBuffer header = read(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("Invalid local header of entry \"" + entry.getName() + "\" in \"" + file.getPath()
+                    + "\"!");
+            }
+            int nameLength = header.getShort(26) & 0xffff;
+            int extraLength = header.getShort(28) & 0xffff;
+            entry.dataOffset = entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        }
+        return entry.dataOffset;
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long length = channel.size();
+        if (length < EOCD_SIZE) {
+            throw new IOException("File \"" + file.getPath() + "\" is too short to be a zip archive!");
+        }
+
+        // the record is followed by a comment of at most 65535 bytes
+        int tailLength = (int) Math.min(length, EOCD_SIZE + 0xffff);
+        ByteBuffer tail = read(length - tailLength, tailLength);
+        int eocdOffset = -1;
+        for (int offset = tailLength - EOCD_SIZE; offset >= 0; offset--) {
+            if (tail.getInt(offset) == EOCD_SIGNATURE
+                && offset + EOCD_SIZE + (tail.getShort(offset + 20) & 0xffff) == tailLength) {
+                eocdOffset = offset;
+                break;
+            }
+        }
+        if (eocdOffset < 0) {
+            throw new IOException("End of central directory record not found in \"" + file.getPath() + "\"!");
+        }
+
+        int entryCount = tail.getShort(eocdOffset + 10) & 0xffff;
+        long centralDirectorySize = tail.getInt(eocdOffset + 12) & 0xffffffffL;
+        long centralDirectoryOffset = tail.getInt(eocdOffset + 16) & 0xffffffffL;
+        if (entryCount == 0xffff || centralDirectorySize == 0xffffffffL || centralDirectoryOffset == 0xffffffffL) {
+            throw new IOException("ZIP64 archive \"" + file.getPath() + "\" is not supported!");
+        }
+
+        ByteBuffer centralDirectory = read(centralDirectoryOffset, (int) centralDirectorySize);
+        for (int i = 0; i < entryCount; i++) {
+            int offset = centralDirectory.position();
+            if (centralDirectory.remaining() < CENTRAL_HEADER_SIZE
+                || centralDirectory.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Invalid central directory in \"" + file.getPath() + "\"!");
+            }
+
+            int flags = centralDirectory.getShort(offset + 8) & 0xffff;
+            int method = centralDirectory.getShort(offset + 10) & 0xffff;
+            long crc = centralDirectory.getInt(offset + 16) & 0xffffffffL;
+            long compressedSize = centralDirectory.getInt(offset + 20) & 0xffffffffL;
+            long size = centralDirectory.getInt(offset + 24) & 0xffffffffL;
+            int nameLength = centralDirectory.getShort(offset + 28) & 0xffff;
+            int extraLength = centralDirectory.getShort(offset + 30) & 0xffff;
+            int commentLength = centralDirectory.getShort(offset + 32) & 0xffff;
+            long localHeaderOffset = centralDirectory.getInt(offset + 42) & 0xffffffffL;
+
+            byte[] nameBytes = new byte[nameLength];
+            centralDirectory.position(offset + CENTRAL_HEADER_SIZE);
+            centralDirectory.get(nameBytes);
+            String name = new String(nameBytes, (flags & FLAG_UTF_8) != 0 ? UTF_8 : CP437);
+            centralDirectory.position(offset + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength);
+
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new IOException("Entry \"" + name + "\" in \"" + file.getPath() + "\" uses unsupported compression method "
+                    + method + "!");
+            }
+
+            entries.put(name, new Entry(name, method, crc, compressedSize, size, localHeaderOffset));
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file \"" + file.getPath() + "\"!");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Entry of the central directory.
+     */
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+        private long dataOffset = -1;
+
+        private Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Reads the data by positional reads, which keeps the channel usable by other streams opened concurrently.
+     */
+    private static class EntryDataInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        public EntryDataInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of zip entry data!");
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+    }
+
+    /**
+     * Appends a single zero byte, which the inflater in nowrap mode may need to detect the end of the data.
+     */
+    private static class PaddedInputStream extends InputStream {
+        private final InputStream inputStream;
+        private boolean padded = false;
+
+        public PaddedInputStream(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = inputStream.read(b, off, len);
+            if (read == -1 && !padded && len > 0) {
+                padded = true;
+                b[off] = 0;
+                return 1;
+            }
+            return read;
+        }
+    }
+}
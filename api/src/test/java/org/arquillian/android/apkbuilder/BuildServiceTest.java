@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class BuildServiceTest {
+
+    @Test
+    public void reportsFailedBuilds() throws Exception {
+        BuildService service = new BuildService(2);
+        try {
+            List<Future<BuildResult>> futures = new ArrayList<Future<BuildResult>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(service.submit(builder("/nonexistent/aapt")));
+            }
+
+            for (Future<BuildResult> future : futures) {
+                BuildResult result = future.get(30, TimeUnit.SECONDS);
+                assertFalse(result.isSuccess());
+                assertEquals(null, result.getApk());
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void cancellationDestroysChildProcesses() throws Exception {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File started = new File(workingDirectory, "started");
+        File aapt = new File(workingDirectory, "aapt");
+        write(aapt, "#!/bin/sh\ntouch " + started.getAbsolutePath() + "\nexec sleep 60\n");
+        aapt.setExecutable(true);
+
+        BuildService service = new BuildService(1);
+        ApkBuilder builder = builder(aapt.getAbsolutePath());
+        Future<BuildResult> future = service.submit(builder);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!started.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(started.exists());
+
+        assertTrue(future.cancel(true));
+        assertTrue(builder.isCancelled());
+
+        service.shutdown();
+        // the worker is only released once the sleeping child process is gone
+        assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsBuildsAfterShutdown() throws Exception {
+        BuildService service = new BuildService(1);
+        service.shutdown();
+        service.submit(builder("/nonexistent/aapt"));
+    }
+
+    @Test
+    public void defaultConcurrencyIsBounded() {
+        int builds = BuildService.defaultConcurrentBuilds(BuildService.DEFAULT_MEMORY_PER_BUILD);
+        assertTrue(builds >= 1);
+        assertTrue(builds <= Runtime.getRuntime().availableProcessors());
+        assertEquals(1, BuildService.defaultConcurrentBuilds(Long.MAX_VALUE));
+    }
+
+    private ApkBuilder builder(String aaptPath) throws IOException {
+        File directory = FileUtils.prepareWorkingDirectory();
+        write(new File(directory, "AndroidManifest.xml"), "<manifest />");
+
+        ApkBuilder builder = ApkBuilder.init("test", directory, true);
+        builder.getConfiguration()
+            .setAaptPath(aaptPath)
+            .setDxPath("/nonexistent/dx")
+            .setAndroidJarPath("/nonexistent/android.jar")
+            .setParallelism(1);
+        return builder;
+    }
+
+    private void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+}
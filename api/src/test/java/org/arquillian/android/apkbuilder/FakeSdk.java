@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+
+/**
+ * Shell scripts standing in for aapt and dx, so that whole builds can run without the Android SDK. The resources package is
+ * a fixed zip and the dex file is a text file naming the dx inputs. Like the real dx, the fake one writes an archive with
+ * {@code classes.dex} when the output is a .jar and rejects standalone dex files with any other name as inputs.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+public class FakeSdk {
+
+    private final File directory;
+    private final File aapt;
+    private final File dx;
+    private final File keystore;
+
+    public FakeSdk() throws IOException, InterruptedException {
+        directory = FileUtils.prepareWorkingDirectory();
+
+        File resources = new File(directory, "resources.ap_");
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(resources));
+        zipOutputStream.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+        zipOutputStream.write("<manifest />".getBytes("UTF-8"));
+        zipOutputStream.closeEntry();
+        zipOutputStream.close();
+
+        aapt = script("aapt", "while [ $# -gt 0 ]; do\n"
+            + "  case \"$1\" in\n"
+            + "    -F) shift; cp " + resources.getAbsolutePath() + " \"$1\" ;;\n"
+            + "    -J) shift; mkdir -p \"$1\" ;;\n"
+            + "  esac\n"
+            + "  shift\n"
+            + "done\n");
+
+        dx = script("dx", "output=\n"
+            + "inputs=\n"
+            + "for argument in \"$@\"; do\n"
+            + "  case \"$argument\" in\n"
+            + "    --output=*) output=\"${argument#--output=}\" ;;\n"
+            + "    --*) ;;\n"
+            + "    */classes.dex) inputs=\"$inputs $argument\" ;;\n"
+            + "    *.dex) echo \"dx: can't read standalone dex file $argument\" >&2; exit 1 ;;\n"
+            + "    *) inputs=\"$inputs $argument\" ;;\n"
+            + "  esac\n"
+            + "done\n"
+            + "case \"$output\" in\n"
+            + "  *.jar)\n"
+            + "    directory=$(mktemp -d)\n"
+            + "    echo \"$inputs\" > \"$directory/classes.dex\"\n"
+            + "    " + jdkTool("jar") + " cf \"$output\" -C \"$directory\" classes.dex\n"
+            + "    status=$?\n"
+            + "    rm -rf \"$directory\"\n"
+            + "    exit $status ;;\n"
+            + "  *) echo \"$inputs\" > \"$output\" ;;\n"
+            + "esac\n");
+
+        keystore = new File(directory, "debug.keystore");
+        Process process = new ProcessBuilder(
+            jdkTool("keytool"),
+            "-genkeypair", "-keystore", keystore.getAbsolutePath(), "-storepass", "android", "-keypass", "android",
+            "-alias", "androiddebugkey", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=Test")
+            .redirectErrorStream(true)
+            .start();
+        InputStream inputStream = process.getInputStream();
+        while (inputStream.read() != -1) {
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("Couldn't generate the keystore!");
+        }
+    }
+
+    public File getDx() {
+        return dx;
+    }
+
+    /**
+     * Points the builder to the fake tools and the generated keystore.
+     */
+    public ApkBuilder.Configuration configure(ApkBuilder.Configuration configuration) {
+        return configuration
+            .setAaptPath(aapt.getAbsolutePath())
+            .setDxPath(dx.getAbsolutePath())
+            .setAndroidJarPath(new File(directory, "android.jar").getAbsolutePath())
+            .setKeystorePath(keystore.getAbsolutePath())
+            .setKeystorePassword("android")
+            .setKeyAlias("androiddebugkey")
+            .setKeyPassword("android");
+    }
+
+    /**
+     * Creates a directory with the content of a minimal application.
+     */
+    public File createProject() throws IOException {
+        File project = FileUtils.prepareWorkingDirectory();
+        write(new File(project, "AndroidManifest.xml"), "<manifest />");
+        return project;
+    }
+
+    private static String jdkTool(String name) {
+        File home = new File(System.getProperty("java.home"));
+        File tool = new File(home, "bin" + File.separator + name);
+        // java.home of older JDKs is their JRE, which lacks the development tools
+        if (!tool.exists() && home.getName().equals("jre")) {
+            tool = new File(home.getParentFile(), "bin" + File.separator + name);
+        }
+        return tool.getAbsolutePath();
+    }
+
+    private File script(String name, String body) throws IOException {
+        File script = new File(directory, name);
+        write(script, "#!/bin/sh\n" + body);
+        script.setExecutable(true);
+        return script;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+import org.arquillian.android.apkbuilder.metrics.BuildListener;
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.Command;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class PreDexTest {
+
+    private static final String[] PACKAGES = { "org/first", "org/second", "org/third", "org/fourth" };
+
+    @Test
+    public void dexesMissingPackagesConcurrently() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File cacheDirectory = FileUtils.prepareWorkingDirectory();
+        File slowDx = slow(sdk.getDx().getAbsolutePath());
+
+        ApkBuilder builder = ApkBuilder.init("test", createProject(sdk), true);
+        ConcurrencyListener listener = new ConcurrencyListener();
+        sdk.configure(builder.getConfiguration())
+            .setDxPath(slowDx.getAbsolutePath())
+            .setPreDexCacheDirectory(cacheDirectory.getAbsolutePath())
+            .setParallelism(PACKAGES.length)
+            .addBuildListener(listener);
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        // aapt, a dx for every package and the merging dx
+        assertEquals(PACKAGES.length + 2, result.getMetrics().get(BuildMetrics.PROCESSES));
+        assertEquals(PACKAGES.length, result.getMetrics().get(BuildMetrics.PRE_DEX_CACHE + ".misses"));
+        assertTrue(listener.maxRunning.get() > 1);
+        assertEquals(PACKAGES.length, listener.mergedArchives.size());
+        assertTrue(listener.invalidInputs.toString(), listener.invalidInputs.isEmpty());
+
+        // another build of the same classes only merges the cached dex archives
+        ApkBuilder second = ApkBuilder.init("test", createProject(sdk), true);
+        ConcurrencyListener secondListener = new ConcurrencyListener();
+        sdk.configure(second.getConfiguration())
+            .setDxPath(slowDx.getAbsolutePath())
+            .setPreDexCacheDirectory(cacheDirectory.getAbsolutePath())
+            .addBuildListener(secondListener);
+
+        BuildResult secondResult = second.execute();
+
+        assertTrue(secondResult.isSuccess());
+        assertEquals(2, secondResult.getMetrics().get(BuildMetrics.PROCESSES));
+        assertEquals(PACKAGES.length, secondResult.getMetrics().get(BuildMetrics.PRE_DEX_CACHE + ".hits"));
+        assertEquals(PACKAGES.length, secondListener.mergedArchives.size());
+        assertTrue(secondListener.invalidInputs.toString(), secondListener.invalidInputs.isEmpty());
+    }
+
+    @Test
+    public void preDexesAlongsideResources() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File project = sdk.createProject();
+        File directory = new File(project, "class/org/single");
+        directory.mkdirs();
+        write(new File(directory, "Example.class"), "single");
+
+        ApkBuilder builder = ApkBuilder.init("test", project, true);
+        ConcurrencyListener listener = new ConcurrencyListener();
+        ApkBuilder.Configuration configuration = sdk.configure(builder.getConfiguration());
+        configuration
+            .setAaptPath(slow(configuration.getAaptPath()).getAbsolutePath())
+            .setDxPath(slow(configuration.getDxPath()).getAbsolutePath())
+            .setPreDexCacheDirectory(FileUtils.prepareWorkingDirectory().getAbsolutePath())
+            .setParallelism(2)
+            .addBuildListener(listener);
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        // the only package is dexed while aapt runs
+        assertTrue(listener.maxRunning.get() > 1);
+
+        // nothing changed, so neither the classes nor the compiled sources are dexed again
+        BuildResult rebuilt = builder.execute();
+        assertTrue(rebuilt.isSuccess());
+        assertEquals(0, rebuilt.getMetrics().get(BuildMetrics.PROCESSES));
+    }
+
+    @Test
+    public void buildsWhenCacheCannotBeWritten() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File blocker = new File(FileUtils.prepareWorkingDirectory(), "blocker");
+        write(blocker, "not a directory");
+
+        ApkBuilder builder = ApkBuilder.init("test", createProject(sdk), true);
+        sdk.configure(builder.getConfiguration())
+            .setPreDexCacheDirectory(new File(blocker, "cache").getAbsolutePath());
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.getApk().isFile());
+        assertEquals(PACKAGES.length, result.getMetrics().get(BuildMetrics.PRE_DEX_CACHE + ".misses"));
+    }
+
+    private static File createProject(FakeSdk sdk) throws IOException {
+        File project = sdk.createProject();
+        for (String packageName : PACKAGES) {
+            File directory = new File(project, "class/" + packageName);
+            directory.mkdirs();
+            write(new File(directory, "Example.class"), packageName);
+        }
+        return project;
+    }
+
+    /**
+     * @return tool which takes long enough for the concurrently running ones to overlap
+     */
+    private static File slow(String tool) throws IOException {
+        File script = new File(FileUtils.prepareWorkingDirectory(), new File(tool).getName());
+        write(script, "#!/bin/sh\nsleep 0.5\nexec " + tool + " \"$@\"\n");
+        script.setExecutable(true);
+        return script;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    /**
+     * Counts the concurrently running processes and checks the inputs of the merging dx, which only reads dex files
+     * packed in archives as {@code classes.dex}.
+     */
+    private static class ConcurrencyListener implements BuildListener {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final List<String> mergedArchives = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> invalidInputs = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void buildStarted(long execution, String build) {
+        }
+
+        @Override
+        public void stagingFinished(long execution, String build, long start, long duration, long threadId) {
+        }
+
+        @Override
+        public void stageStarted(long execution, String build, String stage) {
+        }
+
+        @Override
+        public void stageFinished(long execution, String build, StageResult result) {
+        }
+
+        @Override
+        public void processStarted(long execution, String build, String stage, Command command) {
+            int current = running.incrementAndGet();
+            int max;
+            do {
+                max = maxRunning.get();
+            } while (current > max && !maxRunning.compareAndSet(max, current));
+
+            if (stage.equals("compileDex")) {
+                for (String argument : command.getAsList().subList(1, command.size())) {
+                    File input = new File(argument);
+                    if (!argument.startsWith("--") && !input.isDirectory()) {
+                        checkMergeInput(input);
+                    }
+                }
+            }
+        }
+
+        private void checkMergeInput(File input) {
+            try {
+                ZipFile zipFile = new ZipFile(input);
+                try {
+                    if (zipFile.getEntry("classes.dex") != null) {
+                        mergedArchives.add(input.getName());
+                        return;
+                    }
+                } finally {
+                    zipFile.close();
+                }
+            } catch (IOException e) {
+                // not an archive
+            }
+            invalidInputs.add(input.getName());
+        }
+
+        @Override
+        public void processFinished(long execution, String build, String stage, ProcessResult result) {
+            running.decrementAndGet();
+        }
+
+        @Override
+        public void buildFinished(long execution, BuildResult result) {
+        }
+    }
+}
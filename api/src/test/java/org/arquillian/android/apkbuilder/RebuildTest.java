@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.jboss.shrinkwrap.api.GenericArchive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class RebuildTest {
+
+    @Test
+    public void rebuildsOnlyWhatChanged() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init(archive("first", "first"), true);
+        sdk.configure(builder.getConfiguration());
+
+        BuildResult result = builder.execute();
+        assertTrue(result.isSuccess());
+        assertEquals(2, result.getMetrics().get(BuildMetrics.PROCESSES));
+
+        // assets are read from the archive, so only the APK is written again
+        result = builder.rebuild(archive("first", "second"));
+        assertTrue(result.isSuccess());
+        assertEquals(0, result.getMetrics().get(BuildMetrics.PROCESSES));
+        assertEquals(Arrays.asList("finalizeApk"), executedStages(result));
+
+        File strings = new File(builder.getWorkingDirectory(), "res/values/strings.xml");
+        result = builder.rebuild(archive("second", "second"));
+        assertTrue(result.isSuccess());
+        assertEquals(1, result.getMetrics().get(BuildMetrics.PROCESSES));
+        assertTrue(executedStages(result).contains("compileResources"));
+        assertFalse(executedStages(result).contains("compileDex"));
+
+        GenericArchive withoutResources = ShrinkWrap.create(GenericArchive.class, "test")
+            .add(new StringAsset("<manifest />"), "AndroidManifest.xml");
+        result = builder.rebuild(withoutResources);
+        assertTrue(result.isSuccess());
+        assertFalse(strings.exists());
+    }
+
+    @Test
+    public void leavesUnchangedNodesUntouched() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init(archive("first", "first"), false);
+        sdk.configure(builder.getConfiguration());
+        assertTrue(builder.execute().isSuccess());
+
+        File manifest = new File(builder.getWorkingDirectory(), "AndroidManifest.xml");
+        manifest.setLastModified(1000);
+
+        BuildResult result = builder.rebuild(archive("first", "second"));
+        assertTrue(result.isSuccess());
+        assertEquals(1000, manifest.lastModified());
+        assertTrue(new File(builder.getWorkingDirectory(), "asset/a.txt").isFile());
+        // the changed asset is only packaged again
+        assertEquals(Arrays.asList("finalizeApk"), executedStages(result));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToRebuildDirectory() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), true);
+
+        builder.rebuild(archive("first", "first"));
+    }
+
+    private static GenericArchive archive(String string, String asset) {
+        return ShrinkWrap.create(GenericArchive.class, "test")
+            .add(new StringAsset("<manifest />"), "AndroidManifest.xml")
+            .add(new StringAsset("<resources><string name=\"s\">" + string + "</string></resources>"),
+                "res/values/strings.xml")
+            .add(new StringAsset("class"), "class/com/example/A.class")
+            .add(new StringAsset(asset), "asset/a.txt");
+    }
+
+    private static List<String> executedStages(BuildResult result) {
+        List<String> names = new ArrayList<String>();
+        for (StageResult stage : result.getStageResults()) {
+            if (stage.isExecuted()) {
+                names.add(stage.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ResourceCacheBuildTest {
+
+    @Test
+    public void reusesCompiledResources() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File cacheDirectory = FileUtils.prepareWorkingDirectory();
+
+        BuildResult first = build(sdk, cacheDirectory);
+        BuildResult second = build(sdk, cacheDirectory);
+
+        assertTrue(first.isSuccess());
+        assertEquals(1, first.getMetrics().get(BuildMetrics.RESOURCE_CACHE + ".misses"));
+        assertTrue(second.isSuccess());
+        assertEquals(1, second.getMetrics().get(BuildMetrics.RESOURCE_CACHE + ".hits"));
+        // only dx runs
+        assertEquals(1, second.getMetrics().get(BuildMetrics.PROCESSES));
+    }
+
+    @Test
+    public void buildsWhenCacheCannotBeWritten() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File blocker = new File(FileUtils.prepareWorkingDirectory(), "blocker");
+        FileWriter writer = new FileWriter(blocker);
+        writer.write("not a directory");
+        writer.close();
+
+        BuildResult result = build(sdk, new File(blocker, "cache"));
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.getApk().isFile());
+    }
+
+    private static BuildResult build(FakeSdk sdk, File cacheDirectory) throws Exception {
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), true);
+        sdk.configure(builder.getConfiguration()).setResourceCacheDirectory(cacheDirectory.getAbsolutePath());
+        return builder.execute();
+    }
+}
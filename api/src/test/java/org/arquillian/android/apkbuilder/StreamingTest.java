@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class StreamingTest {
+
+    @Test
+    public void streamsApkWithoutWritingIt() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), true);
+        sdk.configure(builder.getConfiguration());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BuildResult result = builder.execute(outputStream);
+
+        assertTrue(result.isSuccess());
+        assertNull(result.getApk());
+        assertFalse(new File(builder.getWorkingDirectory(), "target/test.apk").exists());
+        byte[] apk = outputStream.toByteArray();
+        assertEquals('P', apk[0]);
+        assertEquals('K', apk[1]);
+
+        // the final stage runs again, although nothing changed
+        ByteArrayOutputStream channelStream = new ByteArrayOutputStream();
+        assertTrue(builder.execute(Channels.newChannel(channelStream)).isSuccess());
+        assertArrayEquals(apk, channelStream.toByteArray());
+        assertArrayEquals(apk, builder.buildToByteArray());
+    }
+
+    @Test
+    public void deletesOwnedWorkingDirectoryAfterStreaming() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), Workspace.MEMORY);
+        sdk.configure(builder.getConfiguration());
+
+        byte[] apk = builder.buildToByteArray();
+
+        assertEquals('P', apk[0]);
+        assertFalse(builder.getWorkingDirectory().exists());
+    }
+
+    @Test
+    public void streamsApkFromBuildCache() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File cacheDirectory = FileUtils.prepareWorkingDirectory();
+
+        ApkBuilder first = ApkBuilder.init("test", sdk.createProject(), true);
+        sdk.configure(first.getConfiguration()).setBuildCacheDirectory(cacheDirectory.getAbsolutePath());
+        byte[] built = first.buildToByteArray();
+
+        ApkBuilder second = ApkBuilder.init("test", sdk.createProject(), true);
+        sdk.configure(second.getConfiguration()).setBuildCacheDirectory(cacheDirectory.getAbsolutePath());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BuildResult result = second.execute(outputStream);
+
+        assertTrue(result.isCached());
+        assertArrayEquals(built, outputStream.toByteArray());
+        assertFalse(new File(first.getWorkingDirectory(), "target/test.apk").exists());
+        assertFalse(new File(second.getWorkingDirectory(), "target/test.apk").exists());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.metrics.BuildMetrics;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class VariantBuildTest {
+
+    @Test
+    public void compilesOncePerGroupOfVariants() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init("base", sdk.createProject(), true);
+        ApkBuilder.Configuration base = sdk.configure(builder.getConfiguration());
+
+        List<ApkBuilder.Configuration> variants = new ArrayList<ApkBuilder.Configuration>();
+        for (String name : Arrays.asList("a", "b", "c")) {
+            variants.add(base.copy().setOutputName(name));
+        }
+        // another platform can't reuse the compiled outputs
+        variants.add(base.copy().setOutputName("d")
+            .setAndroidJarPath(new File(FileUtils.prepareWorkingDirectory(), "android.jar").getAbsolutePath()));
+
+        List<BuildResult> results = builder.executeVariants(variants);
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            BuildResult result = results.get(i);
+            assertTrue(result.isSuccess());
+            assertEquals(variants.get(i).getOutputName() + ".apk", result.getApk().getName());
+            assertTrue(result.getApk().isFile());
+        }
+
+        assertEquals(2, results.get(0).getMetrics().get(BuildMetrics.PROCESSES));
+        assertEquals(0, results.get(1).getMetrics().get(BuildMetrics.PROCESSES));
+        assertEquals(0, results.get(2).getMetrics().get(BuildMetrics.PROCESSES));
+        // only aapt reads the platform, the dex of the previous group is still up to date
+        assertEquals(1, results.get(3).getMetrics().get(BuildMetrics.PROCESSES));
+        assertEquals(Arrays.asList("finalizeApk"), stageNames(results.get(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesVariantsWithTheSameName() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        ApkBuilder builder = ApkBuilder.init("base", sdk.createProject(), true);
+        ApkBuilder.Configuration base = sdk.configure(builder.getConfiguration());
+
+        builder.executeVariants(Arrays.asList(base.copy(), base.copy()));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        ApkBuilder.Configuration configuration = new ApkBuilder.Configuration().setKeyAlias("first");
+        ApkBuilder.Configuration copy = configuration.copy().setKeyAlias("second");
+
+        assertEquals("first", configuration.getKeyAlias());
+        assertEquals("second", copy.getKeyAlias());
+        assertFalse(configuration.getKeyAlias().equals(copy.getKeyAlias()));
+    }
+
+    private static List<String> stageNames(BuildResult result) {
+        List<String> names = new ArrayList<String>();
+        for (StageResult stage : result.getStageResults()) {
+            names.add(stage.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class WorkspaceTest {
+
+    @Test
+    public void createsWorkingDirectoryInWorkspace() {
+        File root = Workspace.MEMORY.getRoot();
+        File workingDirectory = FileUtils.prepareWorkingDirectory(root);
+
+        assertEquals(root, workingDirectory.getParentFile());
+        assertTrue(workingDirectory.isDirectory());
+        workingDirectory.delete();
+    }
+
+    @Test
+    public void persistsOnlyTheApk() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File outputDirectory = new File(FileUtils.prepareWorkingDirectory(), "out");
+
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), Workspace.MEMORY);
+        sdk.configure(builder.getConfiguration())
+            .setOutputDirectory(outputDirectory.getAbsolutePath());
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        assertEquals(new File(outputDirectory, "test.apk"), result.getApk());
+        assertTrue(result.getApk().isFile());
+        assertFalse(builder.getWorkingDirectory().exists());
+    }
+
+    @Test
+    public void deletesWorkingDirectoryOfFailedBuild() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File outputDirectory = new File(FileUtils.prepareWorkingDirectory(), "out");
+
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), Workspace.MEMORY);
+        sdk.configure(builder.getConfiguration())
+            .setAaptPath("/nonexistent/aapt")
+            .setOutputDirectory(outputDirectory.getAbsolutePath());
+
+        BuildResult result = builder.execute();
+
+        assertFalse(result.isSuccess());
+        assertFalse(builder.getWorkingDirectory().exists());
+        assertFalse(outputDirectory.exists());
+    }
+
+    @Test
+    public void overlayLeavesSourceDirectoryUntouched() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File project = sdk.createProject();
+
+        ApkBuilder builder = ApkBuilder.initOverlay("test", project);
+        sdk.configure(builder.getConfiguration());
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        assertEquals(builder.getWorkingDirectory(), result.getApk().getParentFile().getParentFile());
+        assertEquals(1, project.list().length);
+    }
+
+    @Test
+    public void packagesAssetDirectory() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File project = sdk.createProject();
+        new File(project, "asset/images").mkdirs();
+        Files.write(new File(project, "asset/images/logo.png").toPath(), new byte[] { 1, 2, 3 });
+        Files.write(new File(project, "asset/text.txt").toPath(), "text".getBytes("UTF-8"));
+
+        ApkBuilder builder = ApkBuilder.initOverlay("test", project);
+        sdk.configure(builder.getConfiguration());
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        ZipFile apk = new ZipFile(result.getApk());
+        try {
+            assertEquals(ZipEntry.STORED, apk.getEntry("assets/images/logo.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, apk.getEntry("assets/text.txt").getMethod());
+        } finally {
+            apk.close();
+        }
+    }
+}
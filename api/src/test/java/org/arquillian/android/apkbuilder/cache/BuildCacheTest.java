@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.arquillian.android.apkbuilder.util.Fingerprint;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class BuildCacheTest {
+
+    @Test
+    public void storeAndRetrieve() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        BuildCache cache = new BuildCache(new File(workingDirectory, "cache"), 1024);
+
+        File apk = createFile(workingDirectory, "built.apk", 100);
+        File retrieved = new File(workingDirectory, "retrieved.apk");
+
+        assertFalse(cache.retrieve("key", retrieved));
+
+        cache.store("key", apk);
+
+        assertTrue(cache.retrieve("key", retrieved));
+        assertEquals(100, retrieved.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToStoreIntoUnavailableDirectory() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File blocker = createFile(workingDirectory, "blocker", 1);
+        BuildCache cache = new BuildCache(new File(blocker, "cache"), 1024);
+
+        cache.store("key", createFile(workingDirectory, "built.apk", 100));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        BuildCache cache = new BuildCache(new File(workingDirectory, "cache"), 250);
+        File retrieved = new File(workingDirectory, "retrieved.apk");
+
+        cache.store("first", createFile(workingDirectory, "first.apk", 100));
+        cache.store("second", createFile(workingDirectory, "second.apk", 100));
+        new File(cache.getDirectory(), "first.apk").setLastModified(System.currentTimeMillis() - 10000);
+        new File(cache.getDirectory(), "second.apk").setLastModified(System.currentTimeMillis() - 5000);
+
+        // touching the first entry makes the second one the least recently used
+        assertTrue(cache.retrieve("first", retrieved));
+        cache.store("third", createFile(workingDirectory, "third.apk", 100));
+
+        assertTrue(cache.retrieve("first", retrieved));
+        assertFalse(cache.retrieve("second", retrieved));
+        assertTrue(cache.retrieve("third", retrieved));
+    }
+
+    @Test
+    public void fingerprintIsStable() {
+        String first = new Fingerprint().add("res/layout/main.xml").add(42L).toHex();
+        String second = new Fingerprint().add("res/layout/main.xml").add(42L).toHex();
+        String different = new Fingerprint().add("res/layout/main.xm").add("l").add(42L).toHex();
+
+        assertEquals(first, second);
+        assertFalse(first.equals(different));
+    }
+
+    private File createFile(File directory, String name, int size) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[size]);
+        outputStream.close();
+        return file;
+    }
+}
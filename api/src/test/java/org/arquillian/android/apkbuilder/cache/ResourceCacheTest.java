@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ResourceCacheTest {
+
+    @Test
+    public void restoresPackageAndSources() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        ResourceCache cache = new ResourceCache(new File(workingDirectory, "cache"), 1024 * 1024);
+
+        File resourcesApk = createFile(new File(workingDirectory, "resources.ap_"), 100);
+        File sources = new File(workingDirectory, "r");
+        createFile(new File(sources, "org/example/R.java"), 20);
+        cache.store("key", resourcesApk, sources);
+
+        File restoredApk = new File(workingDirectory, "restored.ap_");
+        File restoredSources = new File(workingDirectory, "restored-r");
+        createFile(new File(restoredSources, "stale/R.java"), 10);
+
+        assertFalse(cache.retrieve("other", restoredApk, restoredSources));
+        assertTrue(cache.retrieve("key", restoredApk, restoredSources));
+
+        assertEquals(100, restoredApk.length());
+        assertEquals(20, new File(restoredSources, "org/example/R.java").length());
+        assertFalse(new File(restoredSources, "stale").exists());
+    }
+
+    private File createFile(File file, int size) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[size]);
+        outputStream.close();
+        return file;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class InProcessJavacEngineTest {
+
+    @Test
+    public void compilesSources() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File source = write(new File(workingDirectory, "Hello.java"), "public class Hello { }");
+        File classes = mkdir(new File(workingDirectory, "classes"));
+
+        CompilationResult result = compile(source, classes, workingDirectory);
+
+        assertTrue(result.isSuccess());
+        assertTrue(new File(classes, "Hello.class").isFile());
+    }
+
+    @Test
+    public void reportsStructuredDiagnostics() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File source = write(new File(workingDirectory, "Broken.java"), "public class Broken {\n  int x = \"text\";\n}");
+        File classes = mkdir(new File(workingDirectory, "classes"));
+
+        CompilationResult result = compile(source, classes, workingDirectory);
+
+        assertFalse(result.isSuccess());
+        List<CompilerDiagnostic> errors = result.getErrors();
+        assertEquals(1, errors.size());
+        assertEquals(2, errors.get(0).getLine());
+        assertTrue(errors.get(0).getSource().endsWith("Broken.java"));
+    }
+
+    private CompilationResult compile(File source, File classes, File workingDirectory) throws IOException {
+        return InProcessJavacEngine.getInstance().compile(Collections.<String> emptyList(),
+            Collections.singletonList(source), Collections.<File> emptyList(), classes, workingDirectory);
+    }
+
+    private File mkdir(File directory) {
+        directory.mkdirs();
+        return directory;
+    }
+
+    private File write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        return file;
+    }
+}
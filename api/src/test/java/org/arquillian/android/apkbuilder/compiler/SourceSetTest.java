@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class SourceSetTest {
+
+    @Test
+    public void findsSourcesOfAllRoots() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File java = new File(workingDirectory, "java");
+        // enough subtrees to be walked in parallel
+        for (int i = 0; i < 200; i++) {
+            createFile(new File(java, "com/example/p" + (i % 20) + "/sub/Class" + i + ".java"));
+        }
+        createFile(new File(java, "com/example/README.txt"));
+        createFile(new File(workingDirectory, "gen/com/example/R.java"));
+
+        SourceSet sources = new SourceSet(java, new File(workingDirectory, "gen"), new File(workingDirectory, "missing"));
+        List<File> files = sources.getFiles();
+
+        assertEquals(201, files.size());
+        assertTrue(files.contains(new File(workingDirectory, "gen/com/example/R.java")));
+        List<File> sorted = new ArrayList<File>(files);
+        Collections.sort(sorted);
+        assertEquals(sorted, files);
+    }
+
+    @Test
+    public void findsSourceAddedRightAfterScan() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File java = new File(workingDirectory, "java");
+        File pkg = new File(java, "com/example");
+        createFile(new File(pkg, "A.java"));
+
+        SourceSet sources = new SourceSet(java);
+        assertEquals(1, sources.getFiles().size());
+
+        // the directory looks unchanged on file systems with coarse timestamps
+        long modified = pkg.lastModified();
+        createFile(new File(pkg, "B.java"));
+        pkg.setLastModified(modified);
+
+        assertEquals(2, sources.getFiles().size());
+    }
+
+    @Test
+    public void writesArgumentFile() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File java = new File(workingDirectory, "java");
+        createFile(new File(java, "with space/A.java"));
+
+        File argumentFile = new File(workingDirectory, "sources.txt");
+        SourceSet.writeArgumentFile(new SourceSet(java).getFiles(), argumentFile);
+
+        List<String> lines = Files.readAllLines(argumentFile.toPath(), Charset.forName("UTF-8"));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("\"") && lines.get(0).endsWith("with space/A.java\""));
+        assertFalse(lines.get(0).contains("\\"));
+    }
+
+    private static void createFile(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), "class A {}".getBytes("UTF-8"));
+    }
+}
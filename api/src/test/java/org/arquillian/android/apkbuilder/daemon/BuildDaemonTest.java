@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.arquillian.android.apkbuilder.ApkBuilder;
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.FakeSdk;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.jboss.shrinkwrap.api.GenericArchive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class BuildDaemonTest {
+
+    @Test
+    public void buildsDirectoriesAndArchives() throws IOException {
+        BuildDaemon daemon = new TestDaemon(60000);
+        daemon.start();
+        try {
+            BuildDaemonClient client = new BuildDaemonClient(daemon.getPort(), daemon.getTokenFile());
+
+            File directory = FileUtils.prepareWorkingDirectory();
+            write(new File(directory, "AndroidManifest.xml"), "<manifest />");
+            assertReportsMissingAapt(client.build("directory", directory));
+
+            GenericArchive archive = ShrinkWrap.create(GenericArchive.class, "archive")
+                .add(new StringAsset("<manifest />"), "AndroidManifest.xml");
+            assertReportsMissingAapt(client.build(archive));
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void deletesWorkingDirectories() throws Exception {
+        final FakeSdk sdk = new FakeSdk();
+        File project = sdk.createProject();
+        BuildDaemon daemon = new BuildDaemon(0, 60000, 2) {
+            @Override
+            protected void configure(ApkBuilder.Configuration configuration) {
+                sdk.configure(configuration);
+            }
+        };
+        BuildDaemon failingDaemon = new TestDaemon(60000);
+        daemon.start();
+        failingDaemon.start();
+        try {
+            Set<String> temporaryFiles = temporaryFiles();
+
+            BuildResult result = new BuildDaemonClient(daemon.getPort(), daemon.getTokenFile()).build("test", project);
+            assertTrue(result.isSuccess());
+            assertTrue(result.getApk().isFile());
+            assertReportsMissingAapt(new BuildDaemonClient(failingDaemon.getPort(), failingDaemon.getTokenFile()).build("test", project));
+
+            // both the successful and the failed build left nothing behind but the APK
+            assertEquals(temporaryFiles, temporaryFiles());
+        } finally {
+            daemon.stop();
+            failingDaemon.stop();
+        }
+    }
+
+    @Test
+    public void deletesApksWhenStopped() throws Exception {
+        final FakeSdk sdk = new FakeSdk();
+        BuildDaemon daemon = new BuildDaemon(0, 60000, 1) {
+            @Override
+            protected void configure(ApkBuilder.Configuration configuration) {
+                sdk.configure(configuration);
+            }
+        };
+        daemon.start();
+        File outputDirectory = daemon.getTokenFile().getParentFile();
+        BuildResult result;
+        try {
+            result = new BuildDaemonClient(daemon.getPort(), daemon.getTokenFile()).build("test", sdk.createProject());
+            assertTrue(result.getApk().isFile());
+        } finally {
+            daemon.stop();
+        }
+
+        assertFalse(result.getApk().exists());
+        assertFalse(outputDirectory.exists());
+    }
+
+    @Test
+    public void rejectsRequestsWithoutToken() throws IOException {
+        BuildDaemon daemon = new TestDaemon(60000);
+        daemon.start();
+        try {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"),
+                    Files.getPosixFilePermissions(daemon.getTokenFile().toPath()));
+            }
+
+            File wrongToken = new File(FileUtils.prepareWorkingDirectory(), "token");
+            write(wrongToken, "guessed");
+            File directory = FileUtils.prepareWorkingDirectory();
+            write(new File(directory, "AndroidManifest.xml"), "<manifest />");
+
+            BuildResult result = new BuildDaemonClient(daemon.getPort(), wrongToken).build("directory", directory);
+
+            assertFalse(result.isSuccess());
+            assertTrue(result.getFailure().getMessage().contains("Invalid daemon token"));
+            assertTrue(result.getStageResults().isEmpty());
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void readsOnlyAsManyRequestsAsBuildsRun() throws Exception {
+        BuildDaemon daemon = new TestDaemon(60000, 1);
+        daemon.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Socket idle = new Socket(InetAddress.getByName("127.0.0.1"), daemon.getPort());
+        try {
+            final BuildDaemonClient client = new BuildDaemonClient(daemon.getPort(), daemon.getTokenFile());
+            final File directory = FileUtils.prepareWorkingDirectory();
+            write(new File(directory, "AndroidManifest.xml"), "<manifest />");
+            Future<BuildResult> result = executor.submit(new Callable<BuildResult>() {
+                @Override
+                public BuildResult call() throws IOException {
+                    return client.build("queued", directory);
+                }
+            });
+
+            // the only connection thread waits for the request of the idle connection
+            Thread.sleep(300);
+            assertFalse(result.isDone());
+
+            idle.close();
+            assertReportsMissingAapt(result.get(10, TimeUnit.SECONDS));
+        } finally {
+            idle.close();
+            executor.shutdownNow();
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void stopsWhenIdle() throws Exception {
+        BuildDaemon daemon = new TestDaemon(100);
+        daemon.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!daemon.isStopped() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(daemon.isStopped());
+    }
+
+    private void assertReportsMissingAapt(BuildResult result) {
+        assertFalse(result.isSuccess());
+        assertTrue(result.getFailure().getMessage().contains("compileResources"));
+        assertEquals("compileResources", result.getStageResults().get(0).getName());
+        assertFalse(result.getStageResults().get(0).isSuccess());
+    }
+
+    private static Set<String> temporaryFiles() {
+        return new TreeSet<String>(Arrays.asList(new File(System.getProperty("java.io.tmpdir")).list()));
+    }
+
+    private void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    private static class TestDaemon extends BuildDaemon {
+        public TestDaemon(long idleTimeout) {
+            this(idleTimeout, 2);
+        }
+
+        public TestDaemon(long idleTimeout, int maxConcurrentBuilds) {
+            super(0, idleTimeout, maxConcurrentBuilds);
+        }
+
+        @Override
+        protected void configure(ApkBuilder.Configuration configuration) {
+            configuration
+                .setAaptPath("/nonexistent/aapt")
+                .setDxPath("/nonexistent/dx")
+                .setAndroidJarPath("/nonexistent/android.jar")
+                .setParallelism(1);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.dex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class PreDexCacheTest {
+
+    @Test
+    public void groupsByPackage() {
+        SortedMap<String, Asset> classes = new TreeMap<String, Asset>();
+        classes.put("org/example/First.class", new StringAsset("first"));
+        classes.put("org/example/First$1.class", new StringAsset("inner"));
+        classes.put("org/example/test/Second.class", new StringAsset("second"));
+        classes.put("Default.class", new StringAsset("default"));
+        classes.put("org/example/README", new StringAsset("not a class"));
+
+        List<ClassGroup> groups = ClassGroup.byPackage(classes);
+
+        assertEquals(3, groups.size());
+        assertEquals("", groups.get(0).getName());
+        assertEquals("org/example", groups.get(1).getName());
+        assertEquals(2, groups.get(1).getClasses().size());
+        assertEquals("org/example/test", groups.get(2).getName());
+    }
+
+    @Test
+    public void keyDependsOnlyOnGroupContent() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        PreDexCache cache = new PreDexCache(new File(workingDirectory, "cache"), 1024);
+        File dx = new File(workingDirectory, "dx");
+
+        SortedMap<String, Asset> classes = new TreeMap<String, Asset>();
+        classes.put("org/example/First.class", new StringAsset("first"));
+        classes.put("org/other/Second.class", new StringAsset("second"));
+        List<ClassGroup> before = ClassGroup.byPackage(classes);
+
+        classes.put("org/other/Second.class", new StringAsset("changed"));
+        List<ClassGroup> after = ClassGroup.byPackage(classes);
+
+        assertEquals(cache.key(before.get(0), dx), cache.key(after.get(0), dx));
+        assertNotEquals(cache.key(before.get(1), dx), cache.key(after.get(1), dx));
+    }
+
+    @Test
+    public void readsClassDirectory() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File classDirectory = new File(workingDirectory, "class");
+        new File(classDirectory, "org/example").mkdirs();
+        new File(classDirectory, "org/example/First.class").createNewFile();
+        new File(classDirectory, "Default.class").createNewFile();
+
+        List<ClassGroup> groups = ClassGroup.byPackage(classDirectory);
+
+        assertEquals(2, groups.size());
+        assertEquals("org/example/First.class", groups.get(1).getClasses().firstKey());
+        assertFalse(ClassGroup.byPackage(new File(workingDirectory, "missing")).iterator().hasNext());
+    }
+}
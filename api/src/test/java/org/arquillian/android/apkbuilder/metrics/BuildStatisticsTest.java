@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.arquillian.android.apkbuilder.ApkBuilder;
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.FakeSdk;
+import org.arquillian.android.apkbuilder.process.ProcessResult;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.Command;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class BuildStatisticsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i < 100 ? 10 : 5000);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5000, snapshot.getMax());
+        // buckets are about 20 % wide
+        assertTrue(snapshot.getP50() >= 10 && snapshot.getP50() <= 12);
+        assertTrue(snapshot.getP99() <= 12);
+        assertEquals(0, new Histogram().snapshot().getP99());
+    }
+
+    @Test
+    public void notifiesListenersAndAggregatesMetrics() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        RecordingListener recorder = new RecordingListener();
+        BuildStatistics statistics = BuildStatistics.getInstance();
+        statistics.reset();
+
+        ApkBuilder builder = ApkBuilder.init("test", sdk.createProject(), true);
+        sdk.configure(builder.getConfiguration())
+            .addBuildListener(recorder)
+            .addBuildListener(statistics);
+
+        BuildResult result = builder.execute();
+
+        assertTrue(result.isSuccess());
+        assertEquals("buildStarted", recorder.events.get(0));
+        assertEquals("buildFinished", recorder.events.get(recorder.events.size() - 1));
+        assertTrue(recorder.events.contains("stageFinished:compileDex"));
+        assertTrue(recorder.events.contains("processFinished:compileResources"));
+
+        assertEquals(2, result.getMetrics().get(BuildMetrics.PROCESSES));
+        assertTrue(result.getMetrics().get(BuildMetrics.BYTES_WRITTEN) > 0);
+
+        assertEquals(1, statistics.getBuilds());
+        assertEquals(1, statistics.getStageTimes().get("finalizeApk").getCount());
+        assertEquals(Long.valueOf(2), statistics.getCounters().get(BuildMetrics.PROCESSES));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+            new ObjectName(BuildStatistics.OBJECT_NAME), "Builds"));
+    }
+
+    private static class RecordingListener implements BuildListener {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void buildStarted(long execution, String build) {
+            events.add("buildStarted");
+        }
+
+        @Override
+        public void stagingFinished(long execution, String build, long start, long duration, long threadId) {
+            events.add("stagingFinished");
+        }
+
+        @Override
+        public void stageStarted(long execution, String build, String stage) {
+            events.add("stageStarted:" + stage);
+        }
+
+        @Override
+        public void stageFinished(long execution, String build, StageResult result) {
+            events.add("stageFinished:" + result.getName());
+        }
+
+        @Override
+        public void processStarted(long execution, String build, String stage, Command command) {
+            events.add("processStarted:" + stage);
+        }
+
+        @Override
+        public void processFinished(long execution, String build, String stage, ProcessResult result) {
+            events.add("processFinished:" + stage);
+        }
+
+        @Override
+        public void buildFinished(long execution, BuildResult result) {
+            events.add("buildFinished");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Scanner;
+
+import org.arquillian.android.apkbuilder.ApkBuilder;
+import org.arquillian.android.apkbuilder.BuildResult;
+import org.arquillian.android.apkbuilder.FakeSdk;
+import org.arquillian.android.apkbuilder.stage.StageResult;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ChromeTraceListenerTest {
+
+    @Test
+    public void writesTraceOfEveryBuild() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File directory = FileUtils.prepareWorkingDirectory();
+        ApkBuilder builder = ApkBuilder.init("traced", sdk.createProject(), true);
+        // staged before the listener existed
+        Thread.sleep(10);
+        ChromeTraceListener trace = ChromeTraceListener.perBuild(directory);
+        sdk.configure(builder.getConfiguration()).addBuildListener(trace);
+
+        assertTrue(builder.execute().isSuccess());
+
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        String json = read(files[0]);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("\"args\":{\"name\":\"traced\"}"));
+        // the staging is the earliest event and all events share the same clock
+        assertTrue(json.contains("\"name\":\"staging\",\"cat\":\"staging\",\"ph\":\"X\",\"ts\":0,"));
+        assertFalse(json.contains("\"ts\":-"));
+        assertTrue(json.contains("\"name\":\"compileDex\",\"cat\":\"stage\",\"ph\":\"B\""));
+        assertTrue(json.contains("\"name\":\"dx\",\"cat\":\"process\",\"ph\":\"B\""));
+        assertTrue(json.contains("\"exitCode\":0"));
+        assertEquals(count(json, "\"ph\":\"B\""), count(json, "\"ph\":\"E\""));
+    }
+
+    @Test
+    public void batchCollectsAllBuilds() throws Exception {
+        FakeSdk sdk = new FakeSdk();
+        File file = new File(FileUtils.prepareWorkingDirectory(), "builds.json");
+        ChromeTraceListener trace = ChromeTraceListener.batch(file);
+
+        for (int i = 0; i < 2; i++) {
+            ApkBuilder builder = ApkBuilder.init("build" + i, sdk.createProject(), true);
+            sdk.configure(builder.getConfiguration()).addBuildListener(trace);
+            assertTrue(builder.execute().isSuccess());
+        }
+        trace.close();
+
+        String json = read(file);
+        assertTrue(json.contains("\"pid\":1,"));
+        assertTrue(json.contains("\"pid\":2,"));
+        assertEquals(2, count(json, "\"name\":\"process_name\""));
+    }
+
+    @Test
+    public void separatesBuildsOfTheSameName() throws Exception {
+        File directory = FileUtils.prepareWorkingDirectory();
+        ChromeTraceListener trace = ChromeTraceListener.perBuild(directory);
+
+        // two executions of the same name interleave
+        trace.buildStarted(1, "test");
+        trace.buildStarted(2, "test");
+        trace.stageStarted(1, "test", "first");
+        trace.stageStarted(2, "test", "second");
+        trace.stageFinished(1, "test", new StageResult("first", true, true, 0, ""));
+        trace.buildFinished(1, result());
+        trace.stageFinished(2, "test", new StageResult("second", true, true, 0, ""));
+        trace.buildFinished(2, result());
+
+        String first = read(new File(directory, "test-1.trace.json"));
+        String second = read(new File(directory, "test-2.trace.json"));
+        assertTrue(first.contains("\"name\":\"first\""));
+        assertFalse(first.contains("\"name\":\"second\""));
+        assertTrue(second.contains("\"name\":\"second\""));
+        assertFalse(second.contains("\"name\":\"first\""));
+        assertEquals(2, count(first, "\"ph\":\"E\""));
+        assertEquals(2, count(second, "\"ph\":\"E\""));
+    }
+
+    private static BuildResult result() {
+        return new BuildResult("test", null, null, false, 0, Collections.<StageResult> emptyList());
+    }
+
+    private static String read(File file) throws Exception {
+        Scanner scanner = new Scanner(file, "UTF-8");
+        try {
+            return scanner.useDelimiter("\\A").next();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private static int count(String text, String pattern) {
+        int count = 0;
+        for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
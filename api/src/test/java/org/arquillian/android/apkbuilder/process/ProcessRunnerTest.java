@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.arquillian.android.apkbuilder.util.Command;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ProcessRunnerTest {
+
+    @Test
+    public void capturesOutput() throws IOException {
+        ProcessResult result = new ProcessRunner().run(shell("echo out; echo err >&2"), 10000);
+
+        assertEquals(0, result.getExitCode());
+        assertTrue(result.getOutput().contains("out"));
+        assertTrue(result.getOutput().contains("err"));
+    }
+
+    @Test
+    public void failsOnNonZeroExitCode() throws IOException {
+        try {
+            new ProcessRunner().run(shell("echo broken resource; exit 3"), 10000);
+            fail("Failure of the process wasn't reported!");
+        } catch (ProcessFailedException e) {
+            assertEquals(3, e.getResult().getExitCode());
+            assertTrue(e.getMessage().contains("broken resource"));
+        }
+    }
+
+    @Test
+    public void failsOnTimeout() throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            new ProcessRunner().run(shell("exec sleep 60"), 200);
+            fail("Timeout wasn't reported!");
+        } catch (ProcessFailedException e) {
+            assertTrue(e.getResult().isTimedOut());
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void succeedsWhenChildKeepsOutputOpen() throws IOException {
+        long start = System.currentTimeMillis();
+        ProcessResult result = new ProcessRunner().run(shell("echo started; sleep 60 &"), 5000);
+
+        assertEquals(0, result.getExitCode());
+        assertTrue(result.getOutput().contains("started"));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void failsOnTimeoutAfterOutputIsClosed() throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            new ProcessRunner().run(shell("exec >&- 2>&-; exec sleep 60"), 200);
+            fail("Timeout wasn't reported!");
+        } catch (ProcessFailedException e) {
+            assertTrue(e.getResult().isTimedOut());
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void keepsEndOfLongOutput() throws IOException {
+        ProcessResult result = new ProcessRunner(100).run(shell("i=0; while [ $i -lt 100 ]; do echo line$i; i=$((i+1)); done"),
+            10000);
+
+        assertTrue(result.getOutput().startsWith("[... "));
+        assertTrue(result.getOutput().endsWith("line99\n"));
+    }
+
+    private Command shell(String script) {
+        return new Command().add("/bin/sh").add("-c").add(script);
+    }
+}
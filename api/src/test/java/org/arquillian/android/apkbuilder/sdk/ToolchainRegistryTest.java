@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ToolchainRegistryTest {
+
+    @Test
+    public void resolvesToolchainOnce() throws IOException {
+        File sdk = createSdk();
+        ToolchainRegistry registry = new ToolchainRegistry();
+
+        Toolchain toolchain = registry.getToolchain(sdk.getPath(), 17);
+        assertEquals(new File(sdk, "build-tools/19.0.0/aapt").getAbsolutePath(), toolchain.getAaptPath());
+        assertEquals(new File(sdk, "platforms/android-17/android.jar").getAbsolutePath(), toolchain.getAndroidJarPath());
+        assertEquals(new File(sdk, "tools/zipalign").getAbsolutePath(), toolchain.getZipalignPath());
+
+        assertSame(toolchain, registry.getToolchain(sdk.getPath(), 17));
+    }
+
+    @Test
+    public void resolvesAgainWhenSdkChanges() throws IOException {
+        File sdk = createSdk();
+        ToolchainRegistry registry = new ToolchainRegistry();
+
+        Toolchain toolchain = registry.getToolchain(sdk.getPath(), 17);
+
+        // installing new build tools modifies the build-tools directory
+        File buildTools = new File(sdk, "build-tools");
+        createFile(new File(buildTools, "18.0.0/aapt"));
+        buildTools.setLastModified(buildTools.lastModified() - 10000);
+
+        Toolchain newToolchain = registry.getToolchain(sdk.getPath(), 17);
+        assertNotSame(toolchain, newToolchain);
+        assertEquals(new File(sdk, "build-tools/18.0.0/aapt").getAbsolutePath(), newToolchain.getAaptPath());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void reportsMissingTool() throws IOException {
+        new ToolchainRegistry().getToolchain(createSdk().getPath(), 17).getLlvmPath();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDirectoryWithoutSdk() {
+        new ToolchainRegistry().getToolchain(FileUtils.prepareWorkingDirectory().getPath(), 17);
+    }
+
+    private File createSdk() throws IOException {
+        File sdk = FileUtils.prepareWorkingDirectory();
+
+        File platform = new File(sdk, "platforms/android-17");
+        write(new File(platform, "source.properties"), "Platform.Version=4.2\nAndroidVersion.ApiLevel=17\n");
+        createFile(new File(platform, "android.jar"));
+        createFile(new File(sdk, "build-tools/19.0.0/aapt"));
+        createFile(new File(sdk, "build-tools/19.0.0/dx"));
+        createFile(new File(sdk, "tools/zipalign"));
+        return sdk;
+    }
+
+    private void createFile(File file) throws IOException {
+        write(file, "");
+    }
+
+    private void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+}
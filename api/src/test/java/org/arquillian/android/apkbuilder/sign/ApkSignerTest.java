@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.sign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.arquillian.android.apkbuilder.zip.ApkWriter;
+import org.arquillian.android.apkbuilder.zip.ZipReader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ApkSignerTest {
+
+    private static File keystore;
+
+    @BeforeClass
+    public static void createKeystore() throws Exception {
+        keystore = new File(FileUtils.prepareWorkingDirectory(), "test.keystore");
+
+        Process process = new ProcessBuilder(
+            System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+            "-genkeypair", "-keystore", keystore.getAbsolutePath(), "-storepass", "android", "-keypass", "android",
+            "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=Test")
+            .redirectErrorStream(true)
+            .start();
+        drain(process.getInputStream());
+        assertEquals(0, process.waitFor());
+    }
+
+    @Test
+    public void signsByJarScheme() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File unsigned = createApk(new File(workingDirectory, "unsigned.apk"));
+        File signed = new File(workingDirectory, "signed.apk");
+
+        // the same way the builder copies the entries packaged by aapt
+        ZipReader zipReader = new ZipReader(unsigned);
+        FileOutputStream outputStream = new FileOutputStream(signed);
+        try {
+            ApkWriter writer = new ApkWriter(outputStream,
+                new ApkSigner(signingKey(), "SHA-256", "SHA256withRSA", false).newV1Signer(), null,
+                ApkWriter.DEFAULT_ALIGNMENT);
+            for (ZipReader.Entry entry : zipReader.getEntries()) {
+                writer.copyEntry(zipReader, entry);
+            }
+            writer.finish();
+        } finally {
+            outputStream.close();
+            zipReader.close();
+        }
+
+        JarFile jarFile = new JarFile(signed, true);
+        try {
+            JarEntry entry = jarFile.getJarEntry("classes.dex");
+            drain(jarFile.getInputStream(entry));
+            assertNotNull(entry.getCodeSigners());
+
+            // compression method and compressed data chosen by aapt are preserved
+            assertEquals(ZipEntry.STORED, jarFile.getEntry("res/drawable/image.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(unsignedCompressedSize(unsigned, "classes.dex"), entry.getCompressedSize());
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    @Test
+    public void signsByV2Scheme() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File unsigned = createApk(new File(workingDirectory, "unsigned.apk"));
+        File signed = new File(workingDirectory, "signed.apk");
+
+        new V2SchemeSigner(signingKey(), Arrays.asList("SHA-256", "SHA-512")).sign(unsigned, signed);
+
+        // signing block is inserted right before the central directory and the archive stays readable
+        ZipFile zipFile = new ZipFile(signed);
+        assertEquals(2, Collections.list(zipFile.entries()).size());
+        zipFile.close();
+
+        RandomAccessFile file = new RandomAccessFile(signed, "r");
+        try {
+            file.seek(file.length() - 6);
+            long centralDirectoryOffset = Integer.reverseBytes(file.readInt()) & 0xffffffffL;
+            byte[] magic = new byte[16];
+            file.seek(centralDirectoryOffset - 16);
+            file.readFully(magic);
+            assertEquals("APK Sig Block 42", new String(magic, "US-ASCII"));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void reusesLoadedKeys() throws IOException {
+        assertSame(signingKey(), signingKey());
+    }
+
+    private SigningKey signingKey() throws IOException {
+        return SigningKey.load(keystore, "android", "test", "android");
+    }
+
+    private static long unsignedCompressedSize(File apk, String name) throws IOException {
+        ZipFile zipFile = new ZipFile(apk);
+        try {
+            return zipFile.getEntry(name).getCompressedSize();
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private File createApk(File file) throws IOException {
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(file));
+
+        byte[] image = new byte[100];
+        CRC32 crc = new CRC32();
+        crc.update(image);
+        ZipEntry stored = new ZipEntry("res/drawable/image.png");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(image.length);
+        stored.setCompressedSize(image.length);
+        stored.setCrc(crc.getValue());
+        zipOutputStream.putNextEntry(stored);
+        zipOutputStream.write(image);
+        zipOutputStream.closeEntry();
+
+        zipOutputStream.putNextEntry(new ZipEntry("classes.dex"));
+        zipOutputStream.write("dex\n035".getBytes("US-ASCII"));
+        zipOutputStream.closeEntry();
+
+        zipOutputStream.close();
+        return file;
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (inputStream.read(buffer) != -1) {
+        }
+        inputStream.close();
+    }
+}
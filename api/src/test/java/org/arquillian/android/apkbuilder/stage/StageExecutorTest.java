@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class StageExecutorTest {
+
+    @Test
+    public void skipsUnchangedStage() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        final File input = new File(workingDirectory, "input.txt");
+        final File output = new File(workingDirectory, "output.txt");
+        StageExecutor executor = new StageExecutor(new File(workingDirectory, "state"), true);
+        Stage stage = copyStage(input, output);
+
+        write(input, "first");
+        assertTrue(executor.execute(stage));
+        assertFalse(executor.execute(stage));
+
+        write(input, "second");
+        assertTrue(executor.execute(stage));
+        assertFalse(executor.execute(stage));
+    }
+
+    @Test
+    public void reexecutesWhenOutputIsRemoved() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File input = new File(workingDirectory, "input.txt");
+        File output = new File(workingDirectory, "output.txt");
+        StageExecutor executor = new StageExecutor(new File(workingDirectory, "state"), true);
+        Stage stage = copyStage(input, output);
+
+        write(input, "content");
+        assertTrue(executor.execute(stage));
+
+        output.delete();
+        assertTrue(executor.execute(stage));
+    }
+
+    @Test
+    public void alwaysExecutesWhenNotIncremental() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File input = new File(workingDirectory, "input.txt");
+        File output = new File(workingDirectory, "output.txt");
+        StageExecutor executor = new StageExecutor(new File(workingDirectory, "state"), false);
+        Stage stage = copyStage(input, output);
+
+        write(input, "content");
+        assertTrue(executor.execute(stage));
+        assertTrue(executor.execute(stage));
+    }
+
+    @Test
+    public void recordsResults() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File input = new File(workingDirectory, "input.txt");
+        File output = new File(workingDirectory, "output.txt");
+        StageExecutor executor = new StageExecutor(new File(workingDirectory, "state"), true);
+        Stage stage = copyStage(input, output);
+
+        write(input, "content");
+        executor.execute(stage);
+        executor.execute(stage);
+
+        List<StageResult> results = executor.getResults();
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isExecuted());
+        assertEquals("copied\n", results.get(0).getOutput());
+        assertFalse(results.get(1).isExecuted());
+        assertTrue(results.get(1).isSuccess());
+    }
+
+    private Stage copyStage(final File input, final File output) {
+        return new Stage("copy") {
+            @Override
+            public void execute() throws IOException {
+                FileUtils.copyFile(input, output);
+                appendOutput("copied\n");
+            }
+        }.input(input).output(output);
+    }
+
+    private void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+}
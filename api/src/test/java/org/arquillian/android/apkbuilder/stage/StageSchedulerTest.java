@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class StageSchedulerTest {
+
+    @Test
+    public void runsIndependentStagesConcurrently() throws IOException {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final List<String> finished = new CopyOnWriteArrayList<String>();
+
+        Stage first = waitingStage("first", bothStarted, finished);
+        Stage second = waitingStage("second", bothStarted, finished);
+        Stage join = recordingStage("join", finished).dependsOn(first, second);
+
+        scheduler(2).run(Arrays.asList(join, first, second));
+
+        assertEquals(3, finished.size());
+        assertEquals("join", finished.get(2));
+    }
+
+    @Test
+    public void runsSequentiallyInDependencyOrder() throws IOException {
+        List<String> finished = new CopyOnWriteArrayList<String>();
+
+        Stage first = recordingStage("first", finished);
+        Stage second = recordingStage("second", finished).dependsOn(first);
+
+        scheduler(1).run(Arrays.asList(second, first));
+
+        assertEquals(Arrays.asList("first", "second"), finished);
+    }
+
+    @Test
+    public void reportsFailedStage() throws IOException {
+        Stage failing = new Stage("failing") {
+            @Override
+            public void execute() throws IOException {
+                throw new IOException("expected");
+            }
+        };
+
+        try {
+            scheduler(2).run(Collections.singletonList(failing));
+            fail();
+        } catch (StageFailedException e) {
+            assertEquals("failing", e.getStageName());
+        }
+    }
+
+    private StageScheduler scheduler(int parallelism) {
+        File stateDirectory = new File(FileUtils.prepareWorkingDirectory(), "state");
+        return new StageScheduler(new StageExecutor(stateDirectory, false), parallelism);
+    }
+
+    private Stage recordingStage(final String name, final List<String> finished) {
+        return new Stage(name) {
+            @Override
+            public void execute() throws IOException {
+                finished.add(name);
+            }
+        };
+    }
+
+    private Stage waitingStage(final String name, final CountDownLatch bothStarted, final List<String> finished) {
+        return new Stage(name) {
+            @Override
+            public void execute() throws IOException {
+                bothStarted.countDown();
+                try {
+                    // would time out if the stages ran sequentially
+                    assertTrue(bothStarted.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+                finished.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class FileUtilsTest {
+
+    @Test
+    public void copiesDirectoryTree() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File source = new File(workingDirectory, "source");
+        // enough files to be copied in parallel
+        for (int i = 0; i < 100; i++) {
+            createFile(new File(source, "res/values-" + (i % 10) + "/strings" + i + ".xml"), i);
+        }
+        new File(source, "empty").mkdirs();
+
+        File destination = new File(workingDirectory, "destination");
+        FileUtils.copyDirectory(source, destination);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, new File(destination, "res/values-" + (i % 10) + "/strings" + i + ".xml").length());
+        }
+        assertEquals(0, new File(destination, "empty").list().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesExistingDestination() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        new File(workingDirectory, "source").mkdirs();
+        FileUtils.copyDirectory(new File(workingDirectory, "source"), workingDirectory);
+    }
+
+    private void createFile(File file, int size) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[size]);
+        outputStream.close();
+    }
+}
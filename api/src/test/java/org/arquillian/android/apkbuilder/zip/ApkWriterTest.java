@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.arquillian.android.apkbuilder.sign.ApkSigner;
+import org.arquillian.android.apkbuilder.sign.SigningKey;
+import org.arquillian.android.apkbuilder.sign.V2SchemeSigner;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ApkWriterTest {
+
+    private static SigningKey signingKey;
+
+    @BeforeClass
+    public static void createKeystore() throws Exception {
+        File keystore = new File(FileUtils.prepareWorkingDirectory(), "test.keystore");
+
+        Process process = new ProcessBuilder(
+            System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+            "-genkeypair", "-keystore", keystore.getAbsolutePath(), "-storepass", "android", "-keypass", "android",
+            "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=Test")
+            .redirectErrorStream(true)
+            .start();
+        drain(process.getInputStream());
+        assertEquals(0, process.waitFor());
+
+        signingKey = SigningKey.load(keystore, "android", "test", "android");
+    }
+
+    @Test
+    public void writesSignedAndAlignedApk() throws IOException {
+        File apk = new File(FileUtils.prepareWorkingDirectory(), "final.apk");
+        byte[] dex = "dex\n035 some code".getBytes("US-ASCII");
+        byte[] raw = new byte[333];
+        Arrays.fill(raw, (byte) 7);
+
+        FileOutputStream outputStream = new FileOutputStream(apk);
+        try {
+            ApkWriter writer = new ApkWriter(outputStream,
+                new ApkSigner(signingKey, "SHA-256", "SHA256withRSA", true).newV1Signer(),
+                new V2SchemeSigner(signingKey, Arrays.asList("SHA-256")), ApkWriter.DEFAULT_ALIGNMENT);
+            writer.writeDeflated("classes.dex", new ByteArrayInputStream(dex));
+            writer.writeStored("res/raw/odd_name.bin", raw);
+            writer.finish();
+        } finally {
+            outputStream.close();
+        }
+
+        JarFile jarFile = new JarFile(apk, true);
+        try {
+            JarEntry dexEntry = jarFile.getJarEntry("classes.dex");
+            assertArrayEquals(dex, read(jarFile.getInputStream(dexEntry)));
+            assertNotNull(dexEntry.getCodeSigners());
+
+            JarEntry rawEntry = jarFile.getJarEntry("res/raw/odd_name.bin");
+            assertEquals(ZipEntry.STORED, rawEntry.getMethod());
+            assertArrayEquals(raw, read(jarFile.getInputStream(rawEntry)));
+            assertNotNull(rawEntry.getCodeSigners());
+        } finally {
+            jarFile.close();
+        }
+
+        byte[] content = read(new FileInputStream(apk));
+        int header = indexOf(content, "res/raw/odd_name.bin".getBytes("US-ASCII")) - 30;
+        int extraLength = (content[header + 28] & 0xff) | (content[header + 29] & 0xff) << 8;
+        assertEquals(0, (header + 30 + "res/raw/odd_name.bin".length() + extraLength) % ApkWriter.DEFAULT_ALIGNMENT);
+
+        assertTrue(indexOf(content, "APK Sig Block 42".getBytes("US-ASCII")) > header);
+    }
+
+    @Test
+    public void signsSameAsSeparateV2Signer() throws IOException {
+        File workingDirectory = FileUtils.prepareWorkingDirectory();
+        File unsigned = new File(workingDirectory, "v1.apk");
+        File singlePass = new File(workingDirectory, "single-pass.apk");
+        File twoPass = new File(workingDirectory, "two-pass.apk");
+        V2SchemeSigner v2Signer = new V2SchemeSigner(signingKey, Arrays.asList("SHA-256", "SHA-512"));
+
+        write(unsigned, null);
+        write(singlePass, v2Signer);
+        v2Signer.sign(unsigned, twoPass);
+
+        assertArrayEquals(read(new FileInputStream(twoPass)), read(new FileInputStream(singlePass)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateEntries() throws IOException {
+        ApkWriter writer = new ApkWriter(new ByteArrayOutputStream(), null, null, ApkWriter.DEFAULT_ALIGNMENT);
+        writer.writeStored("classes.dex", new byte[1]);
+        writer.writeStored("classes.dex", new byte[1]);
+    }
+
+    private void write(File apk, V2SchemeSigner v2Signer) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(apk);
+        try {
+            ApkWriter writer = new ApkWriter(outputStream,
+                new ApkSigner(signingKey, "SHA-256", "SHA256withRSA", true).newV1Signer(), v2Signer,
+                ApkWriter.DEFAULT_ALIGNMENT);
+            writer.writeStored("resources.arsc", new byte[2 * 1024 * 1024 + 5]);
+            writer.writeDeflated("classes.dex", new ByteArrayInputStream(new byte[10000]));
+            writer.finish();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static int indexOf(byte[] content, byte[] pattern) {
+        outer: for (int i = 0; i <= content.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (content[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        read(inputStream);
+    }
+}
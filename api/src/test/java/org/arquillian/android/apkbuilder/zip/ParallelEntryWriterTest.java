@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.ByteArrayAsset;
+import org.jboss.shrinkwrap.api.asset.FileAsset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ParallelEntryWriterTest {
+
+    @Test
+    public void storesCompressedMedia() {
+        CompressionPolicy policy = new CompressionPolicy(Arrays.asList(".PNG", "ogg"));
+
+        assertEquals(ZipEntry.STORED, policy.getMethod("assets/image.png"));
+        assertEquals(ZipEntry.STORED, policy.getMethod("assets/music.OGG"));
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod("assets/text.txt"));
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod("assets/images.png/README"));
+        assertEquals(ZipEntry.DEFLATED, policy.getMethod("assets/.png"));
+    }
+
+    @Test
+    public void outputDoesNotDependOnThreads() throws IOException {
+        File directory = FileUtils.prepareWorkingDirectory();
+        // large enough to be streamed instead of compressed in memory
+        File large = new File(directory, "large.ogg");
+        RandomAccessFile file = new RandomAccessFile(large, "rw");
+        file.setLength(ParallelEntryWriter.LARGE_ENTRY_SIZE + 1);
+        file.close();
+
+        SortedMap<String, Asset> entries = new TreeMap<String, Asset>();
+        for (int i = 0; i < 50; i++) {
+            byte[] content = new byte[1000 * i];
+            Arrays.fill(content, (byte) i);
+            entries.put("assets/file" + i + (i % 3 == 0 ? ".png" : ".txt"), new ByteArrayAsset(content));
+        }
+        entries.put("assets/large.ogg", new FileAsset(large));
+
+        byte[] sequential = write(entries, 1);
+        assertArrayEquals(sequential, write(entries, 4));
+        assertArrayEquals(sequential, write(entries, 16));
+
+        File apk = new File(directory, "test.apk");
+        Files.write(apk.toPath(), sequential);
+        ZipFile zipFile = new ZipFile(apk);
+        try {
+            assertEquals(51, zipFile.size());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("assets/file3.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("assets/file4.txt").getMethod());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("assets/large.ogg").getMethod());
+            assertEquals(large.length(), zipFile.getEntry("assets/large.ogg").getSize());
+
+            InputStream inputStream = zipFile.getInputStream(zipFile.getEntry("assets/file49.txt"));
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read;
+            while ((read = inputStream.read()) != -1) {
+                content.write(read);
+            }
+            inputStream.close();
+            assertEquals(49000, content.size());
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void compressesLargeEntriesInChunks() throws IOException {
+        File directory = FileUtils.prepareWorkingDirectory();
+        byte[] content = new byte[(int) ParallelEntryWriter.LARGE_ENTRY_SIZE + ParallelDeflater.CHUNK_SIZE / 2];
+        Random random = new Random(42);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        File large = new File(directory, "large.txt");
+        Files.write(large.toPath(), content);
+
+        SortedMap<String, Asset> entries = new TreeMap<String, Asset>();
+        entries.put("assets/large.txt", new FileAsset(large));
+
+        byte[] sequential = write(entries, 1);
+        assertArrayEquals(sequential, write(entries, 4));
+        assertArrayEquals(sequential, write(entries, 16));
+
+        File apk = new File(directory, "test.apk");
+        Files.write(apk.toPath(), sequential);
+        ZipFile zipFile = new ZipFile(apk);
+        try {
+            ZipEntry entry = zipFile.getEntry("assets/large.txt");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertTrue(entry.getCompressedSize() < content.length / 2);
+
+            InputStream inputStream = zipFile.getInputStream(entry);
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                inflated.write(buffer, 0, read);
+            }
+            inputStream.close();
+            assertArrayEquals(content, inflated.toByteArray());
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static byte[] write(SortedMap<String, Asset> entries, int threads) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ApkWriter writer = new ApkWriter(outputStream, null, null, ApkWriter.DEFAULT_ALIGNMENT);
+        new ParallelEntryWriter(writer, new CompressionPolicy(Arrays.asList("png", "ogg")), threads).write(entries);
+        writer.finish();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@RunWith(JUnit4.class)
+public class ZipReaderTest {
+
+    @Test
+    public void readsEntries() throws IOException {
+        File zip = createZip(new File(FileUtils.prepareWorkingDirectory(), "test.zip"));
+
+        ZipReader reader = new ZipReader(zip);
+        try {
+            assertEquals(3, reader.getEntries().size());
+
+            ZipReader.Entry stored = reader.getEntry("res/raw/stored.bin");
+            assertEquals(ZipEntry.STORED, stored.getMethod());
+            assertArrayEquals(storedContent(), read(reader.openStream(stored)));
+
+            ZipReader.Entry deflated = reader.getEntry("res/layout/main.xml");
+            assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+            assertArrayEquals(deflatedContent(), read(reader.openStream(deflated)));
+
+            assertNull(reader.getEntry("missing"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void addsEntriesWithoutRecompression() throws IOException {
+        File zip = createZip(new File(FileUtils.prepareWorkingDirectory(), "test.zip"));
+
+        byte[] rawBefore;
+        ZipReader reader = new ZipReader(zip);
+        try {
+            rawBefore = read(reader.openRawStream(reader.getEntry("res/layout/main.xml")));
+        } finally {
+            reader.close();
+        }
+
+        FileUtils.addEntriesToExistingZip(zip,
+            Collections.<String, Asset> singletonMap("classes.dex", new StringAsset("new dex")));
+
+        reader = new ZipReader(zip);
+        try {
+            assertEquals(3, reader.getEntries().size());
+            assertEquals(ZipEntry.STORED, reader.getEntry("res/raw/stored.bin").getMethod());
+            assertArrayEquals(rawBefore, read(reader.openRawStream(reader.getEntry("res/layout/main.xml"))));
+            assertArrayEquals("new dex".getBytes("UTF-8"), read(reader.openStream(reader.getEntry("classes.dex"))));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File createZip(File file) throws IOException {
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(file));
+        // different level than the writer uses, recompressed data would differ
+        zipOutputStream.setLevel(Deflater.BEST_SPEED);
+
+        byte[] stored = storedContent();
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        ZipEntry storedEntry = new ZipEntry("res/raw/stored.bin");
+        storedEntry.setMethod(ZipEntry.STORED);
+        storedEntry.setSize(stored.length);
+        storedEntry.setCompressedSize(stored.length);
+        storedEntry.setCrc(crc.getValue());
+        zipOutputStream.putNextEntry(storedEntry);
+        zipOutputStream.write(stored);
+        zipOutputStream.closeEntry();
+
+        zipOutputStream.putNextEntry(new ZipEntry("res/layout/main.xml"));
+        zipOutputStream.write(deflatedContent());
+        zipOutputStream.closeEntry();
+
+        zipOutputStream.putNextEntry(new ZipEntry("classes.dex"));
+        zipOutputStream.write("old dex".getBytes("UTF-8"));
+        zipOutputStream.closeEntry();
+
+        zipOutputStream.close();
+        return file;
+    }
+
+    private byte[] storedContent() {
+        byte[] content = new byte[1000];
+        Arrays.fill(content, (byte) 42);
+        return content;
+    }
+
+    private byte[] deflatedContent() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<TextView android:id=\"@+id/text").append(i).append("\" />\n");
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link FileUtils#addFilesToExistingZip(File, File...)} adding a dex file to APKs of various sizes. Every invocation
+ * starts from a fresh copy of the APK, the copy isn't measured.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AddFilesToZipBenchmark {
+
+    private static final int ENTRY_SIZE = 64 * 1024;
+
+    @Param({ "1", "20", "200" })
+    public int apkSizeMegabytes;
+
+    private File root;
+    private File originalApk;
+    private File apk;
+    private File dex;
+
+    @Setup(Level.Trial)
+    public void createApk() throws IOException {
+        root = FileUtils.prepareWorkingDirectory();
+        originalApk = new File(root, "original.apk");
+        apk = new File(root, "benchmark.apk");
+        Random random = new Random(42);
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(originalApk));
+        try {
+            byte[] content = new byte[ENTRY_SIZE];
+            int entries = apkSizeMegabytes * 1024 * 1024 / ENTRY_SIZE;
+            for (int i = 0; i < entries; i++) {
+                // half of the entries compress well like resources, the rest doesn't like images
+                if (i % 2 == 0) {
+                    for (int j = 0; j < content.length; j++) {
+                        content[j] = (byte) ('a' + j % 16);
+                    }
+                } else {
+                    random.nextBytes(content);
+                }
+                zipOutputStream.putNextEntry(new ZipEntry("res/raw/entry" + i));
+                zipOutputStream.write(content);
+                zipOutputStream.closeEntry();
+            }
+        } finally {
+            zipOutputStream.close();
+        }
+
+        dex = new File(root, "classes.dex");
+        byte[] dexContent = new byte[1024 * 1024];
+        random.nextBytes(dexContent);
+        FileOutputStream outputStream = new FileOutputStream(dex);
+        try {
+            outputStream.write(dexContent);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreApk() throws IOException {
+        FileUtils.copyFile(originalApk, apk);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteApk() throws IOException {
+        FileUtils.delete(root);
+    }
+
+    @Benchmark
+    public void addFilesToExistingZip() throws IOException {
+        FileUtils.addFilesToExistingZip(apk, dex);
+    }
+}
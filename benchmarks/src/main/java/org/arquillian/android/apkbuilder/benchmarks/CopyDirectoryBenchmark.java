@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link FileUtils#copyDirectory(File, File)} of a wide tree (few directories with many files) and of a deep one (long
+ * chains of directories with few files each), both with the same number of files.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CopyDirectoryBenchmark {
+
+    @Param({ "wide", "deep" })
+    public String shape;
+
+    @Param({ "1000" })
+    public int files;
+
+    @Param({ "2048" })
+    public int fileSize;
+
+    private File root;
+    private File source;
+    private File destination;
+    private int copies;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = FileUtils.prepareWorkingDirectory();
+        source = new File(root, "source");
+        byte[] content = new byte[fileSize];
+
+        for (int i = 0; i < files; i++) {
+            File directory;
+            if ("wide".equals(shape)) {
+                directory = new File(source, "directory" + (i % 10));
+            } else {
+                // ten levels deep, a new chain every ten files
+                StringBuilder path = new StringBuilder();
+                for (int level = 0; level < 10; level++) {
+                    path.append("level").append(level).append('-').append(i / 10).append(File.separatorChar);
+                }
+                directory = new File(source, path.toString());
+            }
+            directory.mkdirs();
+
+            FileOutputStream outputStream = new FileOutputStream(new File(directory, "file" + i));
+            try {
+                outputStream.write(content);
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void chooseDestination() {
+        destination = new File(root, "copy" + copies++);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteCopy() throws IOException {
+        FileUtils.delete(destination);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        FileUtils.delete(root);
+    }
+
+    @Benchmark
+    public void copyDirectory() throws IOException {
+        FileUtils.copyDirectory(source, destination);
+    }
+}
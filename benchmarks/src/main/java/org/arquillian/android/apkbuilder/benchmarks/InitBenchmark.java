@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.arquillian.android.apkbuilder.ApkBuilder;
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.ByteArrayAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Materialization of archives into the working directory by {@link ApkBuilder#init}.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InitBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int entries;
+
+    @Param({ "4096" })
+    public int entrySize;
+
+    @Param({ "false", "true" })
+    public boolean inMemory;
+
+    private JavaArchive archive;
+    private final List<File> workingDirectories = new ArrayList<File>();
+
+    @Setup(Level.Trial)
+    public void createArchive() {
+        Random random = new Random(42);
+        archive = ShrinkWrap.create(JavaArchive.class, "benchmark.apk");
+        archive.add(new ByteArrayAsset("<manifest />".getBytes()), "AndroidManifest.xml");
+        for (int i = 0; i < entries; i++) {
+            byte[] content = new byte[entrySize];
+            random.nextBytes(content);
+            // a third of each kind, as in a typical test deployment
+            String path;
+            if (i % 3 == 0) {
+                path = "res/raw/resource" + i;
+            } else if (i % 3 == 1) {
+                path = "class/org/example/package" + (i % 10) + "/Class" + i + ".class";
+            } else {
+                path = "asset/asset" + i;
+            }
+            archive.add(new ByteArrayAsset(content), path);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteWorkingDirectories() throws IOException {
+        for (File workingDirectory : workingDirectories) {
+            FileUtils.delete(workingDirectory);
+        }
+        workingDirectories.clear();
+    }
+
+    @Benchmark
+    public ApkBuilder init() {
+        ApkBuilder builder = ApkBuilder.init(archive, inMemory);
+        workingDirectories.add(builder.getWorkingDirectory());
+        return builder;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.arquillian.android.apkbuilder.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.arquillian.android.apkbuilder.util.FileUtils;
+import org.arquillian.android.apkbuilder.util.SDKUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of {@link SDKUtils} and lookup of tools against a synthetic SDK with the usual layout of platforms and
+ * build tools.
+ *
+ * @author <a href="mailto:tkriz@redhat.com">Tadeas Kriz</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SDKUtilsBenchmark {
+
+    private static final int API_LEVEL = 17;
+
+    @Param({ "5", "25" })
+    public int platforms;
+
+    @Param({ "5", "25" })
+    public int buildTools;
+
+    private File sdk;
+    private SDKUtils sdkUtils;
+
+    @Setup(Level.Trial)
+    public void createSdk() throws IOException {
+        sdk = FileUtils.prepareWorkingDirectory();
+
+        for (int i = 0; i < platforms; i++) {
+            int apiLevel = API_LEVEL - platforms / 2 + i;
+            File platform = new File(sdk, "platforms/android-" + apiLevel);
+            platform.mkdirs();
+            write(new File(platform, "source.properties"),
+                "Platform.Version=4." + i + "\nAndroidVersion.ApiLevel=" + apiLevel + "\n");
+            write(new File(platform, "android.jar"), "");
+        }
+
+        for (int i = 0; i < buildTools; i++) {
+            File buildTool = new File(sdk, "build-tools/" + (17 + i) + ".0.0");
+            buildTool.mkdirs();
+            write(new File(buildTool, "aapt"), "");
+            write(new File(buildTool, "dx"), "");
+            write(new File(buildTool, "zipalign"), "");
+        }
+
+        new File(sdk, "platform-tools").mkdirs();
+        new File(sdk, "tools").mkdirs();
+
+        sdkUtils = new SDKUtils(sdk.getAbsolutePath(), API_LEVEL);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSdk() throws IOException {
+        FileUtils.delete(sdk);
+    }
+
+    @Benchmark
+    public File constructAndFindPlatform() {
+        return new SDKUtils(sdk.getAbsolutePath(), API_LEVEL).getPlatformDirectory();
+    }
+
+    @Benchmark
+    public String findBuildTool() {
+        return sdkUtils.findBuildTool("dx");
+    }
+
+    @Benchmark
+    public String findMissingTool() {
+        return sdkUtils.findTool("nonexistent");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}